@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Thread dump captures used by the benchmarks.<br>
+ * Real-world captures are read from samurai-core's test corpus; "synthetic" generates a HotSpot style capture.
+ */
+final class Corpus {
+    static final String SYNTHETIC = "synthetic";
+
+    private Corpus() {
+    }
+
+    /**
+     * Loads the specified capture and concatenates it {@code scale} times to emulate long-running stdout captures.
+     *
+     * @param name  resource path relative to the corpus root, or {@link #SYNTHETIC}
+     * @param scale number of copies
+     * @return capture contents
+     */
+    static byte[] load(String name, int scale) {
+        byte[] single = SYNTHETIC.equals(name) ? SyntheticThreadDump.generate(200, 40, 10) : read(name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(single.length * scale);
+        for (int i = 0; i < scale; i++) {
+            out.writeBytes(single);
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+
+    static long countLines(byte[] content) {
+        long lines = 0;
+        for (byte b : content) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private static byte[] read(String name) {
+        try (InputStream is = Corpus.class.getResourceAsStream("/" + name)) {
+            if (is == null) {
+                throw new IllegalArgumentException("no such capture: " + name);
+            }
+            return is.readAllBytes();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+}
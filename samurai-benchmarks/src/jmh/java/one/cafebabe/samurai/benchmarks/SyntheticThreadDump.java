@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates OpenJDK 17 style thread dumps with configurable thread count, stack depth and number of dumps.
+ */
+final class SyntheticThreadDump {
+    private SyntheticThreadDump() {
+    }
+
+    static byte[] generate(int threads, int depth, int dumps) {
+        StringBuilder buf = new StringBuilder(threads * depth * dumps * 80);
+        for (int dump = 0; dump < dumps; dump++) {
+            buf.append("2021-09-15 17:33:").append(10 + dump % 50).append('\n');
+            buf.append("Full thread dump OpenJDK 64-Bit Server VM (17+35-2724 mixed mode, sharing):\n\n");
+            for (int thread = 0; thread < threads; thread++) {
+                appendThread(buf, thread, depth, dump);
+            }
+            // log noise between dumps
+            for (int i = 0; i < threads; i++) {
+                buf.append("2021-09-15 17:33:34.123  INFO 22153 --- [nio-8080-exec-").append(i)
+                        .append("] o.a.c.c.C.[Tomcat].[localhost].[/] : request ").append(i).append(" completed\n");
+            }
+        }
+        return buf.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendThread(StringBuilder buf, int thread, int depth, int dump) {
+        boolean blocked = thread % 10 == 1;
+        boolean idle = thread % 3 == 0;
+        buf.append("\"http-nio-8080-exec-").append(thread).append("\" #").append(thread + 20)
+                .append(" daemon prio=5 os_prio=31 cpu=").append(thread * 10 + dump).append(".42ms elapsed=")
+                .append(100 + dump * 30).append(".01s tid=0x00007fa8").append(String.format("%08x", thread))
+                .append(" nid=0x").append(Integer.toHexString(thread + 0x1000))
+                .append(blocked ? " waiting for monitor entry  [0x0000700006bd2000]\n"
+                        : idle ? " in Object.wait()  [0x0000700006bd2000]\n"
+                        : " runnable  [0x0000700006bd2000]\n");
+        buf.append(blocked ? "   java.lang.Thread.State: BLOCKED (on object monitor)\n"
+                : idle ? "   java.lang.Thread.State: WAITING (on object monitor)\n"
+                : "   java.lang.Thread.State: RUNNABLE\n");
+        if (idle) {
+            buf.append("\tat java.lang.Object.wait(java.base@17/Native Method)\n");
+            buf.append("\t- waiting on <0x000000061fcc").append(String.format("%04x", thread)).append("> (a java.lang.Object)\n");
+        }
+        for (int frame = 0; frame < depth; frame++) {
+            buf.append("\tat com.example.service.Layer").append(frame).append(".handle(Layer").append(frame)
+                    .append(".java:").append(frame * 7 + 10).append(")\n");
+            if (blocked && frame == 0) {
+                buf.append("\t- waiting to lock <0x000000061fcc9b90> (a java.lang.Object)\n");
+            }
+            if (thread == 0 && frame == 2) {
+                buf.append("\t- locked <0x000000061fcc9b90> (a java.lang.Object)\n");
+            }
+        }
+        buf.append("\tat java.lang.Thread.run(java.base@17/Thread.java:833)\n\n");
+        buf.append("   Locked ownable synchronizers:\n\t- None\n\n");
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.benchmarks;
+
+import one.cafebabe.samurai.core.ThreadDumpExtractor;
+import one.cafebabe.samurai.core.ThreadStatistic;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Measures thread dump ingestion, i.e. {@link ThreadDumpExtractor} feeding a {@link ThreadStatistic}.<br>
+ * Secondary metrics "lines" and "bytes" are reported per second. Run with {@code -prof gc} (the default in build.gradle)
+ * and divide gc.alloc.rate.norm by the "lines per op" printed at setup to get bytes allocated per line.
+ * <pre>
+ * ./gradlew :samurai-benchmarks:jmh
+ * ./gradlew :samurai-benchmarks:jmh -PjmhIncludes=ThreadDumpExtractorBenchmark.analyzeInputStream
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadDumpExtractorBenchmark {
+
+    @Param({"OpenJDK/17/samurai.core.DeadLockingThreads-22153-2021-09-15-17-33-34.dmp",
+            "Apple/1.6.0_05AppleStacked_jstack.dmp",
+            "BEA/weblogic.admin910JRockit.dmp",
+            "IBM/1.4.2IBM/javacore.20060511.172914.516.txt",
+            "HP/hp.dmp",
+            "Liberica/11/deadlock-liberica11.dmp",
+            "SpringBoot/spring-boot-2.5.4-java8.dmp",
+            "SpringBoot/spring-boot-2.5.4-java8-pretty.dmp",
+            "SpringBoot/spring-boot-2.5.4-java8-text.dmp",
+            Corpus.SYNTHETIC})
+    public String capture;
+
+    /**
+     * number of times the capture is repeated, emulating long-running stdout captures
+     */
+    @Param({"1", "50"})
+    public int scale;
+
+    private byte[] content;
+    private List<String> lines;
+    private long lineCount;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        content = Corpus.load(capture, scale);
+        lineCount = Corpus.countLines(content);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+            lines = reader.lines().collect(Collectors.toList());
+        }
+        file = Files.createTempFile("samurai-benchmark", ".dmp");
+        Files.write(file, content);
+        System.out.printf("%n%s x%d: %d bytes, %d lines per op%n", capture, scale, content.length, lineCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Per-thread counters reported by JMH as rates: lines/sec and bytes/sec.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Volume {
+        public long lines;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+            bytes = 0;
+        }
+    }
+
+    @Benchmark
+    public ThreadStatistic analyzeInputStream(Volume volume) throws IOException {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(new ByteArrayInputStream(content));
+        volume.lines += lineCount;
+        volume.bytes += content.length;
+        return statistic;
+    }
+
+    @Benchmark
+    public ThreadStatistic analyzeMappedFile(Volume volume) throws IOException {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(file);
+        volume.lines += lineCount;
+        volume.bytes += content.length;
+        return statistic;
+    }
+
+    @Benchmark
+    public ThreadStatistic analyzeMappedFileParallel(Volume volume) throws IOException {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyzeParallel(file);
+        volume.lines += lineCount;
+        volume.bytes += content.length;
+        return statistic;
+    }
+
+    /**
+     * Line by line ingestion as done by ThreadDumpPanel while tailing a log, excluding the cost of decoding.
+     */
+    @Benchmark
+    public ThreadStatistic analyzeLine(Volume volume) {
+        ThreadStatistic statistic = new ThreadStatistic();
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(statistic);
+        for (String line : lines) {
+            extractor.analyzeLine(line);
+        }
+        extractor.finish();
+        volume.lines += lineCount;
+        volume.bytes += content.length;
+        return statistic;
+    }
+}
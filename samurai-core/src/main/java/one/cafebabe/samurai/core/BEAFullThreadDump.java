@@ -22,15 +22,15 @@ public class BEAFullThreadDump extends FullThreadDump {
         super(header);
     }
 
-    /*package*/ boolean isThreadHeader(String line) {
+    protected boolean isThreadHeader(String line) {
         return (line.startsWith("\"") || line.startsWith("Thread-")) && line.contains("prio");
     }
 
-    /*package*/ boolean isThreadFooter(String line) {
+    protected boolean isThreadFooter(String line) {
         return "".equals(line) || line.contains("}");
     }
 
-    /*package*/ boolean isThreadDumpContinuing(String line) {
+    protected boolean isThreadDumpContinuing(String line) {
         return !line.startsWith("======================================");
     }
 
@@ -101,7 +101,7 @@ public class BEAThreadDump extends ThreadDump {
 
     }
 
-    /*package*/ void addStackLine(String stackLine) {
+    protected void addStackLine(String stackLine) {
         super.addStackLine(new BEAStackLine(stackLine.substring(stackLine.indexOf(" ") + 1)));
     }
 
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Thread dumps taken from several JVMs, typically instances of the same service captured at the same moment.<br>
+ * Each JVM, or node, is read into its own {@link ThreadStatistic} as thread ids are only unique within a JVM.
+ * Sources are read in parallel, one {@link ThreadDumpExtractor} per source, and every full thread dump is tagged with its node id.
+ * Cluster-wide views are computed on demand over all full thread dumps retained by each node, once the analysis has returned.
+ */
+public final class ClusterStatistic {
+    // state codes of ThreadStateMatrix
+    private static final int STATES = ThreadStateMatrix.DEADLOCKED + 1;
+
+    private final Map<String, ThreadStatistic> nodes = new LinkedHashMap<>();
+
+    public ClusterStatistic() {
+    }
+
+    /**
+     * a source of thread dumps
+     */
+    @FunctionalInterface
+    private interface Source {
+        void analyze(ThreadDumpExtractor extractor) throws IOException;
+    }
+
+    /**
+     * Reads thread dump files in parallel on the common pool.
+     *
+     * @param files node id to thread dump file
+     * @throws IOException - If an I/O error occurs
+     */
+    public void analyze(Map<String, Path> files) throws IOException {
+        analyze(files, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads thread dump files in parallel.
+     *
+     * @param files node id to thread dump file
+     * @param pool  the pool to read files on
+     * @throws IOException - If an I/O error occurs
+     */
+    public void analyze(Map<String, Path> files, ExecutorService pool) throws IOException {
+        Map<String, Source> sources = new LinkedHashMap<>();
+        files.forEach((nodeId, file) -> sources.put(nodeId, extractor -> extractor.analyze(file)));
+        analyzeSources(sources, pool);
+    }
+
+    /**
+     * Reads thread dumps from streams in parallel and closes them, including ones not read because another one failed.
+     *
+     * @param streams node id to stream of thread dumps
+     * @param pool    the pool to read streams on
+     * @throws IOException - If an I/O error occurs
+     */
+    public void analyzeStreams(Map<String, ? extends InputStream> streams, ExecutorService pool) throws IOException {
+        Map<String, Source> sources = new LinkedHashMap<>();
+        streams.forEach((nodeId, stream) -> sources.put(nodeId, extractor -> extractor.analyze(stream)));
+        try {
+            analyzeSources(sources, pool);
+        } finally {
+            for (InputStream stream : streams.values()) {
+                try {
+                    stream.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void analyzeSources(Map<String, Source> sources, ExecutorService pool) throws IOException {
+        List<Future<?>> futures = new ArrayList<>(sources.size());
+        try {
+            for (Map.Entry<String, Source> source : sources.entrySet()) {
+                ThreadDumpExtractor extractor = new ThreadDumpExtractor(new NodeRenderer(source.getKey(), getOrCreateNode(source.getKey())));
+                futures.add(pool.submit(() -> {
+                    source.getValue().analyze(extractor);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Futures.rethrow(e);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private synchronized ThreadStatistic getOrCreateNode(String nodeId) {
+        return nodes.computeIfAbsent(nodeId, id -> new ThreadStatistic());
+    }
+
+    /**
+     * tags full thread dumps with the node id before handing them to the node's statistic
+     */
+    private static final class NodeRenderer implements ThreadDumpRenderer {
+        private final String nodeId;
+        private final ThreadStatistic statistic;
+
+        private NodeRenderer(String nodeId, ThreadStatistic statistic) {
+            this.nodeId = nodeId;
+            this.statistic = statistic;
+        }
+
+        @Override
+        public void onFullThreadDump(FullThreadDump fullThreadDump) {
+            fullThreadDump.setNodeId(nodeId);
+            statistic.onFullThreadDump(fullThreadDump);
+        }
+
+        @Override
+        public void onThreadDump(ThreadDump threadDump) {
+            statistic.onThreadDump(threadDump);
+        }
+    }
+
+    /**
+     * @return node ids in the order they were added
+     */
+    public synchronized List<String> getNodeIds() {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    /**
+     * @param nodeId node id
+     * @return thread dumps of the node, null if not found
+     */
+    public synchronized ThreadStatistic getNode(String nodeId) {
+        return nodes.get(nodeId);
+    }
+
+    /**
+     * @param nodeId node id
+     * @return number of threads per state code defined in {@link ThreadStateMatrix}, across the full thread dumps of the node
+     */
+    public int[] getStateHistogram(String nodeId) {
+        int[] histogram = new int[STATES];
+        ThreadStatistic node = getNode(nodeId);
+        if (null != node) {
+            for (FullThreadDump fullThreadDump : node.getFullThreadDumps()) {
+                for (ThreadDump threadDump : fullThreadDump.getThreadDumps()) {
+                    histogram[ThreadStateMatrix.stateOf(threadDump)]++;
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * returns frames, as "class.method", with the number of threads having them on their stacks per node
+     *
+     * @return frame counts, the most frequent across the cluster first
+     */
+    public List<FrameCount> getFrameCounts() {
+        List<String> nodeIds = getNodeIds();
+        Map<String, FrameCount> counts = new HashMap<>();
+        // stack line -> frame name, shared across nodes running the same code
+        Map<String, String> frameNames = new HashMap<>();
+        Set<String> framesOfThread = new HashSet<>();
+        for (int node = 0; node < nodeIds.size(); node++) {
+            ThreadStatistic statistic = getNode(nodeIds.get(node));
+            for (FullThreadDump fullThreadDump : statistic.getFullThreadDumps()) {
+                for (ThreadDump threadDump : fullThreadDump.getThreadDumps()) {
+                    framesOfThread.clear();
+                    for (StackLine stackLine : threadDump.getStackLines()) {
+                        if (stackLine.isLine()) {
+                            framesOfThread.add(frameNames.computeIfAbsent(stackLine.getLine(),
+                                    line -> stackLine.getClassName() + '.' + stackLine.getMethodName()));
+                        }
+                    }
+                    for (String frame : framesOfThread) {
+                        counts.computeIfAbsent(frame, name -> new FrameCount(name, nodeIds.size())).counts[node]++;
+                    }
+                }
+            }
+        }
+        List<FrameCount> frameCounts = new ArrayList<>(counts.values());
+        frameCounts.sort((o1, o2) -> o1.getTotal() != o2.getTotal() ? Integer.compare(o2.getTotal(), o1.getTotal())
+                : o1.getFrame().compareTo(o2.getFrame()));
+        return frameCounts;
+    }
+
+    /**
+     * Scores how much each node deviates from the rest of the cluster.<br>
+     * The score is the mean of two distances from the cluster median, both normalized by the number of threads of the node:
+     * the total variation distance of the state histogram, and the relative L1 distance of the frame counts.
+     * It ranges from 0, a typical node, to 1.
+     *
+     * @return node id to score, the most deviating node first
+     */
+    public Map<String, Double> getOutlierScores() {
+        List<String> nodeIds = getNodeIds();
+        int nodeCount = nodeIds.size();
+        double[][] states = new double[nodeCount][];
+        int[] threadCounts = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            int[] histogram = getStateHistogram(nodeIds.get(node));
+            threadCounts[node] = Arrays.stream(histogram).sum();
+            states[node] = normalize(histogram, threadCounts[node]);
+        }
+        List<FrameCount> frameCounts = getFrameCounts();
+        double[][] frames = new double[nodeCount][];
+        for (int node = 0; node < nodeCount; node++) {
+            int[] counts = new int[frameCounts.size()];
+            for (int frame = 0; frame < counts.length; frame++) {
+                counts[frame] = frameCounts.get(frame).getCount(node);
+            }
+            frames[node] = normalize(counts, threadCounts[node]);
+        }
+        double[] stateMedian = median(states);
+        double[] frameMedian = median(frames);
+        double[] scores = new double[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            double stateDistance = 0;
+            for (int state = 0; state < STATES; state++) {
+                stateDistance += Math.abs(states[node][state] - stateMedian[state]);
+            }
+            double frameDifference = 0;
+            double frameSum = 0;
+            for (int frame = 0; frame < frameMedian.length; frame++) {
+                frameDifference += Math.abs(frames[node][frame] - frameMedian[frame]);
+                frameSum += frames[node][frame] + frameMedian[frame];
+            }
+            scores[node] = (stateDistance / 2 + (0 == frameSum ? 0 : frameDifference / frameSum)) / 2;
+        }
+        Integer[] order = new Integer[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            order[node] = node;
+        }
+        Arrays.sort(order, (o1, o2) -> Double.compare(scores[o2], scores[o1]));
+        Map<String, Double> outlierScores = new LinkedHashMap<>();
+        for (int node : order) {
+            outlierScores.put(nodeIds.get(node), scores[node]);
+        }
+        return outlierScores;
+    }
+
+    private static double[] normalize(int[] counts, int threadCount) {
+        double[] normalized = new double[counts.length];
+        if (0 < threadCount) {
+            for (int i = 0; i < counts.length; i++) {
+                normalized[i] = (double) counts[i] / threadCount;
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * @param values values per node
+     * @return median per dimension
+     */
+    private static double[] median(double[][] values) {
+        if (0 == values.length) {
+            return new double[0];
+        }
+        double[] median = new double[values[0].length];
+        double[] column = new double[values.length];
+        for (int i = 0; i < median.length; i++) {
+            for (int node = 0; node < values.length; node++) {
+                column[node] = values[node][i];
+            }
+            Arrays.sort(column);
+            int middle = column.length / 2;
+            median[i] = 0 == column.length % 2 ? (column[middle - 1] + column[middle]) / 2 : column[middle];
+        }
+        return median;
+    }
+
+    /**
+     * number of threads having a frame on their stacks, per node
+     */
+    public static final class FrameCount {
+        private final String frame;
+        private final int[] counts;
+
+        private FrameCount(String frame, int nodeCount) {
+            this.frame = frame;
+            this.counts = new int[nodeCount];
+        }
+
+        /**
+         * @return frame name, e.g. "java.net.SocketInputStream.socketRead0"
+         */
+        public String getFrame() {
+            return frame;
+        }
+
+        /**
+         * @param node index of the node in {@link ClusterStatistic#getNodeIds()}
+         * @return number of threads having the frame on their stacks
+         */
+        public int getCount(int node) {
+            return counts[node];
+        }
+
+        /**
+         * @return number of threads having the frame on their stacks across the cluster
+         */
+        public int getTotal() {
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * @return number of nodes having the frame on any stack
+         */
+        public int getNodeCount() {
+            int nodeCount = 0;
+            for (int count : counts) {
+                if (0 < count) {
+                    nodeCount++;
+                }
+            }
+            return nodeCount;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Detects gzip, zip and tar.gz files by their magic numbers and decompresses them as streams, never to disk.<br>
+ * Entries of an archive are read in order of modification time, then name, as dumps in a capture bundle are usually named and stamped in sequence.
+ */
+public final class CompressedInput {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CompressedInput() {
+    }
+
+    public enum Format {
+        PLAIN,
+        GZIP,
+        ZIP,
+        TAR_GZIP
+    }
+
+    /**
+     * order of archive entries
+     */
+    /*package*/ static final Comparator<ZipEntry> ZIP_ENTRY_ORDER = Comparator.comparingLong(ZipEntry::getTime).thenComparing(ZipEntry::getName);
+    /*package*/ static final Comparator<TarEntry<?>> TAR_ENTRY_ORDER = Comparator.comparingLong((TarEntry<?> entry) -> entry.time).thenComparing(entry -> entry.name);
+
+    /**
+     * an entry of a tar archive along with what was read from it, put in order once the whole archive is read as the stream can't be rewound
+     *
+     * @param <T> what was read from the entry
+     */
+    /*package*/ static final class TarEntry<T> {
+        private final String name;
+        private final long time;
+        /*package*/ T content;
+
+        /*package*/ TarEntry(String name, long time) {
+            this.name = name;
+            this.time = time;
+        }
+    }
+
+    /**
+     * @param path file to be examined
+     * @return format of the file
+     * @throws IOException - If an I/O error occurs
+     */
+    public static Format formatOf(Path path) throws IOException {
+        byte[] magic;
+        try (InputStream is = Files.newInputStream(path)) {
+            magic = is.readNBytes(4);
+        }
+        if (4 == magic.length && 'P' == magic[0] && 'K' == magic[1]
+                && ((3 == magic[2] && 4 == magic[3]) || (5 == magic[2] && 6 == magic[3]))) {
+            return Format.ZIP;
+        }
+        if (2 <= magic.length && (byte) 0x1f == magic[0] && (byte) 0x8b == magic[1]) {
+            try (InputStream is = new GZIPInputStream(Files.newInputStream(path))) {
+                byte[] block = new byte[512];
+                int read = is.readNBytes(block, 0, block.length);
+                return TarReader.isHeader(block, read) ? Format.TAR_GZIP : Format.GZIP;
+            } catch (EOFException e) {
+                // truncated, reported when read
+                return Format.GZIP;
+            }
+        }
+        return Format.PLAIN;
+    }
+
+    /**
+     * @param path file to be examined
+     * @return true if the file is gzip, zip or tar.gz
+     * @throws IOException - If an I/O error occurs
+     */
+    public static boolean isCompressed(Path path) throws IOException {
+        return Format.PLAIN != formatOf(path);
+    }
+
+    /**
+     * Opens the file, decompressing it if compressed.
+     * Entries of an archive are concatenated, each ending with a line break.
+     * Entries are in order of modification time, then name. tar.gz entries are inflated into memory to be sorted.
+     *
+     * @param path file to be opened
+     * @return decompressed content
+     * @throws IOException - If an I/O error occurs
+     */
+    public static InputStream open(Path path) throws IOException {
+        switch (formatOf(path)) {
+            case GZIP:
+                return new GZIPInputStream(Files.newInputStream(path), BUFFER_SIZE);
+            case TAR_GZIP:
+                List<TarEntry<byte[]>> tarEntries = new ArrayList<>();
+                try (InputStream gzip = new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path), BUFFER_SIZE), BUFFER_SIZE)) {
+                    TarReader tar = new TarReader(gzip);
+                    while (tar.next()) {
+                        TarEntry<byte[]> entry = new TarEntry<>(tar.getName(), tar.getTime());
+                        entry.content = tar.getContent().readAllBytes();
+                        tarEntries.add(entry);
+                    }
+                }
+                tarEntries.sort(TAR_ENTRY_ORDER);
+                Iterator<TarEntry<byte[]>> sorted = tarEntries.iterator();
+                return new Concatenated(() -> {
+                }) {
+                    @Override
+                    InputStream nextEntry() {
+                        return sorted.hasNext() ? new ByteArrayInputStream(sorted.next().content) : null;
+                    }
+                };
+            case ZIP:
+                ZipFile zipFile = new ZipFile(path.toFile());
+                Iterator<? extends ZipEntry> entries = sortedEntries(zipFile).iterator();
+                return new Concatenated(zipFile) {
+                    @Override
+                    InputStream nextEntry() throws IOException {
+                        return entries.hasNext() ? zipFile.getInputStream(entries.next()) : null;
+                    }
+                };
+            default:
+                return Files.newInputStream(path);
+        }
+    }
+
+    /**
+     * @param zipFile zip file
+     * @return files in the zip file, in order of modification time, then name
+     */
+    /*package*/
+    static List<ZipEntry> sortedEntries(ZipFile zipFile) {
+        List<ZipEntry> entries = new ArrayList<>();
+        zipFile.stream().filter(entry -> !entry.isDirectory()).forEach(entries::add);
+        entries.sort(ZIP_ENTRY_ORDER);
+        return entries;
+    }
+
+    /**
+     * entries read one after another, each followed by a line break so that the last line of an entry doesn't run into the next
+     */
+    private abstract static class Concatenated extends InputStream {
+        private final AutoCloseable archive;
+        private InputStream entry = null;
+        private boolean lineBreakPending = false;
+        private boolean eof = false;
+
+        Concatenated(AutoCloseable archive) {
+            this.archive = archive;
+        }
+
+        /**
+         * @return content of the next entry, null at the end of the archive
+         */
+        abstract InputStream nextEntry() throws IOException;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return -1 == read(b, 0, 1) ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            while (!eof) {
+                if (lineBreakPending) {
+                    lineBreakPending = false;
+                    b[off] = '\n';
+                    return 1;
+                }
+                if (null == entry) {
+                    entry = nextEntry();
+                    if (null == entry) {
+                        eof = true;
+                        break;
+                    }
+                }
+                int read = entry.read(b, off, len);
+                if (-1 != read) {
+                    return read;
+                }
+                entry.close();
+                entry = null;
+                lineBreakPending = true;
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (null != entry) {
+                    entry.close();
+                }
+            } finally {
+                try {
+                    archive.close();
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+}
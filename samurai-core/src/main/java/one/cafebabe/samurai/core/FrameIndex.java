@@ -0,0 +1,286 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of stack frames across full thread dumps, maintained by {@link ThreadStatistic}.<br>
+ * A frame is looked up by its class name ("java.net.SocketInputStream"), its method name ("socketRead0")
+ * or both ("java.net.SocketInputStream#socketRead0"). Each occurrence is posted as (dump, thread, depth) in primitive arrays,
+ * where dump is the index among all full thread dumps received starting with 0, and depth is 0 for the top frame.
+ */
+public final class FrameIndex {
+    private final Map<String, Postings> postingsByTerm = new HashMap<>();
+    // stack line -> postings of its class, method and class#method, so that repeated lines are not decoded again
+    private final Map<String, Line> postingsByLine = new HashMap<>();
+    private final Map<String, Integer> threadOrdinals = new HashMap<>();
+    private List<String> threadIds = new ArrayList<>();
+    // thread ordinal -> the last full thread dump the thread is in
+    private int[] lastDumps = new int[16];
+    private int firstDump = 0;
+
+    /*package*/ FrameIndex() {
+    }
+
+    /**
+     * receives occurrences of a frame
+     */
+    @FunctionalInterface
+    public interface PostingConsumer {
+        /**
+         * @param dump     index of the full thread dump
+         * @param threadId thread id
+         * @param depth    depth of the frame, 0 for the top frame
+         */
+        void accept(int dump, String threadId, int depth);
+    }
+
+    /*package*/
+    synchronized void add(int dump, FullThreadDump fullThreadDump) {
+        for (ThreadDump threadDump : fullThreadDump.getThreadDumps()) {
+            String threadId = threadDump.getId();
+            Integer thread = threadOrdinals.get(threadId);
+            if (null == thread) {
+                thread = threadIds.size();
+                threadOrdinals.put(threadId, thread);
+                threadIds.add(threadId);
+                if (thread == lastDumps.length) {
+                    lastDumps = Arrays.copyOf(lastDumps, thread * 2);
+                }
+            }
+            lastDumps[thread] = dump;
+            int depth = 0;
+            for (StackLine stackLine : threadDump.getStackLines()) {
+                if (!stackLine.isLine()) {
+                    continue;
+                }
+                Line line = postingsByLine.get(stackLine.getLine());
+                if (null == line) {
+                    String className = stackLine.getClassName();
+                    String methodName = stackLine.getMethodName();
+                    line = new Line(new Postings[]{postingsOf(className), postingsOf(methodName),
+                            postingsOf(className + '#' + methodName)});
+                    postingsByLine.put(stackLine.getLine(), line);
+                }
+                line.lastDump = dump;
+                for (Postings posting : line.postings) {
+                    posting.add(dump, thread, depth);
+                }
+                depth++;
+            }
+        }
+    }
+
+    private Postings postingsOf(String term) {
+        return postingsByTerm.computeIfAbsent(term, key -> new Postings());
+    }
+
+    /**
+     * drops postings of full thread dumps before the specified one, along with terms, lines and threads no longer posted
+     *
+     * @param firstDump index of the first full thread dump to keep
+     */
+    /*package*/
+    synchronized void evict(int firstDump) {
+        this.firstDump = Math.max(this.firstDump, firstDump);
+        postingsByTerm.values().removeIf(postings -> {
+            postings.evict(this.firstDump);
+            return 0 == postings.size;
+        });
+        // postings of a line are never empty while the line is in a retained full thread dump
+        postingsByLine.values().removeIf(line -> line.lastDump < this.firstDump);
+        int live = 0;
+        for (int i = 0; i < threadIds.size(); i++) {
+            if (this.firstDump <= lastDumps[i]) {
+                live++;
+            }
+        }
+        // renumbering rewrites every posting, so wait until most threads are gone
+        if (live < threadIds.size() - live) {
+            compactThreads();
+        }
+    }
+
+    private void compactThreads() {
+        int[] ordinals = new int[threadIds.size()];
+        List<String> liveThreadIds = new ArrayList<>();
+        threadOrdinals.clear();
+        for (int i = 0; i < threadIds.size(); i++) {
+            if (firstDump <= lastDumps[i]) {
+                ordinals[i] = liveThreadIds.size();
+                threadOrdinals.put(threadIds.get(i), liveThreadIds.size());
+                lastDumps[liveThreadIds.size()] = lastDumps[i];
+                liveThreadIds.add(threadIds.get(i));
+            }
+        }
+        threadIds = liveThreadIds;
+        for (Postings postings : postingsByTerm.values()) {
+            for (int i = 0; i < postings.size; i++) {
+                postings.threads[i] = ordinals[postings.threads[i]];
+            }
+        }
+    }
+
+    /*package*/ synchronized int getTermCount() {
+        return postingsByTerm.size();
+    }
+
+    /*package*/ synchronized int getThreadCount() {
+        return threadIds.size();
+    }
+
+    /**
+     * returns the index of the oldest full thread dump indexed
+     *
+     * @return index of the oldest full thread dump
+     */
+    public synchronized int getFirstDump() {
+        return firstDump;
+    }
+
+    /**
+     * passes every occurrence of the frame in the range to the consumer, in order of dump, thread and depth
+     *
+     * @param frame    class name, method name, or class name#method name
+     * @param fromDump index of the first full thread dump, inclusive
+     * @param toDump   index of the last full thread dump, inclusive
+     * @param consumer posting consumer
+     */
+    public synchronized void forEach(String frame, int fromDump, int toDump, PostingConsumer consumer) {
+        Postings postings = postingsByTerm.get(frame);
+        if (null == postings) {
+            return;
+        }
+        for (int i = postings.indexOf(fromDump); i < postings.size && postings.dumps[i] <= toDump; i++) {
+            consumer.accept(postings.dumps[i], threadIds.get(postings.threads[i]), postings.depths[i]);
+        }
+    }
+
+    /**
+     * returns threads which were inside the frame in the range of full thread dumps
+     *
+     * @param frame    class name, method name, or class name#method name
+     * @param fromDump index of the first full thread dump, inclusive
+     * @param toDump   index of the last full thread dump, inclusive
+     * @return thread ids in order of first occurrence
+     */
+    public synchronized List<String> getThreadIds(String frame, int fromDump, int toDump) {
+        Set<String> found = new LinkedHashSet<>();
+        forEach(frame, fromDump, toDump, (dump, threadId, depth) -> found.add(threadId));
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * counts threads which were inside the frame, per full thread dump
+     *
+     * @param frame    class name, method name, or class name#method name
+     * @param fromDump index of the first full thread dump, inclusive
+     * @param toDump   index of the last full thread dump, inclusive
+     * @return number of threads, indexed by dump - fromDump
+     */
+    public synchronized int[] getThreadCountPerDump(String frame, int fromDump, int toDump) {
+        int[] counts = new int[Math.max(0, toDump - fromDump + 1)];
+        Postings postings = postingsByTerm.get(frame);
+        if (null == postings) {
+            return counts;
+        }
+        int lastDump = -1;
+        int lastThread = -1;
+        for (int i = postings.indexOf(fromDump); i < postings.size && postings.dumps[i] <= toDump; i++) {
+            // recursive frames are posted once per depth, count the thread once
+            if (postings.dumps[i] != lastDump || postings.threads[i] != lastThread) {
+                lastDump = postings.dumps[i];
+                lastThread = postings.threads[i];
+                counts[lastDump - fromDump]++;
+            }
+        }
+        return counts;
+    }
+
+    private static final class Line {
+        private final Postings[] postings;
+        private int lastDump;
+
+        Line(Postings[] postings) {
+            this.postings = postings;
+        }
+    }
+
+    /**
+     * postings of a term, sorted by dump as full thread dumps are added in order
+     */
+    private static final class Postings {
+        private int[] dumps = new int[4];
+        private int[] threads = new int[4];
+        private int[] depths = new int[4];
+        private int size = 0;
+
+        void add(int dump, int thread, int depth) {
+            if (size == dumps.length) {
+                int capacity = size * 2;
+                dumps = Arrays.copyOf(dumps, capacity);
+                threads = Arrays.copyOf(threads, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+            }
+            dumps[size] = dump;
+            threads[size] = thread;
+            depths[size] = depth;
+            size++;
+        }
+
+        /**
+         * @param dump index of a full thread dump
+         * @return index of the first posting of the dump or later
+         */
+        int indexOf(int dump) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (dumps[middle] < dump) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        void evict(int firstDump) {
+            int from = indexOf(firstDump);
+            if (0 == from) {
+                return;
+            }
+            size -= from;
+            System.arraycopy(dumps, from, dumps, 0, size);
+            System.arraycopy(threads, from, threads, 0, size);
+            System.arraycopy(depths, from, depths, 0, size);
+            if (4 < dumps.length && size < dumps.length / 4) {
+                int capacity = Math.max(4, size * 2);
+                dumps = Arrays.copyOf(dumps, capacity);
+                threads = Arrays.copyOf(threads, capacity);
+                depths = Arrays.copyOf(depths, capacity);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Folds the stacks of every thread in every full thread dump into a prefix trie, rooted at the outermost frame.<br>
+ * Periodic thread dumps are samples of a poor man's profiler: the count of a node is the number of samples in the frame.
+ * Threads without stack frames are not counted.
+ */
+public class FrameTrie implements ThreadDumpRenderer {
+    private final Node root = new Node("all");
+    private final Predicate<ThreadDump> filter;
+    // stack line -> "class.method", so that repeated lines are not decoded again
+    private final Map<String, String> frameNames = new HashMap<>();
+    private int fullThreadDumpCount = 0;
+
+    public FrameTrie() {
+        this(threadDump -> true);
+    }
+
+    /**
+     * @param filter threads to be folded
+     * @see #stateIs(byte...)
+     * @see #nameMatches(String)
+     */
+    public FrameTrie(Predicate<ThreadDump> filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param states state codes defined in {@link ThreadStateMatrix}
+     * @return filter accepting threads in one of the states
+     */
+    public static Predicate<ThreadDump> stateIs(byte... states) {
+        return threadDump -> {
+            byte state = ThreadStateMatrix.stateOf(threadDump);
+            for (byte accepted : states) {
+                if (accepted == state) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * @param regex regular expression matching whole thread names, e.g. "http-nio-8080-exec-\\d+"
+     * @return filter accepting threads with matching names
+     */
+    public static Predicate<ThreadDump> nameMatches(String regex) {
+        Pattern pattern = Pattern.compile(regex);
+        return threadDump -> pattern.matcher(threadDump.getName()).matches();
+    }
+
+    @Override
+    public void onFullThreadDump(FullThreadDump fullThreadDump) {
+        fullThreadDumpCount++;
+        List<String> frames = new ArrayList<>();
+        for (ThreadDump threadDump : fullThreadDump.getThreadDumps()) {
+            if (!filter.test(threadDump)) {
+                continue;
+            }
+            frames.clear();
+            for (StackLine stackLine : threadDump.getStackLines()) {
+                if (stackLine.isLine()) {
+                    frames.add(frameNames.computeIfAbsent(stackLine.getLine(),
+                            line -> stackLine.getClassName() + '.' + stackLine.getMethodName()));
+                }
+            }
+            if (!frames.isEmpty()) {
+                add(frames);
+            }
+        }
+    }
+
+    @Override
+    public void onThreadDump(ThreadDump threadDump) {
+        // threads are folded once the full thread dump is finished, with deadlocks resolved
+    }
+
+    /**
+     * @param frames frames, top frame first as printed in thread dumps
+     */
+    private void add(List<String> frames) {
+        Node node = root;
+        node.total++;
+        for (int i = frames.size() - 1; 0 <= i; i--) {
+            node = node.child(frames.get(i));
+            node.total++;
+        }
+        node.self++;
+    }
+
+    /**
+     * @return root node, counting every folded stack
+     */
+    public Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return number of full thread dumps folded
+     */
+    public int getFullThreadDumpCount() {
+        return fullThreadDumpCount;
+    }
+
+    /**
+     * writes stacks in collapsed stack format, "outermost;...;innermost count" per line, as consumed by flamegraph.pl
+     *
+     * @param out destination
+     * @throws IOException when write fails
+     */
+    public void writeCollapsed(Writer out) throws IOException {
+        StringBuilder path = new StringBuilder();
+        Deque<Iterator<Node>> iterators = new ArrayDeque<>();
+        Deque<Integer> pathLengths = new ArrayDeque<>();
+        iterators.push(root.getChildren().iterator());
+        while (!iterators.isEmpty()) {
+            Iterator<Node> iterator = iterators.peek();
+            if (!iterator.hasNext()) {
+                iterators.pop();
+                if (!pathLengths.isEmpty()) {
+                    path.setLength(pathLengths.pop());
+                }
+                continue;
+            }
+            Node node = iterator.next();
+            pathLengths.push(path.length());
+            if (0 < path.length()) {
+                path.append(';');
+            }
+            path.append(node.name);
+            if (0 < node.self) {
+                out.write(path.toString());
+                out.write(' ');
+                out.write(Integer.toString(node.self));
+                out.write('\n');
+            }
+            iterators.push(node.getChildren().iterator());
+        }
+        out.flush();
+    }
+
+    public static final class Node {
+        private static final Comparator<Node> BY_NAME = Comparator.comparing(Node::getName);
+        private final String name;
+        private Map<String, Node> children = null;
+        private int total = 0;
+        private int self = 0;
+
+        private Node(String name) {
+            this.name = name;
+        }
+
+        private Node child(String name) {
+            if (null == children) {
+                children = new HashMap<>(4);
+            }
+            return children.computeIfAbsent(name, Node::new);
+        }
+
+        /**
+         * @return "class.method"
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return number of samples in the frame, including its callees
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return number of samples where the frame is the innermost one
+         */
+        public int getSelf() {
+            return self;
+        }
+
+        /**
+         * @return callees, ordered by name
+         */
+        public List<Node> getChildren() {
+            if (null == children) {
+                return Collections.emptyList();
+            }
+            List<Node> sorted = new ArrayList<>(children.values());
+            sorted.sort(BY_NAME);
+            return sorted;
+        }
+    }
+}
@@ -30,12 +30,27 @@ public abstract class FullThreadDump implements Serializable {
 
     /*package*/ void addThreadDump(ThreadDump threadDump) {
         threadDumps.add(threadDump);
+        identicalStacks = null;
+        positions = null;
     }
 
     public String getHeader() {
         return header;
     }
 
+    private String nodeId = null;
+
+    /**
+     * @return id of the JVM the full thread dump was taken from, null unless read by {@link ClusterStatistic}
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /*package*/ void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
     public int getThreadCount() {
         return threadDumps.size();
     }
@@ -53,10 +68,11 @@ public abstract class FullThreadDump implements Serializable {
         return toStringed.toString();
     }
 
-    ObjectLock[] objectLocks = null;
+    volatile ObjectLock[] objectLocks = null;
 
     public ObjectLock[] getObjectLocks() {
-        if(this.objectLocks == null){
+        ObjectLock[] objectLocks = this.objectLocks;
+        if(objectLocks == null){
             List<ObjectLock> objectLockList = new ArrayList<>();
             for (ThreadDump dump : threadDumps) {
                 SunThreadDump threadDump = (SunThreadDump) dump;
@@ -66,12 +82,10 @@ public abstract class FullThreadDump implements Serializable {
                             threadDump.getLockedLines()));
                 }
             }
-            this.objectLocks = new ObjectLock[objectLockList.size()];
-            for (int i = 0; i < objectLockList.size(); i++) {
-                this.objectLocks[i] = objectLockList.get(i);
-            }
+            objectLocks = objectLockList.toArray(new ObjectLock[0]);
+            this.objectLocks = objectLocks;
         }
-        return this.objectLocks;
+        return objectLocks;
     }
 
     public ThreadDump getThreadDump(int i) {
@@ -79,24 +93,56 @@ public abstract class FullThreadDump implements Serializable {
     }
 
     public ThreadDump getThreadDumpById(String id) {
-        ThreadDump threadDump;
-        for (int i = 0; i < threadDumps.size(); i++) {
-            threadDump = getThreadDump(i);
-            if (id.equals(threadDump.getId())) {
-                return threadDump;
+        int index = indexOf(id);
+        return -1 == index ? null : getThreadDump(index);
+    }
+
+    // built on first use and published whole, as pages of a full thread dump may be rendered concurrently
+    private transient volatile Map<String, Integer> positions = null;
+
+    /**
+     * @param id thread id
+     * @return position of the first thread with the id, -1 if not found
+     */
+    public int indexOf(String id) {
+        Map<String, Integer> positions = this.positions;
+        if (null == positions) {
+            positions = new HashMap<>(threadDumps.size() * 4 / 3 + 1);
+            for (int i = 0; i < threadDumps.size(); i++) {
+                positions.putIfAbsent(threadDumps.get(i).getId(), i);
             }
+            this.positions = positions;
         }
-        return null;
+        return positions.getOrDefault(id, -1);
     }
 
-    /*package*/
-    abstract boolean isThreadHeader(String line);
-
-    /*package*/
-    abstract boolean isThreadFooter(String line);
-
-    /*package*/
-    abstract boolean isThreadDumpContinuing(String line);
+    /**
+     * @param line line in the full thread dump
+     * @return true if the line starts a thread
+     */
+    protected abstract boolean isThreadHeader(String line);
+
+    /**
+     * @param line line in a thread
+     * @return true if the line ends the thread
+     */
+    protected abstract boolean isThreadFooter(String line);
+
+    /**
+     * @param line line following the header
+     * @return false if the line ends the full thread dump
+     */
+    protected abstract boolean isThreadDumpContinuing(String line);
+
+    /**
+     * tests if the line following a thread footer still belongs to the thread
+     *
+     * @param line line following the footer or a trailer line
+     * @return true if the line is to be added to the thread
+     */
+    protected boolean isThreadTrailer(String line) {
+        return false;
+    }
 
     final List<List<ThreadDump>> deadLockChains = new ArrayList<>();
     private boolean deadLocked = false;
@@ -113,64 +159,70 @@ public abstract class FullThreadDump implements Serializable {
         return deadLockChains;
     }
 
-    /*package*/ void finish() {
-        Map<String, ThreadDump> blockers = new HashMap<>();
-        for (ThreadDump threadDump : threadDumps) {
-            List<StackLine> locked = threadDump.getLockedLines();
-            if (null != locked) {
-                for (StackLine line : locked) {
-                    blockers.put(line.getLockedObjectId(), threadDump);
-                }
+    private WaitForGraph waitForGraph = null;
+
+    /**
+     * returns the wait-for graph of the threads, available once the full thread dump is finished
+     *
+     * @return wait-for graph
+     */
+    public WaitForGraph getWaitForGraph() {
+        return waitForGraph;
+    }
+
+    private transient volatile Map<Long, List<ThreadDump>> identicalStacks = null;
+
+    /**
+     * groups threads sharing an identical stack.<br>
+     * Groups are ordered by size, largest first, then by appearance. Threads without stack lines are not grouped.
+     *
+     * @return groups of two or more threads sharing an identical stack
+     */
+    public List<List<ThreadDump>> getIdenticalStacks() {
+        List<List<ThreadDump>> groups = new ArrayList<>();
+        for (List<ThreadDump> group : getIdenticalStackMap().values()) {
+            if (1 < group.size()) {
+                groups.add(Collections.unmodifiableList(group));
             }
         }
+        // stable, keeps appearance order among groups of the same size
+        groups.sort((o1, o2) -> Integer.compare(o2.size(), o1.size()));
+        return groups;
+    }
 
+    /**
+     * returns threads sharing the identical stack with the specified thread
+     *
+     * @param threadDump thread in this full thread dump
+     * @return threads in order of appearance, including the specified thread. empty if the thread has no stack lines
+     */
+    public List<ThreadDump> getIdenticalStack(ThreadDump threadDump) {
+        List<ThreadDump> group = getIdenticalStackMap().get(threadDump.getStackFingerprint());
+        return null != group ? Collections.unmodifiableList(group) : Collections.emptyList();
+    }
 
-        Map<String, List<ThreadDump>> locked = new HashMap<>();
-        for (ThreadDump threadDump : threadDumps) {
-            if (threadDump.isBlocked()) {
-                List<ThreadDump> list = locked.get(threadDump.getBlockedObjectId());
-                if (null == list) {
-                    list = new ArrayList<>();
-                }
-                list.add(threadDump);
-                locked.put(threadDump.getBlockedObjectId(), list);
-                ThreadDump blocker = blockers.get(threadDump.getBlockedObjectId());
-                if (null != blocker) {
-                    threadDump.setBlockerId(blocker.getId());
-                    this.getThreadDumpById(blocker.getId()).setBlocking(true);
+    private Map<Long, List<ThreadDump>> getIdenticalStackMap() {
+        Map<Long, List<ThreadDump>> identicalStacks = this.identicalStacks;
+        if (null == identicalStacks) {
+            identicalStacks = new LinkedHashMap<>();
+            for (ThreadDump threadDump : threadDumps) {
+                if (0 < threadDump.size()) {
+                    identicalStacks.computeIfAbsent(threadDump.getStackFingerprint(), fingerprint -> new ArrayList<>(1))
+                            .add(threadDump);
                 }
             }
+            this.identicalStacks = identicalStacks;
         }
+        return identicalStacks;
+    }
 
-        List<ThreadDump> deadLockChain = new ArrayList<>();
-        for (ThreadDump threadDump:this.threadDumps) {
-            if (!threadDump.isDeadLocked() && threadDump.isBlocked()) {
-                deadLockChain.clear();
-                deadLockChain.add(threadDump);
-                while (threadDump.isBlocked()) {
-                    String blockerId = threadDump.getBlockerId();
-                    if (null == blockerId) {
-                        break;
-                    }
-                    threadDump = this.getThreadDumpById(blockerId);
-                    if (threadDump.isDeadLocked()) {
-                        break;
-                    }
-                    if (deadLockChain.contains(threadDump)) {
-                        //deadLockDetected
-                        deadLocked = true;
-                        int deadLockBegin = deadLockChain.indexOf(threadDump);
-                        if (deadLockBegin > 0) {
-                            deadLockChain.subList(0, deadLockBegin).clear();
-                        }
-                        deadLockChains.add(deadLockChain);
-                        for (ThreadDump deadLocked : deadLockChain) {
-                            deadLocked.setDeadLocked(true);
-                        }
-                        break;
-                    }
-                    deadLockChain.add(threadDump);
-                }
+    /*package*/ void finish() {
+        waitForGraph = new WaitForGraph(threadDumps);
+        for (List<ThreadDump> deadLockChain : waitForGraph.getCycles()) {
+            deadLocked = true;
+            deadLockChains.add(deadLockChain);
+            for (ThreadDump deadLocked : deadLockChain) {
+                deadLocked.setDeadLocked(true);
             }
         }
     }
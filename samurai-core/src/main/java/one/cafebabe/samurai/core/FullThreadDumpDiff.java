@@ -0,0 +1,202 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differences between two full thread dumps, from the same process or not.<br>
+ * Threads are matched by id, then by name among the threads left unmatched, pairing threads with the same name in order of appearance.
+ * An id match is discarded when the names differ, as thread ids are native addresses which may be reused by other threads or processes.
+ * Stacks are compared by their fingerprints, see {@link ThreadDump#equals(Object)}.
+ */
+public final class FullThreadDumpDiff {
+    private final FullThreadDump before;
+    private final FullThreadDump after;
+    private final List<ThreadDump> newThreads = new ArrayList<>();
+    private final List<ThreadDump> vanishedThreads = new ArrayList<>();
+    private final List<Change> stateChanges = new ArrayList<>();
+    private final List<Change> stackChanges = new ArrayList<>();
+    private final List<Change> unchanged = new ArrayList<>();
+
+    /**
+     * @param before the earlier full thread dump, e.g. taken while healthy
+     * @param after  the later full thread dump, e.g. taken during an incident
+     */
+    public FullThreadDumpDiff(FullThreadDump before, FullThreadDump after) {
+        this.before = before;
+        this.after = after;
+        List<ThreadDump> beforeThreads = before.getThreadDumps();
+        List<ThreadDump> afterThreads = after.getThreadDumps();
+        Map<String, Integer> beforeById = new HashMap<>(beforeThreads.size() * 2);
+        for (int i = 0; i < beforeThreads.size(); i++) {
+            String id = beforeThreads.get(i).getId();
+            if (null != id) {
+                beforeById.putIfAbsent(id, i);
+            }
+        }
+        boolean[] matched = new boolean[beforeThreads.size()];
+        ThreadDump[] matches = new ThreadDump[afterThreads.size()];
+        for (int i = 0; i < afterThreads.size(); i++) {
+            ThreadDump thread = afterThreads.get(i);
+            Integer index = null == thread.getId() ? null : beforeById.get(thread.getId());
+            if (null != index && !matched[index] && normalize(beforeThreads.get(index).getName()).equals(normalize(thread.getName()))) {
+                matched[index] = true;
+                matches[i] = beforeThreads.get(index);
+            }
+        }
+        // positions of threads left unmatched, by name
+        Map<String, Deque<Integer>> beforeByName = new HashMap<>();
+        for (int i = 0; i < beforeThreads.size(); i++) {
+            if (!matched[i]) {
+                beforeByName.computeIfAbsent(normalize(beforeThreads.get(i).getName()), name -> new ArrayDeque<>(1)).add(i);
+            }
+        }
+        for (int i = 0; i < afterThreads.size(); i++) {
+            ThreadDump thread = afterThreads.get(i);
+            if (null == matches[i]) {
+                Deque<Integer> sameName = beforeByName.get(normalize(thread.getName()));
+                Integer index = null == sameName ? null : sameName.poll();
+                if (null != index) {
+                    matched[index] = true;
+                    matches[i] = beforeThreads.get(index);
+                }
+            }
+            if (null == matches[i]) {
+                newThreads.add(thread);
+                continue;
+            }
+            Change change = new Change(matches[i], thread);
+            if (change.isStateChanged()) {
+                stateChanges.add(change);
+            } else if (change.isStackChanged()) {
+                stackChanges.add(change);
+            } else {
+                unchanged.add(change);
+            }
+        }
+        // in order of appearance
+        for (int i = 0; i < beforeThreads.size(); i++) {
+            if (!matched[i]) {
+                vanishedThreads.add(beforeThreads.get(i));
+            }
+        }
+    }
+
+    /**
+     * @param name thread name
+     * @return name compared across full thread dumps
+     */
+    private static String normalize(String name) {
+        return name.trim();
+    }
+
+    public FullThreadDump getBefore() {
+        return before;
+    }
+
+    public FullThreadDump getAfter() {
+        return after;
+    }
+
+    /**
+     * @return threads only in the later full thread dump
+     */
+    public List<ThreadDump> getNewThreads() {
+        return Collections.unmodifiableList(newThreads);
+    }
+
+    /**
+     * @return threads only in the earlier full thread dump
+     */
+    public List<ThreadDump> getVanishedThreads() {
+        return Collections.unmodifiableList(vanishedThreads);
+    }
+
+    /**
+     * @return threads whose state, as defined in {@link ThreadStateMatrix}, changed. the stack may have changed as well
+     */
+    public List<Change> getStateChanges() {
+        return Collections.unmodifiableList(stateChanges);
+    }
+
+    /**
+     * @return threads whose stack changed while the state stayed the same
+     */
+    public List<Change> getStackChanges() {
+        return Collections.unmodifiableList(stackChanges);
+    }
+
+    /**
+     * @return threads with the same state and the same stack
+     */
+    public List<Change> getUnchanged() {
+        return Collections.unmodifiableList(unchanged);
+    }
+
+    /**
+     * A thread matched across the two full thread dumps.
+     */
+    public static final class Change {
+        private final ThreadDump before;
+        private final ThreadDump after;
+        private final byte beforeState;
+        private final byte afterState;
+
+        private Change(ThreadDump before, ThreadDump after) {
+            this.before = before;
+            this.after = after;
+            this.beforeState = ThreadStateMatrix.stateOf(before);
+            this.afterState = ThreadStateMatrix.stateOf(after);
+        }
+
+        public ThreadDump getBefore() {
+            return before;
+        }
+
+        public ThreadDump getAfter() {
+            return after;
+        }
+
+        /**
+         * @return state code defined in {@link ThreadStateMatrix}
+         */
+        public byte getBeforeState() {
+            return beforeState;
+        }
+
+        /**
+         * @return state code defined in {@link ThreadStateMatrix}
+         */
+        public byte getAfterState() {
+            return afterState;
+        }
+
+        public boolean isStateChanged() {
+            return beforeState != afterState;
+        }
+
+        public boolean isStackChanged() {
+            return !before.equals(after);
+        }
+    }
+}
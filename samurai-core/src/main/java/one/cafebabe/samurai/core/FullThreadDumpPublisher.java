@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes full thread dumps as they are parsed from a file or a stream.<br>
+ * Each subscription parses the source on the executor and holds at most the given number of full thread dumps not yet requested:
+ * parsing pauses while the buffer is full and stops when the subscription is cancelled.
+ * The subscriber receives onComplete at the end of the source, or onError with the I/O error.
+ * A file can be subscribed to any number of times, a stream only once.
+ * <p>
+ * Parsing and delivery share the executor, which has to run at least two tasks at a time.
+ */
+public final class FullThreadDumpPublisher implements Flow.Publisher<FullThreadDump> {
+    private final Source source;
+    private final Executor executor;
+    private final int maxBufferCapacity;
+    // null for a file, which can be read again
+    private final AtomicBoolean subscribed;
+
+    @FunctionalInterface
+    private interface Source {
+        void analyze(ThreadDumpExtractor extractor) throws IOException;
+    }
+
+    /**
+     * parses on the common pool, buffering up to {@link Flow#defaultBufferSize()} full thread dumps
+     *
+     * @param path - the file to be examined
+     */
+    public FullThreadDumpPublisher(Path path) {
+        this(path, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * @param path              - the file to be examined
+     * @param executor          - the executor to parse and deliver on
+     * @param maxBufferCapacity - maximum number of full thread dumps parsed ahead of demand
+     */
+    public FullThreadDumpPublisher(Path path, Executor executor, int maxBufferCapacity) {
+        this(extractor -> extractor.analyze(path), executor, maxBufferCapacity, null);
+    }
+
+    /**
+     * @param is                - the underlying input stream, closed when parsing ends
+     * @param executor          - the executor to parse and deliver on
+     * @param maxBufferCapacity - maximum number of full thread dumps parsed ahead of demand
+     */
+    public FullThreadDumpPublisher(InputStream is, Executor executor, int maxBufferCapacity) {
+        this(extractor -> extractor.analyze(is), executor, maxBufferCapacity, new AtomicBoolean());
+    }
+
+    private FullThreadDumpPublisher(Source source, Executor executor, int maxBufferCapacity, AtomicBoolean subscribed) {
+        if (maxBufferCapacity <= 0) {
+            throw new IllegalArgumentException("maxBufferCapacity must be positive: " + maxBufferCapacity);
+        }
+        this.source = source;
+        this.executor = executor;
+        this.maxBufferCapacity = maxBufferCapacity;
+        this.subscribed = subscribed;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super FullThreadDump> subscriber) {
+        SubmissionPublisher<FullThreadDump> publisher = new SubmissionPublisher<>(executor, maxBufferCapacity);
+        publisher.subscribe(subscriber);
+        if (null != subscribed && !subscribed.compareAndSet(false, true)) {
+            publisher.closeExceptionally(new IllegalStateException("the stream has already been subscribed to"));
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                source.analyze(new ThreadDumpExtractor(new ThreadDumpRenderer() {
+                    @Override
+                    public void onFullThreadDump(FullThreadDump fullThreadDump) {
+                        if (0 == publisher.getNumberOfSubscribers()) {
+                            throw new Cancelled();
+                        }
+                        if (null != fullThreadDump) {
+                            // blocks while the buffer is full
+                            publisher.submit(fullThreadDump);
+                        }
+                    }
+
+                    @Override
+                    public void onThreadDump(ThreadDump threadDump) {
+                    }
+                }));
+                publisher.close();
+            } catch (Cancelled ignore) {
+                publisher.close();
+            } catch (Throwable e) {
+                publisher.closeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * thrown to stop parsing once the subscription is cancelled
+     */
+    private static final class Cancelled extends RuntimeException {
+        private static final long serialVersionUID = -6460553254227925364L;
+
+        private Cancelled() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Append-only file of full thread dumps evicted from a {@link ThreadStatistic}.<br>
+ * Each dump is serialized and deflated into its own record, so a single dump can be paged back in without reading the others.
+ * Only record offsets are kept in memory.
+ */
+/*package*/ final class FullThreadDumpSpill implements Closeable {
+    private final FileChannel channel;
+    // offsets[i] is the beginning of the i-th record, offsets[count] the end of the last one
+    private long[] offsets = new long[16];
+    private int count = 0;
+
+    /*package*/ FullThreadDumpSpill(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /*package*/ synchronized void append(FullThreadDump fullThreadDump) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        try (ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(bytes))) {
+            out.writeObject(fullThreadDump);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        long position = offsets[count];
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        if (count + 1 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[++count] = position;
+    }
+
+    /*package*/ synchronized FullThreadDump read(int index) throws IOException {
+        if (index < 0 || count <= index) {
+            throw new IndexOutOfBoundsException("index:" + index + " size:" + count);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (offsets[index + 1] - offsets[index]));
+        long position = offsets[index];
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (-1 == read) {
+                throw new IOException("spill file truncated");
+            }
+            position += read;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new InflaterInputStream(new ByteArrayInputStream(buffer.array())))) {
+            return (FullThreadDump) in.readObject();
+        } catch (ClassNotFoundException cnfe) {
+            throw new IOException(cnfe);
+        }
+    }
+
+    /*package*/ synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Helpers for tasks run in parallel on an executor.
+ */
+public final class Futures {
+    private Futures() {
+    }
+
+    /**
+     * throws what failed the task: I/O errors, runtime exceptions and errors as they are, other exceptions wrapped in an IOException
+     *
+     * @param e exception thrown by Future.get()
+     * @throws IOException - If the task failed with an I/O error or a checked exception
+     */
+    public static void rethrow(ExecutionException e) throws IOException {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IOException(cause);
+    }
+}
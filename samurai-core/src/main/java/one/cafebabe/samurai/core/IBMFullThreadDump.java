@@ -17,20 +17,22 @@ package one.cafebabe.samurai.core;
 
 public class IBMFullThreadDump extends FullThreadDump {
     private static final long serialVersionUID = 9102293976017908812L;
+    // lock info preceding the full thread dump, set by the extractor
+    /*package*/ transient IBMLockInfos lockInfos = null;
 
     /*package*/ IBMFullThreadDump(String header) {
         super(header);
     }
 
-    /*package*/ boolean isThreadHeader(String line) {
+    protected boolean isThreadHeader(String line) {
         return line.startsWith("3XMTHREADINFO");
     }
 
-    /*package*/ boolean isThreadFooter(String line) {
+    protected boolean isThreadFooter(String line) {
         return false;
     }
 
-    /*package*/ boolean isThreadDumpContinuing(String line) {
+    protected boolean isThreadDumpContinuing(String line) {
         return !line.startsWith("NULL");
     }
 }
@@ -38,7 +38,7 @@ public class IBMThreadDump extends ThreadDump {
 
     }
 
-    /*package*/ void addStackLine(String stackLine) {
+    protected void addStackLine(String stackLine) {
 //    if (stackLine.startsWith("4XESTACKTRACE") || stackLine.startsWith("3XMTHREADINFO")) {
         super.addStackLine(new SunStackLine(stackLine.substring(stackLine.indexOf(" ") + 1)));
 //    }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Reads lines of a file through memory-mapped windows without creating a String per line.<br>
+ * Lines are handed to the consumer as a reused {@link CharSequence} that is only valid during the callback.
+ * Line terminators are the same as {@link java.io.BufferedReader#readLine()}: \n, \r or \r\n.
+ */
+/*package*/ final class MappedLineReader {
+    /*package*/ static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private MappedLineReader() {
+    }
+
+    /*package*/
+    static void read(Path path, Charset charset, int windowSize, Consumer<CharSequence> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(channel, 0, channel.size(), charset, windowSize, consumer);
+        }
+    }
+
+    /**
+     * Reads lines in the byte range [from, to) of the channel. from is expected to be at the beginning of a line.<br>
+     * The channel is only used for mapping, so several ranges of the same channel can be read concurrently.
+     *
+     * @param channel    - the channel to map
+     * @param from       - offset of the first byte to read
+     * @param to         - offset after the last byte to read
+     * @param charset    - charset to decode lines with
+     * @param windowSize - size of the mapped windows
+     * @param consumer   - line consumer
+     * @throws IOException - If an I/O error occurs
+     */
+    /*package*/
+    static void read(FileChannel channel, long from, long to, Charset charset, int windowSize,
+                     Consumer<CharSequence> consumer) throws IOException {
+        MappedLine line = new MappedLine(charset);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        long position = from;
+        long window = windowSize;
+        while (position < to) {
+            int limit = (int) Math.min(window, to - position);
+            boolean last = position + limit == to;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, limit);
+            line.setBuffer(buffer, position);
+            int lineStart = 0;
+            int i = 0;
+            boolean ascii = true;
+            ByteBuffer chunks = buffer.duplicate();
+            scan:
+            for (int chunkStart = 0; chunkStart < limit; chunkStart += CHUNK_SIZE) {
+                // scanning a heap copy is considerably faster than MappedByteBuffer.get(int) per byte
+                int chunkLength = Math.min(CHUNK_SIZE, limit - chunkStart);
+                chunks.get(chunk, 0, chunkLength);
+                for (i = Math.max(i, chunkStart); i < chunkStart + chunkLength; ) {
+                    byte b = chunk[i - chunkStart];
+                    if (b == '\n' || b == '\r') {
+                        if (b == '\r' && i + 1 == limit && !last) {
+                            // \r\n may straddle two windows
+                            break scan;
+                        }
+                        int lineEnd = i;
+                        i += b == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n' ? 2 : 1;
+                        line.set(lineStart, lineEnd - lineStart, i, ascii);
+                        consumer.accept(line);
+                        lineStart = i;
+                        ascii = true;
+                    } else {
+                        if (b < 0) {
+                            ascii = false;
+                        }
+                        i++;
+                    }
+                }
+            }
+            if (last) {
+                if (lineStart < limit) {
+                    line.set(lineStart, limit - lineStart, limit, ascii);
+                    consumer.accept(line);
+                }
+                position = to;
+            } else if (lineStart == 0) {
+                // a single line longer than the window
+                window = Math.min(window * 2, Integer.MAX_VALUE);
+            } else {
+                position += lineStart;
+                window = windowSize;
+            }
+        }
+    }
+
+    /**
+     * A line window over a mapped buffer.<br>
+     * charAt() exposes the raw bytes as ISO-8859-1, which is exact for the ASCII prefixes thread dumps are detected by.
+     * toString() decodes with the file's charset, taking a copy-only path for pure ASCII lines.
+     */
+    /*package*/ static final class MappedLine implements CharSequence {
+        private final Charset charset;
+        private MappedByteBuffer buffer;
+        private ByteBuffer view;
+        private long base;
+        private int start;
+        private int length;
+        private int end;
+        private boolean ascii;
+
+        MappedLine(Charset charset) {
+            this.charset = charset;
+        }
+
+        void setBuffer(MappedByteBuffer buffer, long base) {
+            this.buffer = buffer;
+            this.view = buffer.duplicate();
+            this.base = base;
+        }
+
+        /**
+         * @return offset of the line in the file
+         */
+        long offset() {
+            return base + start;
+        }
+
+        /**
+         * @return offset in the file right after the line and its terminator
+         */
+        long next() {
+            return base + end;
+        }
+
+        void set(int start, int length, int end, boolean ascii) {
+            this.start = start;
+            this.length = length;
+            this.end = end;
+            this.ascii = ascii;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[length];
+            view.position(start);
+            view.get(bytes, 0, length);
+            return new String(bytes, ascii ? StandardCharsets.ISO_8859_1 : charset);
+        }
+    }
+}
@@ -15,38 +15,34 @@
  */
 package one.cafebabe.samurai.core;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 public class SpringBootActuatorJSONFullThreadDump extends FullThreadDump {
     private static final long serialVersionUID = -2290629637262545569L;
 
     public SpringBootActuatorJSONFullThreadDump(String header) {
+        this();
+        SpringBootActuatorJSONReader reader = new SpringBootActuatorJSONReader(this::addThreadDump);
+        reader.feed(header);
+    }
+
+    /**
+     * creates an empty full thread dump to be filled by a {@link SpringBootActuatorJSONReader}
+     */
+    /*package*/ SpringBootActuatorJSONFullThreadDump() {
         super("(originally JSON formatted)");
-        try {
-            JSONObject jsonObject = new JSONObject(header);
-            JSONArray threads = jsonObject.getJSONArray("threads");
-            for (int i = 0; i < threads.length(); i++) {
-                addThreadDump(new SpringBootActuatorJSONThreadDump(threads.getJSONObject(i)));
-            }
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
     }
 
     @Override
-    boolean isThreadHeader(String line) {
+    protected boolean isThreadHeader(String line) {
         return false;
     }
 
     @Override
-    boolean isThreadFooter(String line) {
+    protected boolean isThreadFooter(String line) {
         return false;
     }
 
     @Override
-    boolean isThreadDumpContinuing(String line) {
+    protected boolean isThreadDumpContinuing(String line) {
         return false;
     }
 
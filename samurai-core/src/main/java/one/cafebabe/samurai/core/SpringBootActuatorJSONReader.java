@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Incremental reader of Spring Boot Actuator thread dump JSON ({"threads":[{...},...]}), fed line by line.<br>
+ * Works with single-line and pretty-printed output alike, as JSON tokens never span lines.
+ * Only one thread is materialized at a time: each thread object becomes a {@link SpringBootActuatorJSONThreadDump}
+ * as soon as it is closed, and each stack frame is turned into its stack line as soon as it is closed.
+ */
+/*package*/ final class SpringBootActuatorJSONReader {
+    private static final Object SKIPPED = new Object();
+
+    private final Consumer<ThreadDump> consumer;
+    // open containers: Map or List being built, or SKIPPED outside thread objects
+    private final Deque<Object> containers = new ArrayDeque<>();
+    // keys of the open containers in their parents, null for array elements
+    private final Deque<String> containerKeys = new ArrayDeque<>();
+    // whether each SKIPPED container is an object, to tell keys from values
+    private final Deque<Boolean> skippedIsObject = new ArrayDeque<>();
+    private String key = null;
+    private boolean expectingKey = false;
+    private boolean complete = false;
+
+    /*package*/ SpringBootActuatorJSONReader(Consumer<ThreadDump> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * tests if the root object has been closed
+     *
+     * @return true if the document is complete
+     */
+    /*package*/ boolean isComplete() {
+        return complete;
+    }
+
+    /*package*/ void feed(CharSequence line) {
+        int length = line.length();
+        int i = 0;
+        while (i < length && !complete) {
+            char c = line.charAt(i);
+            switch (c) {
+                case '{':
+                    open(new HashMap<String, Object>(32));
+                    expectingKey = true;
+                    i++;
+                    break;
+                case '[':
+                    open(new ArrayList<>());
+                    i++;
+                    break;
+                case '}':
+                case ']':
+                    close();
+                    i++;
+                    break;
+                case ',':
+                    expectingKey = containers.peek() instanceof Map || containers.peek() == SKIPPED && skippedIsObject.peek();
+                    i++;
+                    break;
+                case ':':
+                    i++;
+                    break;
+                case '"': {
+                    StringBuilder string = new StringBuilder();
+                    i = readString(line, i + 1, string);
+                    if (expectingKey) {
+                        key = string.toString();
+                        expectingKey = false;
+                    } else {
+                        value(string.toString());
+                    }
+                    break;
+                }
+                default:
+                    if (c <= ' ') {
+                        i++;
+                        break;
+                    }
+                    int end = i;
+                    while (end < length && isLiteral(line.charAt(end))) {
+                        end++;
+                    }
+                    if (end == i) {
+                        // not JSON, ignore the character
+                        i++;
+                        break;
+                    }
+                    String literal = line.subSequence(i, end).toString();
+                    switch (literal) {
+                        case "true":
+                            value(Boolean.TRUE);
+                            break;
+                        case "false":
+                            value(Boolean.FALSE);
+                            break;
+                        case "null":
+                            value(null);
+                            break;
+                        default:
+                            // numbers are kept as they are printed
+                            value(literal);
+                    }
+                    i = end;
+            }
+        }
+    }
+
+    private static boolean isLiteral(char c) {
+        return c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '-' || c == '+' || c == '.';
+    }
+
+    private static int readString(CharSequence line, int i, StringBuilder string) {
+        int length = line.length();
+        while (i < length) {
+            char c = line.charAt(i++);
+            if (c == '"') {
+                return i;
+            }
+            if (c != '\\' || i == length) {
+                string.append(c);
+                continue;
+            }
+            char escaped = line.charAt(i++);
+            switch (escaped) {
+                case 'b':
+                    string.append('\b');
+                    break;
+                case 'f':
+                    string.append('\f');
+                    break;
+                case 'n':
+                    string.append('\n');
+                    break;
+                case 'r':
+                    string.append('\r');
+                    break;
+                case 't':
+                    string.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 <= length) {
+                        try {
+                            string.append((char) Integer.parseInt(line.subSequence(i, i + 4).toString(), 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException ignore) {
+                        }
+                    }
+                    string.append(escaped);
+                    break;
+                default:
+                    string.append(escaped);
+            }
+        }
+        return i;
+    }
+
+    private void open(Object container) {
+        Object parent = containers.peek();
+        boolean threadObject = container instanceof Map && isThreadsArray();
+        // elements of an array are known by the key of the array
+        String containerKey = parent instanceof List || parent == SKIPPED && !skippedIsObject.peek() ? containerKeys.peek() : key;
+        if (parent instanceof Map || parent instanceof List || threadObject) {
+            containers.push(container);
+        } else {
+            containers.push(SKIPPED);
+            skippedIsObject.push(container instanceof Map);
+        }
+        containerKeys.push(null == containerKey ? "" : containerKey);
+        key = null;
+    }
+
+    /**
+     * @return true if the innermost container is the "threads" array of the root object
+     */
+    private boolean isThreadsArray() {
+        return 2 == containers.size() && containers.peek() == SKIPPED && "threads".equals(containerKeys.peek())
+                && !skippedIsObject.peek();
+    }
+
+    private void close() {
+        if (containers.isEmpty()) {
+            return;
+        }
+        Object container = containers.pop();
+        String containerKey = containerKeys.pop();
+        if (container == SKIPPED) {
+            skippedIsObject.pop();
+            if (containers.isEmpty()) {
+                complete = true;
+            }
+            expectingKey = false;
+            return;
+        }
+        expectingKey = false;
+        if (isThreadsArray()) {
+            @SuppressWarnings("unchecked") Map<String, Object> thread = (Map<String, Object>) container;
+            consumer.accept(new SpringBootActuatorJSONThreadDump(thread));
+            return;
+        }
+        key = containerKey;
+        if (container instanceof Map && ("stackTrace".equals(containerKey) || "lockedStackFrame".equals(containerKey))) {
+            // stack frames are kept as stack lines
+            @SuppressWarnings("unchecked") Map<String, Object> frame = (Map<String, Object>) container;
+            value(SpringBootActuatorJSONThreadDump.toStackLine(frame));
+        } else {
+            value(container);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void value(Object value) {
+        Object parent = containers.peek();
+        if (parent instanceof Map) {
+            ((Map<String, Object>) parent).put(key, value);
+        } else if (parent instanceof List) {
+            ((List<Object>) parent).add(value);
+        }
+        key = null;
+    }
+}
@@ -4,45 +4,127 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
 public class SpringBootActuatorJSONThreadDump extends ThreadDump {
     private static final long serialVersionUID = -1463365261676881883L;
     private final String id;
 
     public SpringBootActuatorJSONThreadDump(JSONObject json) throws JSONException {
-        super(json.getString("threadName"), json.getString("threadName"), json.getString("threadState"));
-        IS_BLOCKED = this.getCondition().equals("BLOCKED");
-        IS_IDLE = this.getCondition().matches("(WAITING|TIMED_WAITING)");
-        IS_DAEMON = json.getBoolean("daemon");
-        id = json.getString("threadId");
+        this(toThread(json));
+    }
+
+    /**
+     * @param json thread object
+     * @return the thread object in the shape {@link SpringBootActuatorJSONReader} reads it, stack frames as stack lines
+     * @throws JSONException when a mandatory key is missing
+     */
+    private static Map<String, Object> toThread(JSONObject json) throws JSONException {
+        Map<String, Object> thread = new HashMap<>();
+        thread.put("threadName", json.getString("threadName"));
+        thread.put("threadState", json.getString("threadState"));
+        thread.put("daemon", json.getBoolean("daemon"));
+        thread.put("threadId", json.getString("threadId"));
         if (json.has("lockInfo") && !json.isNull("lockInfo")) {
-            JSONObject lockInfo = json.getJSONObject("lockInfo");
-            addStackLine(new StackLine(lockInfoToStackLine(lockInfo)));
+            thread.put("lockInfo", toLock(json.getJSONObject("lockInfo")));
+        }
+        if (json.has("lockedSynchronizers")) {
+            JSONArray lockedSynchronizers = json.getJSONArray("lockedSynchronizers");
+            List<Object> synchronizers = new ArrayList<>(lockedSynchronizers.length());
+            for (int i = 0; i < lockedSynchronizers.length(); i++) {
+                synchronizers.add(toLock(lockedSynchronizers.getJSONObject(i)));
+            }
+            thread.put("lockedSynchronizers", synchronizers);
         }
+        JSONArray lockedMonitors = json.getJSONArray("lockedMonitors");
+        List<Object> monitors = new ArrayList<>(lockedMonitors.length());
+        for (int i = 0; i < lockedMonitors.length(); i++) {
+            Map<String, Object> monitor = toLock(lockedMonitors.getJSONObject(i));
+            monitor.put("lockedStackFrame", toStackLine(lockedMonitors.getJSONObject(i).getJSONObject("lockedStackFrame")));
+            monitors.add(monitor);
+        }
+        thread.put("lockedMonitors", monitors);
+        JSONArray stackTrace = json.getJSONArray("stackTrace");
+        List<Object> stackLines = new ArrayList<>(stackTrace.length());
+        for (int i = 0; i < stackTrace.length(); i++) {
+            stackLines.add(toStackLine(stackTrace.getJSONObject(i)));
+        }
+        thread.put("stackTrace", stackLines);
+        return thread;
+    }
 
-        JSONArray lockedMonitorsArray = json.getJSONArray("lockedMonitors");
-        IS_BLOCKING = 0 < lockedMonitorsArray.length();
-        List<List<String>> lockedMonitors = new ArrayList<>(lockedMonitorsArray.length());
-        for (int i = 0; i < lockedMonitorsArray.length(); i++) {
-            lockedMonitors.add(lockedMonitorsToStackLine(lockedMonitorsArray.getJSONObject(i)));
+    private static Map<String, Object> toLock(JSONObject lock) throws JSONException {
+        Map<String, Object> map = new HashMap<>();
+        map.put("identityHashCode", lock.getString("identityHashCode"));
+        if (lock.has("className")) {
+            map.put("className", lock.getString("className"));
         }
-        JSONArray stackTraceArray = json.getJSONArray("stackTrace");
-        for (int i = 0; i < stackTraceArray.length(); i++) {
-            String stackLine = toStackLine(stackTraceArray.getJSONObject(i));
-            Optional<List<String>> first = lockedMonitors.stream().filter(e -> e.get(0).equals(stackLine)).findFirst();
-            first.ifPresentOrElse(strings -> {
-                lockedMonitors.remove(strings);
-                addStackLine(new StackLine(strings.get(0)));
-                addStackLine(new StackLine(strings.get(1)));
-            }, () -> addStackLine(new StackLine(stackLine)));
+        return map;
+    }
+
+    /**
+     * builds a thread dump from a thread object read by {@link SpringBootActuatorJSONReader}.<br>
+     * Stack frames, including "lockedStackFrame" of locked monitors, are expected to be stack lines already.
+     *
+     * @param thread thread object
+     */
+    /*package*/ SpringBootActuatorJSONThreadDump(Map<String, Object> thread) {
+        super(String.valueOf(thread.get("threadName")), String.valueOf(thread.get("threadName")), String.valueOf(thread.get("threadState")));
+        IS_BLOCKED = this.getCondition().equals("BLOCKED");
+        IS_IDLE = this.getCondition().equals("WAITING") || this.getCondition().equals("TIMED_WAITING");
+        IS_DAEMON = Boolean.TRUE.equals(thread.get("daemon"));
+        id = String.valueOf(thread.get("threadId"));
+        Map<String, Object> lockInfo = getObject(thread, "lockInfo");
+        if (null != lockInfo) {
+            String identityHashCode = String.valueOf(lockInfo.get("identityHashCode"));
+            addStackLine(new StackLine(lockInfoToStackLine(identityHashCode, String.valueOf(lockInfo.get("className")))));
+            if (!IS_BLOCKED) {
+                // waiting or parked, possibly on a j.u.c. synchronizer
+                setParkedObjectId(identityHashCode);
+            }
         }
+        for (Object lockedSynchronizer : getArray(thread, "lockedSynchronizers")) {
+            addOwnableSynchronizer(String.valueOf(((Map<?, ?>) lockedSynchronizer).get("identityHashCode")));
+        }
+
+        List<Object> lockedMonitors = getArray(thread, "lockedMonitors");
+        IS_BLOCKING = !lockedMonitors.isEmpty();
+        // stack line -> "- locked" lines of monitors locked in the frame, consumed one per occurrence of the frame
+        Map<String, Deque<String>> lockedByFrame = new HashMap<>(lockedMonitors.size() * 2);
+        for (Object lockedMonitor : lockedMonitors) {
+            Map<?, ?> monitor = (Map<?, ?>) lockedMonitor;
+            lockedByFrame.computeIfAbsent(String.valueOf(monitor.get("lockedStackFrame")), frame -> new ArrayDeque<>(1))
+                    .add(lockedToStackLine(String.valueOf(monitor.get("identityHashCode")), String.valueOf(monitor.get("className"))));
+        }
+        for (Object stackLine : getArray(thread, "stackTrace")) {
+            addStackLine(new StackLine((String) stackLine));
+            Deque<String> locked = lockedByFrame.isEmpty() ? null : lockedByFrame.get(stackLine);
+            if (null != locked && !locked.isEmpty()) {
+                addStackLine(new StackLine(locked.poll()));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getObject(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> getArray(Map<String, Object> object, String key) {
+        Object value = object.get(key);
+        return value instanceof List ? (List<Object>) value : Collections.emptyList();
     }
 
     @Override
-    void addStackLine(String line) {
+    protected void addStackLine(String line) {
         // do nothing
     }
 
@@ -52,31 +134,50 @@ public class SpringBootActuatorJSONThreadDump extends ThreadDump {
     }
 
     static String toStackLine(JSONObject stackeTrace) throws JSONException {
-        String classMethod = String.format("at %s.%s", stackeTrace.getString("className")
-                , stackeTrace.getString("methodName"));
-        String lineNumber;
-        int lineNumberInt = stackeTrace.getInt("lineNumber");
-        switch (lineNumberInt) {
+        return toStackLine(stackeTrace.getString("className"), stackeTrace.getString("methodName"),
+                getModuleName(stackeTrace), stackeTrace.getString("fileName"), stackeTrace.getInt("lineNumber"));
+    }
+
+    /**
+     * @param frame stack frame object read by {@link SpringBootActuatorJSONReader}
+     * @return stack line
+     */
+    static String toStackLine(Map<String, Object> frame) {
+        int lineNumber;
+        try {
+            lineNumber = Integer.parseInt(String.valueOf(frame.get("lineNumber")));
+        } catch (NumberFormatException nfe) {
+            lineNumber = -1;
+        }
+        return toStackLine(String.valueOf(frame.get("className")), String.valueOf(frame.get("methodName")),
+                getModuleName((String) frame.get("moduleName"), (String) frame.get("moduleVersion")),
+                String.valueOf(frame.get("fileName")), lineNumber);
+    }
+
+    private static String toStackLine(String className, String methodName, String moduleName, String fileName, int lineNumber) {
+        StringBuilder line = new StringBuilder(className.length() + methodName.length() + moduleName.length() + 32);
+        line.append("at ").append(className).append('.').append(methodName).append('(');
+        switch (lineNumber) {
             case -2:
-                lineNumber = String.format("(%sNative Method)", getModuleName(stackeTrace));
+                line.append(moduleName).append("Native Method");
                 break;
             case -1:
-                lineNumber = "(Unknown Source)";
+                line.append("Unknown Source");
                 break;
             default:
-                lineNumber = String.format("(%s%s:%s)", getModuleName(stackeTrace),
-                        stackeTrace.getString("fileName")
-                        , lineNumberInt);
+                line.append(moduleName).append(fileName).append(':').append(lineNumber);
         }
-        return classMethod + lineNumber;
+        return line.append(')').toString();
     }
 
     static String getModuleName(JSONObject stackeTrace) throws JSONException {
-        String moduleName = stackeTrace.getString("moduleName");
-        String moduleVersion = stackeTrace.getString("moduleVersion");
+        return getModuleName(stackeTrace.getString("moduleName"), stackeTrace.getString("moduleVersion"));
+    }
+
+    private static String getModuleName(String moduleName, String moduleVersion) {
         if (moduleName != null && moduleVersion != null && !moduleName.equals("null")
                 && !moduleVersion.equals("null")) {
-            return String.format("%s@%s/", moduleName, moduleVersion);
+            return moduleName + '@' + moduleVersion + '/';
         } else {
             return "";
         }
@@ -85,16 +186,19 @@ public class SpringBootActuatorJSONThreadDump extends ThreadDump {
     static List<String> lockedMonitorsToStackLine(JSONObject lockedMonitor) throws JSONException {
         List<String> lines = new ArrayList<>();
         lines.add(toStackLine(lockedMonitor.getJSONObject("lockedStackFrame")));
-        lines.add(String.format("- locked <%s> (a %s)",
-                lockedMonitor.getString("identityHashCode"),
-                lockedMonitor.getString("className")));
-
+        lines.add(lockedToStackLine(lockedMonitor.getString("identityHashCode"), lockedMonitor.getString("className")));
         return lines;
     }
 
+    private static String lockedToStackLine(String identityHashCode, String className) {
+        return "- locked <" + identityHashCode + "> (a " + className + ")";
+    }
+
     static String lockInfoToStackLine(JSONObject lockInfo) throws JSONException {
-        return String.format("- waiting to lock <%s> (a %s)",
-                lockInfo.getString("identityHashCode"),
-                lockInfo.getString("className"));
+        return lockInfoToStackLine(lockInfo.getString("identityHashCode"), lockInfo.getString("className"));
+    }
+
+    private static String lockInfoToStackLine(String identityHashCode, String className) {
+        return "- waiting to lock <" + identityHashCode + "> (a " + className + ")";
     }
 }
@@ -35,7 +35,7 @@ import java.util.regex.Pattern;
     }
 
 
-    /*package*/ void addStackLine(String line) {
+    protected void addStackLine(String line) {
         addStackLine(new SunStackLine(line));
     }
 
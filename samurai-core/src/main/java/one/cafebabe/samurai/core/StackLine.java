@@ -30,75 +30,125 @@ public class StackLine implements Serializable {
     private static final long serialVersionUID = -4322785746927805891L;
     private final boolean IS_LINE;
     private final boolean IS_NATIVE_METHOD;
-    private final String METHOD_NAME;
-    private final String SOURCE;
-    private final String LINE_NUMBER;
-    private final String CLASS_NAME;
-
     private final boolean IS_TRYING_TO_GET_LOCK;
     private final boolean IS_HOLDING_LOCK;
-    private final String LOCKED_OBJECT_ID;
-    private final String LOCKED_CLASS_NAME;
+    private final boolean IS_PARKING;
+
+    // offsets recorded by the constructor's single scan, -1 if absent
+    private final int openParenIndex;
+    private final int lastDotBeforeParenIndex;
+    private final int firstColonIndex;
+    private final int lastColonIndex;
+    private final int firstCloseParenIndex;
+    private final int lastCloseParenIndex;
+    private final int ltIndex;
+    private final int gtIndex;
+    private final int atIndex;
+    private final int lockedClassIndex;
+
+    // decoded on first access
+    private String methodName;
+    private String source;
+    private String lineNumber;
+    private String className;
+    private String lockedObjectId;
+    private String lockedClassName;
 
     //  private List stateList;
     public StackLine(String line) {
         this.line = line;
-        IS_LINE = line.trim().startsWith("at");
-        if (IS_LINE) {
-            int methodIndexBegin = line.lastIndexOf(".", line.indexOf("(")) + 1;
-            int methodIndexEnd = line.indexOf("(");
-            METHOD_NAME = line.substring(methodIndexBegin, methodIndexEnd);
-        } else {
-            METHOD_NAME = "n/a";
-        }
-
-        IS_NATIVE_METHOD = line.contains("(Native Method");
-
-        if (IS_LINE) {
-            if (IS_NATIVE_METHOD) {
-                SOURCE = "Native Method";
-            } else {
-                int sourceIndexBegin = line.indexOf("(") + 1;
-                int sourceIndexEnd = line.indexOf(":");
-                if (-1 != sourceIndexEnd) {
-                    SOURCE = line.substring(sourceIndexBegin, sourceIndexEnd);
-                } else {
-                    SOURCE = "Unknown Source";
-                }
+        int length = line.length();
+        int firstNonWhitespace = -1;
+        int openParen = -1;
+        int lastDot = -1;
+        int firstColon = -1;
+        int lastColon = -1;
+        int firstCloseParen = -1;
+        int lastCloseParen = -1;
+        int lt = -1;
+        int gt = -1;
+        int at = -1;
+        int lockedClass = -1;
+        boolean nativeMethod = false;
+        boolean tryingToGetLock = false;
+        boolean holdingLock = false;
+        boolean parking = false;
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (-1 == firstNonWhitespace && c > ' ') {
+                firstNonWhitespace = i;
             }
-        } else {
-            SOURCE = "n/a";
-        }
-
-        if (IS_NATIVE_METHOD) {
-            LINE_NUMBER = "Native Method";
-        } else {
-            int lineIndexBegin = line.lastIndexOf(":") + 1;
-            int lineIndexEnd = line.lastIndexOf(")");
-            if (-1 != lineIndexEnd) {
-                LINE_NUMBER = line.substring(lineIndexBegin, lineIndexEnd);
-            } else {
-                LINE_NUMBER = "Unknown Source";
+            switch (c) {
+                case '.':
+                    if (-1 == openParen) {
+                        lastDot = i;
+                    }
+                    break;
+                case '(':
+                    if (-1 == openParen) {
+                        openParen = i;
+                    }
+                    if (!nativeMethod && line.startsWith("(Native Method", i)) {
+                        nativeMethod = true;
+                    }
+                    if (-1 == lockedClass && line.startsWith("(a ", i)) {
+                        lockedClass = i + 3;
+                    }
+                    break;
+                case ':':
+                    if (-1 == firstColon) {
+                        firstColon = i;
+                    }
+                    lastColon = i;
+                    break;
+                case ')':
+                    if (-1 == firstCloseParen) {
+                        firstCloseParen = i;
+                    }
+                    lastCloseParen = i;
+                    break;
+                case '<':
+                    if (-1 == lt) {
+                        lt = i;
+                    }
+                    break;
+                case '>':
+                    if (-1 == gt) {
+                        gt = i;
+                    }
+                    break;
+                case '-':
+                    if (!tryingToGetLock && line.startsWith("- waiting to lock", i)) {
+                        tryingToGetLock = true;
+                    } else if (!holdingLock && line.startsWith("- locked", i)) {
+                        holdingLock = true;
+                    } else if (!parking && line.startsWith("- parking to wait for", i)) {
+                        parking = true;
+                    }
+                    break;
+                case 'a':
+                    if (-1 == at && line.startsWith("at ", i)) {
+                        at = i;
+                    }
+                    break;
+                default:
             }
         }
-
-        if (IS_LINE) {
-            int classIndexBegin = line.indexOf("at ") + 3;
-            int classIndexEnd = line.lastIndexOf(".", line.indexOf("("));
-            CLASS_NAME = line.substring(classIndexBegin, classIndexEnd);
-        } else {
-            CLASS_NAME = "n/a";
-        }
-
-        IS_TRYING_TO_GET_LOCK = line.contains("- waiting to lock");
-        IS_HOLDING_LOCK = line.contains("- locked");
-        if (IS_HOLDING_LOCK || IS_TRYING_TO_GET_LOCK) {
-            LOCKED_OBJECT_ID = line.substring(line.indexOf("<") + 1, line.indexOf(">"));
-            LOCKED_CLASS_NAME = line.substring(line.indexOf("(a ") + 3, line.indexOf(")"));
-        }else{
-            LOCKED_OBJECT_ID = "n/a";
-            LOCKED_CLASS_NAME = "n/a";
-        }
+        IS_LINE = -1 != firstNonWhitespace && line.startsWith("at", firstNonWhitespace);
+        IS_NATIVE_METHOD = nativeMethod;
+        IS_TRYING_TO_GET_LOCK = tryingToGetLock;
+        IS_HOLDING_LOCK = holdingLock;
+        IS_PARKING = parking;
+        openParenIndex = openParen;
+        lastDotBeforeParenIndex = -1 == openParen ? -1 : lastDot;
+        firstColonIndex = firstColon;
+        lastColonIndex = lastColon;
+        firstCloseParenIndex = firstCloseParen;
+        lastCloseParenIndex = lastCloseParen;
+        ltIndex = lt;
+        gtIndex = gt;
+        atIndex = at;
+        lockedClassIndex = lockedClass;
     }
 
 
@@ -113,15 +163,32 @@ public class StackLine implements Serializable {
     }
 
     public String getMethodName() {
-        return METHOD_NAME;
+        if (null == methodName) {
+            methodName = IS_LINE ? line.substring(lastDotBeforeParenIndex + 1, openParenIndex) : "n/a";
+        }
+        return methodName;
     }
 
     public String getSource() {
-        return SOURCE;
+        if (null == source) {
+            if (!IS_LINE) {
+                source = "n/a";
+            } else if (IS_NATIVE_METHOD) {
+                source = "Native Method";
+            } else if (-1 != firstColonIndex) {
+                source = line.substring(openParenIndex + 1, firstColonIndex);
+            } else {
+                source = "Unknown Source";
+            }
+        }
+        return source;
     }
 
     public String getClassName() {
-        return CLASS_NAME;
+        if (null == className) {
+            className = IS_LINE ? line.substring(atIndex + 3, lastDotBeforeParenIndex) : "n/a";
+        }
+        return className;
     }
 
 
@@ -130,7 +197,16 @@ public class StackLine implements Serializable {
     }
 
     public String getLineNumber() {
-        return LINE_NUMBER;
+        if (null == lineNumber) {
+            if (IS_NATIVE_METHOD) {
+                lineNumber = "Native Method";
+            } else if (-1 != lastCloseParenIndex) {
+                lineNumber = line.substring(lastColonIndex + 1, lastCloseParenIndex);
+            } else {
+                lineNumber = "Unknown Source";
+            }
+        }
+        return lineNumber;
     }
 
     public boolean isNativeMethod() {
@@ -157,6 +233,15 @@ public class StackLine implements Serializable {
         return IS_HOLDING_LOCK;
     }
 
+    /**
+     * tests if the line is a "- parking to wait for &lt;...&gt;" line of a thread parked on a j.u.c. synchronizer
+     *
+     * @return boolean
+     */
+    public boolean isParking() {
+        return IS_PARKING;
+    }
+
     private String blockerThreadId = null;
 
     /*package*/ void setBlockerThreadId(String id) {
@@ -168,11 +253,29 @@ public class StackLine implements Serializable {
     }
 
     public String getLockedObjectId() {
-        return LOCKED_OBJECT_ID;
+        if (null == lockedObjectId) {
+            lockedObjectId = IS_HOLDING_LOCK || IS_TRYING_TO_GET_LOCK ? line.substring(ltIndex + 1, gtIndex) : "n/a";
+        }
+        return lockedObjectId;
     }
 
     public String getLockedClassName() {
-        return LOCKED_CLASS_NAME;
+        if (null == lockedClassName) {
+            lockedClassName = IS_HOLDING_LOCK || IS_TRYING_TO_GET_LOCK
+                    ? line.substring(-1 == lockedClassIndex ? 2 : lockedClassIndex, firstCloseParenIndex) : "n/a";
+        }
+        return lockedClassName;
+    }
+
+    /*package*/ int indexOfLessThan() {
+        return ltIndex;
+    }
+
+    /**
+     * @return the object id enclosed in &lt; and &gt;, null if none
+     */
+    /*package*/ String getObjectId() {
+        return -1 != ltIndex && ltIndex < gtIndex ? line.substring(ltIndex + 1, gtIndex) : null;
     }
     public String beforeObjectId(){
         return line.substring(0, line.indexOf(getLockedObjectId()));
@@ -34,24 +34,27 @@ public class SunFullThreadDump extends FullThreadDump {
     boolean isSpringBootActuator = false;
 
     int blankLineCount = 0;
+    private boolean inOwnableSynchronizers = false;
 
-    /*package*/ boolean isThreadHeader(String line) {
-        boolean startsWithDoubleQuote = line.startsWith("\"");
-        boolean containsPrio = line.contains("prio");
+    protected boolean isThreadHeader(String line) {
+        // stack lines start with a tab, so most lines are rejected by the first character
+        if (line.isEmpty() || '"' != line.charAt(0)) {
+            return false;
+        }
         boolean springBootActuator = line.contains(" - Thread t@");
 
-        if (startsWithDoubleQuote && (
-                containsPrio // ordinary Sun thread dump 
-                        || springBootActuator // Spring Boot Actuator thread dump
-        )) {
+        if (springBootActuator // Spring Boot Actuator thread dump
+                || line.contains("prio") // ordinary Sun thread dump
+        ) {
             blankLineCount = 0;
+            inOwnableSynchronizers = false;
             isSpringBootActuator = springBootActuator;
             return true;
         }
         return false;
     }
 
-    /*package*/ boolean isThreadFooter(String line) {
+    protected boolean isThreadFooter(String line) {
         if ("".equals(line)) {
             blankLineCount++;
         }
@@ -62,7 +65,23 @@ public class SunFullThreadDump extends FullThreadDump {
         }
     }
 
-    /*package*/ boolean isThreadDumpContinuing(String line) {
+    /**
+     * "jstack -l" prints the thread's ownable synchronizers after the blank line ending the stack trace.
+     */
+    @Override
+    protected boolean isThreadTrailer(String line) {
+        if (isSpringBootActuator) {
+            return false;
+        }
+        String trimmed = line.trim();
+        if (ThreadDump.OWNABLE_SYNCHRONIZERS.equals(trimmed)) {
+            inOwnableSynchronizers = true;
+            return true;
+        }
+        return inOwnableSynchronizers && trimmed.startsWith("- ");
+    }
+
+    protected boolean isThreadDumpContinuing(String line) {
         return true;
     }
 }
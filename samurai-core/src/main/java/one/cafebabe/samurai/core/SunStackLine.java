@@ -25,24 +25,20 @@ package one.cafebabe.samurai.core;
  */
 public class SunStackLine extends StackLine {
     private static final long serialVersionUID = 2404952046137420766L;
-    private final boolean IS_WAITING_ON;
-    private final String TARGET;
+    private String target;
 
     /*package*/ SunStackLine(String line) {
         super(line);
-        IS_WAITING_ON = getLine().contains("waiting on");
-        if (isLine() || !getLine().contains("<")) {
-            TARGET = "n/a";
-        } else {
-            TARGET = getLine().substring(getLine().indexOf("<"));
-        }
     }
 
     public boolean isWaitingOn() {
-        return IS_WAITING_ON;
+        return getLine().contains("waiting on");
     }
 
     public String getTarget() {
-        return TARGET;
+        if (null == target) {
+            target = isLine() || -1 == indexOfLessThan() ? "n/a" : getLine().substring(indexOfLessThan());
+        }
+        return target;
     }
 }
@@ -32,16 +32,7 @@ package one.cafebabe.samurai.core;
         super(header);
 
         //calculate thread state
-        int stateBeginIndex = getHeader().lastIndexOf("=");
-        stateBeginIndex = getHeader().indexOf(" ", stateBeginIndex) + 1;
-        String state;
-        if (getHeader().endsWith("]")) {
-            int endIndex = getHeader().lastIndexOf("[") - 1;
-            state = getHeader().substring(stateBeginIndex, endIndex).trim();
-        } else {
-            state = getHeader().substring(stateBeginIndex).trim();
-        }
-
+        String state = getThreadHeader().getState();
         switch (state) {
             case "runnable":
                 this.STATE = RUNNABLE;
@@ -64,20 +55,14 @@ package one.cafebabe.samurai.core;
                 break;
         }
 
-        //calculate thread stack range
-        if (getHeader().endsWith("]")) {
-            int stackbegin = getHeader().lastIndexOf("[");
-            this.STACK_RANGE = getHeader().substring(stackbegin);
-        } else {
-            this.STACK_RANGE = "";
-        }
+        this.STACK_RANGE = getThreadHeader().getStackRange();
 
         IS_BLOCKED = STATE.equals("waiting for monitor entry");
-        IS_DAEMON = -1 != getHeader().indexOf(" daemon ", getHeader().lastIndexOf("\""));
+        IS_DAEMON = getThreadHeader().isDaemon();
     }
 
 
-    /*package*/ void addStackLine(String line) {
+    protected void addStackLine(String line) {
         addStackLine(new SunStackLine(line));
     }
 
@@ -94,15 +79,6 @@ package one.cafebabe.samurai.core;
         return toStringed.toString();
     }
 
-    /**
-     * returns the thread's priority
-     *
-     * @return priority
-     */
-    public int getPriority() {
-        return Integer.parseInt(getHeaderParameter("prio"));
-    }
-
     /**
      * returns the thread's tid
      *
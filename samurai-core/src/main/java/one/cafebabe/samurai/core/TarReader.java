@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads regular file entries of a tar archive, ustar and GNU long names included, one after another from a stream.
+ */
+/*package*/ final class TarReader {
+    private static final int BLOCK = 512;
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+    private String name;
+    private long time;
+    // bytes of the current entry not yet read, padding excluded
+    private long remaining = 0;
+    private long padding = 0;
+
+    /*package*/ TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * tests if the block is a ustar header, i.e. has "ustar" at offset 257
+     *
+     * @param block the first 512 bytes of an archive
+     * @param length number of valid bytes in the block
+     * @return true if the block is a ustar header
+     */
+    /*package*/
+    static boolean isHeader(byte[] block, int length) {
+        return 262 <= length && block[257] == 'u' && block[258] == 's' && block[259] == 't' && block[260] == 'a' && block[261] == 'r';
+    }
+
+    /**
+     * skips what's left of the current entry and moves to the next regular file
+     *
+     * @return false at the end of the archive
+     * @throws IOException - If an I/O error occurs
+     */
+    /*package*/ boolean next() throws IOException {
+        String longName = null;
+        while (true) {
+            skip(remaining + padding);
+            remaining = 0;
+            padding = 0;
+            if (!readBlock()) {
+                return false;
+            }
+            long entrySize = parseNumber(124, 12);
+            char type = (char) header[156];
+            if ('L' == type) {
+                // GNU long name of the next entry
+                byte[] bytes = readFully(entrySize);
+                longName = cString(bytes, 0, bytes.length);
+                padding = pad(entrySize);
+                continue;
+            }
+            remaining = entrySize;
+            padding = pad(entrySize);
+            if ('0' != type && 0 != type && '7' != type) {
+                // directories, links and pax headers
+                longName = null;
+                continue;
+            }
+            if (null != longName) {
+                name = longName;
+            } else {
+                String prefix = cString(header, 345, 155);
+                String baseName = cString(header, 0, 100);
+                name = prefix.isEmpty() ? baseName : prefix + '/' + baseName;
+            }
+            time = parseNumber(136, 12) * 1000;
+            return true;
+        }
+    }
+
+    /**
+     * @return path of the current entry in the archive
+     */
+    /*package*/ String getName() {
+        return name;
+    }
+
+    /**
+     * @return modification time of the current entry in milliseconds
+     */
+    /*package*/ long getTime() {
+        return time;
+    }
+
+    /**
+     * @return content of the current entry, valid until {@link #next()}. closing it doesn't close the archive
+     */
+    /*package*/ InputStream getContent() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (0 == remaining) {
+                    return -1;
+                }
+                int read = in.read();
+                if (-1 == read) {
+                    throw new EOFException("truncated tar entry: " + name);
+                }
+                remaining--;
+                return read;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (0 == remaining) {
+                    return -1;
+                }
+                int read = in.read(b, off, (int) Math.min(len, remaining));
+                if (-1 == read) {
+                    throw new EOFException("truncated tar entry: " + name);
+                }
+                remaining -= read;
+                return read;
+            }
+        };
+    }
+
+    private boolean readBlock() throws IOException {
+        int read = in.readNBytes(header, 0, BLOCK);
+        if (read < BLOCK) {
+            return false;
+        }
+        for (byte b : header) {
+            if (0 != b) {
+                return true;
+            }
+        }
+        // two zero blocks terminate the archive
+        return false;
+    }
+
+    private byte[] readFully(long length) throws IOException {
+        byte[] bytes = in.readNBytes((int) length);
+        if (bytes.length < length) {
+            throw new EOFException("truncated tar archive");
+        }
+        return bytes;
+    }
+
+    private void skip(long length) throws IOException {
+        while (0 < length) {
+            long skipped = in.skip(length);
+            if (0 >= skipped) {
+                if (-1 == in.read()) {
+                    throw new EOFException("truncated tar archive");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static long pad(long size) {
+        return (BLOCK - size % BLOCK) % BLOCK;
+    }
+
+    /**
+     * parses an octal number, or a base-256 number as written by GNU tar for large values
+     */
+    private long parseNumber(int offset, int length) {
+        long value = 0;
+        if (0 != (header[offset] & 0x80)) {
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xff);
+            }
+            return value;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if ('0' <= b && b <= '7') {
+                value = value * 8 + (b - '0');
+            } else if (0 != value && (0 == b || ' ' == b)) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && 0 != bytes[end]) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+}
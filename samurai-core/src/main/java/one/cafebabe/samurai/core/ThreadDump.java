@@ -18,10 +18,14 @@ package one.cafebabe.samurai.core;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.*;
+
 public abstract class ThreadDump implements Serializable {
     private List<StackLine> lockList = null;
     private StackLine blockedLine = null;
+    private String parkedObjectId = null;
+    private String parkedBlockerId = null;
+    private List<String> ownableSynchronizerIds = null;
+    private boolean inOwnableSynchronizers = false;
 
     private final List<StackLine> stackLines = new ArrayList<>();
     private final String HEADER;
@@ -34,6 +38,12 @@ public abstract class ThreadDump implements Serializable {
     protected boolean IS_DAEMON;
     protected boolean IS_BLOCKING;
     private final String CONDITION;
+    private transient ThreadHeader threadHeader;
+    private long stackFingerprint = FINGERPRINT_OFFSET_BASIS;
+
+    // 64-bit FNV-1a
+    private static final long FINGERPRINT_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FINGERPRINT_PRIME = 0x100000001b3L;
 
     public ThreadDump(String header) {
         this.HEADER = header.trim();
@@ -41,11 +51,7 @@ public abstract class ThreadDump implements Serializable {
         int headerBeginIndex = getHeader().indexOf("\"") + 1;
         int headerEndIndex = getHeader().indexOf("\"", headerBeginIndex);
         NAME = getHeader().substring(headerBeginIndex, headerEndIndex);
-        Pattern conditionCatchPtn = Pattern.compile("(?<= *)[^\"]+$");
-        Matcher m = conditionCatchPtn.matcher(this.HEADER);
-        //noinspection ResultOfMethodCallIgnored
-        m.find();
-        this.CONDITION = m.group().trim();
+        this.CONDITION = getHeader().substring(getHeader().lastIndexOf('"') + 1).trim();
     }
     protected ThreadDump(String header, String name, String condition){
         this.HEADER = header;
@@ -70,11 +76,14 @@ public abstract class ThreadDump implements Serializable {
         return getStackLines().size();
     }
 
-    /*package*/
-    abstract void addStackLine(String line);
+    /**
+     * @param line line of the thread, following the header
+     */
+    protected abstract void addStackLine(String line);
 
     protected void addStackLine(StackLine stackLine) {
         getStackLines().add(stackLine);
+        stackFingerprint = fingerprint(stackFingerprint, stackLine.getLine());
         if (stackLine.isTryingToGetLock()) {
             blockedLine = stackLine;
         }
@@ -85,17 +94,70 @@ public abstract class ThreadDump implements Serializable {
             }
             lockList.add(stackLine);
         }
+        if (stackLine.isParking()) {
+            parkedObjectId = stackLine.getObjectId();
+        } else if (OWNABLE_SYNCHRONIZERS.equals(stackLine.getLine().trim())) {
+            inOwnableSynchronizers = true;
+        } else if (inOwnableSynchronizers && null != stackLine.getObjectId()) {
+            // "- <0x..> (a ...)" with jstack -l, "- Locked <..> (a ...)" with Spring Boot Actuator
+            addOwnableSynchronizer(stackLine.getObjectId());
+        }
+    }
+
+    /*package*/ static final String OWNABLE_SYNCHRONIZERS = "Locked ownable synchronizers:";
+
+    /*package*/ void addOwnableSynchronizer(String id) {
+        if (null == ownableSynchronizerIds) {
+            ownableSynchronizerIds = new ArrayList<>();
+        }
+        ownableSynchronizerIds.add(id);
+    }
+
+    /*package*/ void setParkedObjectId(String id) {
+        this.parkedObjectId = id;
     }
 
     public String getBlockerId() {
-        if (null != blockedLine) {
+        if (null != blockedLine && null != blockedLine.getBlockerThreadId()) {
             return this.blockedLine.getBlockerThreadId();
         }
-        return null;
+        return parkedBlockerId;
     }
 
     /*package*/ void setBlockerId(String id) {
-        this.blockedLine.setBlockerThreadId(id);
+        if (isBlocked()) {
+            this.blockedLine.setBlockerThreadId(id);
+        } else {
+            this.parkedBlockerId = id;
+        }
+    }
+
+    /**
+     * returns ids of j.u.c. synchronizers (ReentrantLock, ReentrantReadWriteLock etc.) owned by the thread,
+     * listed in the "Locked ownable synchronizers" section
+     *
+     * @return ids, null if none
+     */
+    public List<String> getOwnableSynchronizerIds() {
+        return ownableSynchronizerIds;
+    }
+
+    /**
+     * returns the id of the j.u.c. synchronizer the thread is parked on
+     *
+     * @return id, null if the thread is not parked
+     */
+    public String getParkedObjectId() {
+        return parkedObjectId;
+    }
+
+    /**
+     * tests if the thread is parked on a j.u.c. synchronizer owned by another thread
+     *
+     * @return true if parked on an owned synchronizer
+     */
+    public boolean isParkedOnLock() {
+        return null != parkedBlockerId;
     }
 
     public List<StackLine> getLockedLines() {
@@ -152,30 +214,116 @@ public abstract class ThreadDump implements Serializable {
 
     public abstract String getId();
 
+    /**
+     * returns the fingerprint of the stack lines, computed as the lines are added.<br>
+     * Threads with identical stack lines share the same fingerprint.
+     *
+     * @return 64-bit fingerprint
+     */
+    public final long getStackFingerprint() {
+        return stackFingerprint;
+    }
+
+    private static long fingerprint(long fingerprint, String line) {
+        for (int i = 0; i < line.length(); i++) {
+            fingerprint = (fingerprint ^ line.charAt(i)) * FINGERPRINT_PRIME;
+        }
+        // line separator, so that lines are not concatenated
+        return (fingerprint ^ '\n') * FINGERPRINT_PRIME;
+    }
+
+    /**
+     * tests if the stack lines are identical, by comparing the sizes and the fingerprints of the stack lines
+     *
+     * @param obj object to be compared
+     * @return true if the stack lines are identical
+     */
     public final boolean equals(Object obj) {
-        boolean isEqual = false;
-        if (obj instanceof ThreadDump) {
-            ThreadDump that = (ThreadDump) obj;
-            if (that == this) {
-                isEqual = true;
-            } else {
-                if (that.size() == this.size()) {
-                    List<StackLine> thatList = that.getStackLines();
-                    List<StackLine> thisList = this.getStackLines();
-                    isEqual = true;
-                    for (int i = 0; i < this.size(); i++) {
-                        if (!thisList.get(i).equals(thatList.get(i))) {
-                            isEqual = false;
-                            break;
-                        }
-                    }
-                }
-            }
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof ThreadDump)) {
+            return false;
+        }
+        ThreadDump that = (ThreadDump) obj;
+        return that.stackFingerprint == this.stackFingerprint && that.size() == this.size();
+    }
+
+    public final int hashCode() {
+        return Long.hashCode(stackFingerprint);
+    }
+
+    /**
+     * returns the tokenized header. tokenized on first access as subclasses may refine getCondition()
+     *
+     * @return tokenized header
+     */
+    /*package*/ ThreadHeader getThreadHeader() {
+        ThreadHeader threadHeader = this.threadHeader;
+        if (null == threadHeader) {
+            threadHeader = new ThreadHeader(getCondition());
+            this.threadHeader = threadHeader;
         }
-        return isEqual;
+        return threadHeader;
+    }
+
+    /**
+     * returns the thread number, i.e. "#12" in HotSpot 1.8+ headers
+     *
+     * @return thread number, -1 if not available
+     */
+    public long getNumber() {
+        return getThreadHeader().getNumber();
+    }
+
+    /**
+     * returns the thread's priority
+     *
+     * @return priority, -1 if not available
+     */
+    public int getPriority() {
+        return getThreadHeader().getPriority();
+    }
+
+    /**
+     * returns the native thread priority, i.e. "os_prio=" in HotSpot 1.8+ headers
+     *
+     * @return os priority, -1 if not available
+     */
+    public int getOsPriority() {
+        return getThreadHeader().getOsPriority();
+    }
+
+    /**
+     * returns the CPU time consumed by the thread, i.e. "cpu=" in HotSpot 11+ headers
+     *
+     * @return CPU time in milliseconds, -1 if not available
+     */
+    public double getCpuMillis() {
+        return getThreadHeader().getCpuMillis();
+    }
+
+    /**
+     * returns the time elapsed since the thread started, i.e. "elapsed=" in HotSpot 11+ headers
+     *
+     * @return elapsed time in seconds, -1 if not available
+     */
+    public double getElapsedSeconds() {
+        return getThreadHeader().getElapsedSeconds();
     }
 
     public String getHeaderParameter(String name) {
+        String value = getThreadHeader().get(name);
+        return null != value ? value : scanHeaderParameter(name);
+    }
+
+    /**
+     * looks up parameters the tokenizer doesn't know as a key, such as a suffix of a key or a key containing spaces
+     *
+     * @param name - parameter name
+     * @return value, "" if not found
+     */
+    private String scanHeaderParameter(String name) {
         int index = getCondition().indexOf(name + "=");
         int paramStart;
         int paramEnd;
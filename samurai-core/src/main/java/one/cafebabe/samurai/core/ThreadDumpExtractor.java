@@ -15,14 +15,38 @@
  */
 package one.cafebabe.samurai.core;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 
 public class ThreadDumpExtractor {
@@ -42,6 +66,7 @@ public class ThreadDumpExtractor {
 
     private boolean whileFullThreadDump = false;
     private boolean whileAthreadDump = false;
+    private boolean footerFound = false;
     FullThreadDump fullThreadDump = null;
     ThreadDump aThreadDump = null;
 
@@ -68,14 +93,379 @@ public class ThreadDumpExtractor {
      * @throws IOException - If an I/O error occurs
      */
     public void analyze(File file) throws IOException {
-        analyze(new FileInputStream(file));
+        analyze(file.toPath());
+    }
+
+    /**
+     * Extracts thread dumps from the specified file using memory-mapped I/O.<br>
+     * Lines between thread dumps are examined in place and never decoded into Strings.
+     * Compressed files are decompressed as streams, see {@link #analyzeParallel(Path, ForkJoinPool)}.
+     *
+     * @param path - the file to be examined
+     * @throws IOException - If an I/O error occurs
+     */
+    public void analyze(Path path) throws IOException {
+        CompressedInput.Format format = CompressedInput.formatOf(path);
+        if (CompressedInput.Format.PLAIN != format) {
+            analyzeCompressed(path, format, ForkJoinPool.commonPool());
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(channel, 0, channel.size(), Charset.defaultCharset());
+        }
+        finish();
+    }
+
+    /**
+     * Returns full thread dumps in the specified file as a lazy, sequential stream.
+     * Lines are read on the consuming thread only as far as needed to produce the next full thread dump.
+     * The file is closed when the stream is closed.
+     *
+     * @param path - the file to be examined
+     * @return stream of full thread dumps, to be closed after use
+     * @throws IOException - If an I/O error occurs opening the file
+     */
+    public static Stream<FullThreadDump> stream(Path path) throws IOException {
+        return stream(Files.newInputStream(path));
+    }
+
+    /**
+     * Returns full thread dumps in the stream as a lazy, sequential stream.
+     * I/O errors while reading are thrown as {@link UncheckedIOException}.
+     * The input stream is closed when the returned stream is closed.
+     *
+     * @param is - the underlying input stream
+     * @return stream of full thread dumps, to be closed after use
+     */
+    public static Stream<FullThreadDump> stream(InputStream is) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        Deque<FullThreadDump> parsed = new ArrayDeque<>(1);
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(new ThreadDumpRenderer() {
+            @Override
+            public void onFullThreadDump(FullThreadDump fullThreadDump) {
+                if (null != fullThreadDump) {
+                    parsed.add(fullThreadDump);
+                }
+            }
+
+            @Override
+            public void onThreadDump(ThreadDump threadDump) {
+            }
+        });
+        Spliterator<FullThreadDump> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            private boolean eof = false;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super FullThreadDump> action) {
+                try {
+                    while (parsed.isEmpty() && !eof) {
+                        String line = reader.readLine();
+                        if (null == line) {
+                            eof = true;
+                            extractor.finish();
+                        } else {
+                            extractor.analyzeLine(line);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (parsed.isEmpty()) {
+                    return false;
+                }
+                action.accept(parsed.poll());
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Extracts thread dumps from the specified file, parsing full thread dumps in parallel on the common pool.
+     *
+     * @param path - the file to be examined
+     * @throws IOException - If an I/O error occurs
+     * @see #analyzeParallel(Path, ForkJoinPool)
+     */
+    public void analyzeParallel(Path path) throws IOException {
+        analyzeParallel(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Extracts thread dumps from the specified file, parsing full thread dumps in parallel.<br>
+     * The file is split at full thread dump headers first. Each section is then parsed, including deadlock analysis,
+     * on the pool while the renderer receives the results in the original order on the calling thread.
+     * IBM lock info preceding a section is handed to the section it belongs to.
+     * <p>
+     * gzip files are parsed sequentially. Entries of zip and tar.gz archives are decompressed and parsed in parallel,
+     * each with a dedicated extractor, and handed to the renderer in order of modification time, then name.
+     *
+     * @param path - the file to be examined
+     * @param pool - the pool to parse sections on
+     * @throws IOException - If an I/O error occurs
+     */
+    public void analyzeParallel(Path path, ForkJoinPool pool) throws IOException {
+        CompressedInput.Format format = CompressedInput.formatOf(path);
+        if (CompressedInput.Format.PLAIN != format) {
+            analyzeCompressed(path, format, pool);
+            return;
+        }
+        Charset charset = Charset.defaultCharset();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Iterator<Section> sections = split(channel, charset).iterator();
+            runInOrder(() -> {
+                if (!sections.hasNext()) {
+                    return null;
+                }
+                Section section = sections.next();
+                return () -> section.parse(channel, charset);
+            }, pool, this::replay);
+        }
+    }
+
+    private void analyzeCompressed(Path path, CompressedInput.Format format, ForkJoinPool pool) throws IOException {
+        switch (format) {
+            case GZIP:
+                analyze(new GZIPInputStream(Files.newInputStream(path), 64 * 1024));
+                break;
+            case ZIP:
+                try (ZipFile zipFile = new ZipFile(path.toFile())) {
+                    // entries are inflated independently, in parallel
+                    Iterator<ZipEntry> entries = CompressedInput.sortedEntries(zipFile).iterator();
+                    runInOrder(() -> {
+                        if (!entries.hasNext()) {
+                            return null;
+                        }
+                        ZipEntry entry = entries.next();
+                        return () -> parse(zipFile.getInputStream(entry));
+                    }, pool, this::replay);
+                }
+                break;
+            case TAR_GZIP:
+                try (InputStream gzip = new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path), 64 * 1024), 64 * 1024)) {
+                    // the gzip stream is inflated sequentially while entries are parsed in parallel.
+                    // entries are sorted once all of them are parsed, as the archive can't be rewound
+                    TarReader tar = new TarReader(gzip);
+                    List<CompressedInput.TarEntry<List<Object>>> parsed = new ArrayList<>();
+                    runInOrder(() -> {
+                        if (!tar.next()) {
+                            return null;
+                        }
+                        parsed.add(new CompressedInput.TarEntry<>(tar.getName(), tar.getTime()));
+                        byte[] content = tar.getContent().readAllBytes();
+                        return () -> parse(new ByteArrayInputStream(content));
+                    }, pool, new Consumer<>() {
+                        private int index = 0;
+
+                        @Override
+                        public void accept(List<Object> events) {
+                            parsed.get(index++).content = events;
+                        }
+                    });
+                    parsed.sort(CompressedInput.TAR_ENTRY_ORDER);
+                    for (CompressedInput.TarEntry<List<Object>> entry : parsed) {
+                        replay(entry.content);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(format.name());
+        }
+    }
+
+    /**
+     * supplies tasks to be run in parallel
+     */
+    @FunctionalInterface
+    private interface Tasks {
+        /**
+         * @return the next task, null if no more
+         */
+        Callable<List<Object>> next() throws IOException;
+    }
+
+    /**
+     * Runs tasks on the pool, at most twice as many as its parallelism at a time,
+     * handing their results to the consumer on the calling thread in the order the tasks were supplied.
+     */
+    private static void runInOrder(Tasks tasks, ForkJoinPool pool, Consumer<List<Object>> results) throws IOException {
+        int maxInFlight = pool.getParallelism() * 2;
+        Deque<Future<List<Object>>> inFlight = new ArrayDeque<>();
+        boolean supplied = true;
+        try {
+            while (supplied || !inFlight.isEmpty()) {
+                while (supplied && inFlight.size() < maxInFlight) {
+                    Callable<List<Object>> task = tasks.next();
+                    if (null == task) {
+                        supplied = false;
+                    } else {
+                        inFlight.add(pool.submit(task));
+                    }
+                }
+                if (!inFlight.isEmpty()) {
+                    results.accept(inFlight.poll().get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Futures.rethrow(e);
+        } finally {
+            for (Future<List<Object>> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * parses the stream with a dedicated extractor and closes it
+     *
+     * @return ThreadDumps and FullThreadDumps in the order the renderer would have received them
+     */
+    private static List<Object> parse(InputStream is) throws IOException {
+        List<Object> events = new ArrayList<>();
+        new ThreadDumpExtractor(recorder(events)).analyze(is);
+        return events;
+    }
+
+    /**
+     * @param events list to record ThreadDumps and FullThreadDumps into
+     * @return renderer recording what it receives
+     */
+    private static ThreadDumpRenderer recorder(List<Object> events) {
+        return new ThreadDumpRenderer() {
+            @Override
+            public void onFullThreadDump(FullThreadDump fullThreadDump) {
+                events.add(fullThreadDump);
+            }
+
+            @Override
+            public void onThreadDump(ThreadDump threadDump) {
+                events.add(threadDump);
+            }
+        };
+    }
+
+    private List<Section> split(FileChannel channel, Charset charset) throws IOException {
+        List<Section> sections = new ArrayList<>();
+        long size = channel.size();
+        long[] lockInfo = {-1, -1};
+        // offset of the line opening a pretty-printed JSON document
+        long[] jsonObjectOpen = {-1};
+        MappedLineReader.read(channel, 0, size, charset, MappedLineReader.DEFAULT_WINDOW_SIZE, sequence -> {
+            MappedLineReader.MappedLine line = (MappedLineReader.MappedLine) sequence;
+            long jsonObjectOpenedAt = jsonObjectOpen[0];
+            jsonObjectOpen[0] = isJSONObjectOpen(line) ? line.offset() : -1;
+            if (-1 != jsonObjectOpenedAt && isPrettyJSONThreads(line)) {
+                if (!sections.isEmpty()) {
+                    sections.get(sections.size() - 1).to = jsonObjectOpenedAt;
+                }
+                sections.add(new Section(-1, -1, jsonObjectOpenedAt, size));
+            } else if (startsWith(line, IBMLockInfos.HEADER)) {
+                lockInfo[0] = line.offset();
+                lockInfo[1] = -1;
+            } else if (-1 != lockInfo[0] && -1 == lockInfo[1] && startsWith(line, IBMLockInfos.FOOTER)) {
+                lockInfo[1] = line.next();
+            } else if (null != FORMATS.match(line)) {
+                if (-1 != lockInfo[0] && -1 == lockInfo[1]) {
+                    lockInfo[1] = line.offset();
+                }
+                if (!sections.isEmpty()) {
+                    sections.get(sections.size() - 1).to = line.offset();
+                }
+                sections.add(new Section(lockInfo[0], lockInfo[1], line.offset(), size));
+            }
+        });
+        return sections;
+    }
+
+    private void replay(List<Object> events) {
+        for (Object event : events) {
+            if (event instanceof ThreadDump) {
+                renderer.onThreadDump((ThreadDump) event);
+            } else {
+                renderer.onFullThreadDump((FullThreadDump) event);
+            }
+        }
+    }
+
+    /**
+     * A byte range of the file starting with a full thread dump header, along with the IBM lock info preceding it.
+     */
+    private static final class Section {
+        private final long lockInfoFrom;
+        private final long lockInfoTo;
+        private final long from;
+        private long to;
+
+        Section(long lockInfoFrom, long lockInfoTo, long from, long to) {
+            this.lockInfoFrom = lockInfoFrom;
+            this.lockInfoTo = lockInfoTo;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * parses the section with a dedicated extractor
+         *
+         * @return ThreadDumps and FullThreadDumps in the order the renderer would have received them
+         */
+        List<Object> parse(FileChannel channel, Charset charset) throws IOException {
+            List<Object> events = new ArrayList<>();
+            ThreadDumpExtractor extractor = new ThreadDumpExtractor(recorder(events));
+            if (-1 != lockInfoFrom) {
+                extractor.read(channel, lockInfoFrom, lockInfoTo, charset);
+            }
+            extractor.read(channel, from, to, charset);
+            extractor.finish();
+            return events;
+        }
+    }
+
+    private void read(FileChannel channel, long from, long to, Charset charset) throws IOException {
+        MappedLineReader.read(channel, from, to, charset, MappedLineReader.DEFAULT_WINDOW_SIZE, line -> {
+            if (isInterested(line)) {
+                analyzeLine(line.toString());
+            }
+        });
+    }
+
+    /**
+     * tests if the line affects the extraction state
+     *
+     * @param line line to be tested
+     * @return false if analyzeLine(line) would be no-op
+     */
+    private boolean isInterested(CharSequence line) {
+        return whileFullThreadDump || whileIBMlockInfo || jsonObjectOpened || isJSONObjectOpen(line)
+                || null != FORMATS.match(line) || startsWith(line, IBMLockInfos.HEADER);
     }
 
     private boolean whileIBMlockInfo = false;
     private IBMLockInfos ibmLockInfo = null;
+    // reader of the JSON formatted full thread dump in progress
+    private SpringBootActuatorJSONReader jsonReader = null;
+    // whether the previous line was "{", possibly opening a pretty-printed JSON document
+    private boolean jsonObjectOpened = false;
 
     public void analyzeLine(String line) {
+        if (null != jsonReader && null == FORMATS.match(line)) {
+            feedJSON(line);
+            return;
+        }
         checkBeginFullThreadDump(line);
+        if (null != jsonReader) {
+            // the header line has been fed already
+            return;
+        }
         if (!whileFullThreadDump && line.startsWith(IBMLockInfos.HEADER)) {
             whileIBMlockInfo = true;
             ibmLockInfo = new IBMLockInfos(line);
@@ -92,6 +482,13 @@ public class ThreadDumpExtractor {
                 finish();
 //        fullThreadDumpEnded();
             } else {
+                if (footerFound) {
+                    if (fullThreadDump.isThreadTrailer(line)) {
+                        aThreadDump.addStackLine(line);
+                        return;
+                    }
+                    aThreadDumpEnded();
+                }
                 if (fullThreadDump.isThreadHeader(line)) {
                     if (whileAthreadDump) {
                         //new dump found
@@ -102,49 +499,93 @@ public class ThreadDumpExtractor {
                     if (!fullThreadDump.isThreadFooter(line)) {
                         aThreadDump.addStackLine(line);
                     } else {
-                        aThreadDumpEnded();
+                        // the thread ends unless trailer lines follow
+                        footerFound = true;
                     }
                 }
             }
         }
     }
 
-    private final int SUN = 0;
-    private final int BEA = 1;
-    private final int IBM = 2;
-    private final int SPRING_ACTUATOR_JSON = 3;
-
-    private final String[] FULL_THREAD_DUMP_HEADER = {
-            //SUN
-            "Full thread dump"
-            //BEA
-            , "===== FULL THREAD DUMP ==============="
-            //IBM
-            , "2XMFULLTHDDUMP"
-            // Spring Boot Actuator
-            , "{\"threads\":[{\"threadName\":"};
-
+    private static final ThreadDumpFormats FORMATS = ThreadDumpFormats.getInstance();
 
-    private int currentJVM = SUN;
+    private ThreadDumpFormat currentFormat = ThreadDumpFormats.SUN;
 
 //  private boolean isBEAThreadDump = false;
 
     //  private int threadDumpIndex = 0;
     private void checkBeginFullThreadDump(String line) {
-        for (int i = 0; i < FULL_THREAD_DUMP_HEADER.length; i++) {
-            if (line.startsWith(FULL_THREAD_DUMP_HEADER[i])) {
-                currentJVM = i;
-                if (whileAthreadDump) {
-                    aThreadDumpEnded();
-                }
-                if (whileFullThreadDump) {
-                    fullThreadDumpEnded();
-                }
-                fullThreadDumpStarted(line);
-                break;
+        ThreadDumpFormat format = FORMATS.match(line);
+        if (null == format && jsonObjectOpened && isPrettyJSONThreads(line)) {
+            format = ThreadDumpFormats.SPRING_BOOT_ACTUATOR_JSON;
+        }
+        jsonObjectOpened = isJSONObjectOpen(line);
+        if (null != format) {
+            currentFormat = format;
+            if (whileAthreadDump) {
+                aThreadDumpEnded();
             }
+            if (whileFullThreadDump) {
+                fullThreadDumpEnded();
+            }
+            fullThreadDumpStarted(line);
         }
+    }
 
+    private static boolean startsWith(CharSequence line, String prefix) {
+        return startsWith(line, 0, prefix);
+    }
+
+    private static boolean startsWith(CharSequence line, int offset, String prefix) {
+        if (line.length() - offset < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.charAt(offset + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(CharSequence line) {
+        int i = 0;
+        while (i < line.length() && line.charAt(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @param line line to be tested
+     * @return true if the line is "{", the first line of pretty-printed JSON
+     */
+    private static boolean isJSONObjectOpen(CharSequence line) {
+        int i = skipWhitespace(line);
+        if (i == line.length() || line.charAt(i) != '{') {
+            return false;
+        }
+        for (i++; i < line.length(); i++) {
+            if (line.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param line line following "{"
+     * @return true if the line is the second line of a pretty-printed Spring Boot Actuator thread dump
+     */
+    private static boolean isPrettyJSONThreads(CharSequence line) {
+        return startsWith(line, skipWhitespace(line), "\"threads\"");
+    }
+
+    private void feedJSON(String line) {
+        jsonReader.feed(line);
+        if (jsonReader.isComplete()) {
+            fullThreadDumpEnded();
+        }
     }
 
     public void finish() {
@@ -157,34 +598,29 @@ public class ThreadDumpExtractor {
     }
 
     private void fullThreadDumpStarted(String header) {
-        switch (this.currentJVM) {
-            case SUN:
-                fullThreadDump = new SunFullThreadDump(header);
-                whileFullThreadDump = true;
-                break;
-            case BEA:
-                fullThreadDump = new BEAFullThreadDump(header);
-                whileFullThreadDump = true;
-                break;
-            case IBM:
-                fullThreadDump = new IBMFullThreadDump(header);
-                whileFullThreadDump = true;
-                break;
-            case SPRING_ACTUATOR_JSON:
-
-                fullThreadDump = new SpringBootActuatorJSONFullThreadDump(header);
-                List<ThreadDump> dumps = fullThreadDump.getThreadDumps();
-                for (ThreadDump dump : dumps) {
-                    aThreadDump = dump;
-                    renderer.onThreadDump(dump);
-                }
-                fullThreadDumpEnded();
-                break;
+        fullThreadDump = currentFormat.newFullThreadDump(header);
+        whileFullThreadDump = true;
+        if (fullThreadDump instanceof IBMFullThreadDump) {
+            ((IBMFullThreadDump) fullThreadDump).lockInfos = ibmLockInfo;
+        }
+        if (ThreadDumpFormats.SPRING_BOOT_ACTUATOR_JSON == currentFormat) {
+            // threads are passed to the renderer as soon as they are read, the document may span many lines
+            jsonReader = new SpringBootActuatorJSONReader(dump -> {
+                aThreadDump = dump;
+                fullThreadDump.addThreadDump(dump);
+                renderer.onThreadDump(dump);
+            });
+            if (!startsWith(header, "{")) {
+                // pretty-printed, "{" was on the previous line
+                jsonReader.feed("{");
+            }
+            feedJSON(header);
         }
     }
 
     private void fullThreadDumpEnded() {
         whileFullThreadDump = false;
+        jsonReader = null;
         if (null != fullThreadDump) {
             fullThreadDump.finish();
         }
@@ -192,28 +628,14 @@ public class ThreadDumpExtractor {
     }
 
     private void aThreadDumpStarted(String header) {
-        switch (currentJVM) {
-            case SUN:
-                aThreadDump = ((SunFullThreadDump) fullThreadDump).isSpringBootActuator ?
-                        new SpringBootActuatorThreadDump(header) : new SunThreadDump(header);
-                break;
-            case BEA:
-                aThreadDump = new BEAThreadDump(header);
-                break;
-            case IBM:
-                aThreadDump = new IBMThreadDump(header, ibmLockInfo);
-                break;
-            case SPRING_ACTUATOR_JSON:
-                break;
-            default:
-                throw new AssertionError("Illegal JVM Vendor code");
-        }
+        aThreadDump = currentFormat.newThreadDump(fullThreadDump, header);
         whileAthreadDump = true;
     }
 
     private void aThreadDumpEnded() {
         fullThreadDump.addThreadDump(aThreadDump);
         whileAthreadDump = false;
+        footerFound = false;
         renderer.onThreadDump(aThreadDump);
     }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.util.List;
+
+/**
+ * A thread dump format recognized by {@link ThreadDumpExtractor}.<br>
+ * Formats other than the built-in Sun/OpenJDK, BEA, IBM and Spring Boot Actuator ones are found with {@link java.util.ServiceLoader},
+ * listed in META-INF/services/one.cafebabe.samurai.core.ThreadDumpFormat.
+ * A full thread dump starts with a line beginning with one of the header prefixes, the longest prefix taking precedence.
+ * The lines that follow are classified by the {@link FullThreadDump} the format creates,
+ * see {@link FullThreadDump#isThreadHeader(String)}, {@link FullThreadDump#isThreadFooter(String)},
+ * {@link FullThreadDump#isThreadTrailer(String)} and {@link FullThreadDump#isThreadDumpContinuing(String)}.
+ */
+public interface ThreadDumpFormat {
+    /**
+     * @return prefixes of lines starting a full thread dump, e.g. "Full thread dump"
+     */
+    List<String> getHeaderPrefixes();
+
+    /**
+     * @param header line starting with one of the header prefixes
+     * @return new full thread dump, classifying the lines that follow
+     */
+    FullThreadDump newFullThreadDump(String header);
+
+    /**
+     * @param fullThreadDump full thread dump the thread belongs to
+     * @param header         line classified as a thread header
+     * @return new thread dump, receiving the lines that follow until the footer
+     */
+    ThreadDump newThreadDump(FullThreadDump fullThreadDump, String header);
+}
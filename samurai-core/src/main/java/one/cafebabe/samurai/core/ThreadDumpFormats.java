@@ -0,0 +1,165 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Built-in formats and those found with {@link ServiceLoader}, looked up by the first characters of a line in a prefix trie.
+ */
+/*package*/ final class ThreadDumpFormats {
+    static final ThreadDumpFormat SUN = new BuiltIn(List.of("Full thread dump"), SunFullThreadDump::new,
+            (fullThreadDump, header) -> ((SunFullThreadDump) fullThreadDump).isSpringBootActuator ?
+                    new SpringBootActuatorThreadDump(header) : new SunThreadDump(header));
+    static final ThreadDumpFormat BEA = new BuiltIn(List.of("===== FULL THREAD DUMP ==============="), BEAFullThreadDump::new,
+            (fullThreadDump, header) -> new BEAThreadDump(header));
+    static final ThreadDumpFormat IBM = new BuiltIn(List.of("2XMFULLTHDDUMP"), IBMFullThreadDump::new,
+            (fullThreadDump, header) -> new IBMThreadDump(header, ((IBMFullThreadDump) fullThreadDump).lockInfos));
+    /**
+     * threads are read by {@link SpringBootActuatorJSONReader} rather than line by line
+     */
+    static final ThreadDumpFormat SPRING_BOOT_ACTUATOR_JSON = new BuiltIn(List.of("{\"threads\":"),
+            header -> new SpringBootActuatorJSONFullThreadDump(), (fullThreadDump, header) -> {
+        // ThreadDumpExtractor hands the whole document to the JSON reader as soon as the full thread dump starts
+        throw new AssertionError("threads of a Spring Boot Actuator JSON thread dump are not read line by line: " + header);
+    });
+
+    private static volatile ThreadDumpFormats instance;
+
+    private final Node root = new Node();
+
+    /*package*/ ThreadDumpFormats(List<ThreadDumpFormat> formats) {
+        for (ThreadDumpFormat format : formats) {
+            for (String prefix : format.getHeaderPrefixes()) {
+                Node node = root;
+                for (int i = 0; i < prefix.length(); i++) {
+                    node = node.childOrCreate(prefix.charAt(i));
+                }
+                if (null == node.format) {
+                    // the first registered format wins
+                    node.format = format;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return built-in formats followed by those found with {@link ServiceLoader}, loaded once
+     */
+    /*package*/
+    static ThreadDumpFormats getInstance() {
+        ThreadDumpFormats formats = instance;
+        if (null == formats) {
+            synchronized (ThreadDumpFormats.class) {
+                formats = instance;
+                if (null == formats) {
+                    List<ThreadDumpFormat> list = new ArrayList<>(List.of(SUN, BEA, IBM, SPRING_BOOT_ACTUATOR_JSON));
+                    for (ThreadDumpFormat format : ServiceLoader.load(ThreadDumpFormat.class, ThreadDumpFormats.class.getClassLoader())) {
+                        list.add(format);
+                    }
+                    formats = new ThreadDumpFormats(list);
+                    instance = formats;
+                }
+            }
+        }
+        return formats;
+    }
+
+    /**
+     * @param line line to be examined
+     * @return format of the longest header prefix the line starts with, null if none
+     */
+    /*package*/ ThreadDumpFormat match(CharSequence line) {
+        Node node = root;
+        ThreadDumpFormat matched = null;
+        for (int i = 0; i < line.length(); i++) {
+            node = node.child(line.charAt(i));
+            if (null == node) {
+                break;
+            }
+            if (null != node.format) {
+                matched = node.format;
+            }
+        }
+        return matched;
+    }
+
+    private static final class Node {
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        // few children per node, so sorted arrays are searched rather than hashed
+        private char[] labels = NO_LABELS;
+        private Node[] children = NO_CHILDREN;
+        private ThreadDumpFormat format;
+
+        private Node child(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            return 0 <= index ? children[index] : null;
+        }
+
+        private Node childOrCreate(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            if (0 <= index) {
+                return children[index];
+            }
+            int insertion = -index - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, insertion);
+            System.arraycopy(children, 0, newChildren, 0, insertion);
+            newLabels[insertion] = c;
+            newChildren[insertion] = new Node();
+            System.arraycopy(labels, insertion, newLabels, insertion + 1, labels.length - insertion);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[insertion];
+        }
+    }
+
+    private static final class BuiltIn implements ThreadDumpFormat {
+        private final List<String> headerPrefixes;
+        private final Function<String, FullThreadDump> fullThreadDumpFactory;
+        private final BiFunction<FullThreadDump, String, ThreadDump> threadDumpFactory;
+
+        private BuiltIn(List<String> headerPrefixes, Function<String, FullThreadDump> fullThreadDumpFactory,
+                        BiFunction<FullThreadDump, String, ThreadDump> threadDumpFactory) {
+            this.headerPrefixes = headerPrefixes;
+            this.fullThreadDumpFactory = fullThreadDumpFactory;
+            this.threadDumpFactory = threadDumpFactory;
+        }
+
+        @Override
+        public List<String> getHeaderPrefixes() {
+            return headerPrefixes;
+        }
+
+        @Override
+        public FullThreadDump newFullThreadDump(String header) {
+            return fullThreadDumpFactory.apply(header);
+        }
+
+        @Override
+        public ThreadDump newThreadDump(FullThreadDump fullThreadDump, String header) {
+            return threadDumpFactory.apply(fullThreadDump, header);
+        }
+    }
+}
@@ -16,28 +16,145 @@
 package one.cafebabe.samurai.core;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 
 public final class ThreadDumpSequence implements Serializable{
     private ThreadDump[] threadDumps;
+    private int size;
+    private transient volatile ThreadDump[] trimmed;
+    // CPU time consumed since the previous thread dump, -1 if not available
+    private float[] cpuMillisDeltas;
+    private double cpuMillis = 0;
+    private double cpuWindowSeconds = 0;
+    private final ThreadStateMatrix.Row row;
     private final String toStringName;
     private final String name;
     private final String id;
     private static final long serialVersionUID = -6039654177797487161L;
 
     public ThreadDumpSequence(ThreadDump threadDump, int size) {
-        this.threadDumps = new ThreadDump[size];
+        this(threadDump, size, new ThreadStateMatrix.Row());
+    }
+
+    /*package*/ ThreadDumpSequence(ThreadDump threadDump, int size, ThreadStateMatrix.Row row) {
+        this.threadDumps = new ThreadDump[Math.max(size, 4)];
         this.threadDumps[size - 1] = threadDump;
+        this.size = size;
+        this.row = row;
         this.name = threadDump.getName();
         this.id = threadDump.getId();
         this.toStringName = abbreviateWebLogicThreadName(name);
     }
 
     public void addThreadDump(ThreadDump threadDump) {
-        ThreadDump[] old = this.threadDumps;
-        threadDumps = new ThreadDump[old.length + 1];
-        System.arraycopy(old, 0, threadDumps, 0, old.length);
-        threadDumps[threadDumps.length - 1] = threadDump;
+        if (size == threadDumps.length) {
+            threadDumps = Arrays.copyOf(threadDumps, size + (size >> 1));
+        }
+        threadDumps[size++] = threadDump;
+        trimmed = null;
+        updateCpuTime();
+    }
+
+    private void updateCpuTime() {
+        ThreadDump previous = threadDumps[size - 2];
+        ThreadDump current = threadDumps[size - 1];
+        if (null == previous || previous.getCpuMillis() < 0 || current.getCpuMillis() < 0
+                || !previous.getId().equals(current.getId())) {
+            return;
+        }
+        double cpuDelta = current.getCpuMillis() - previous.getCpuMillis();
+        double elapsedDelta = current.getElapsedSeconds() - previous.getElapsedSeconds();
+        if (cpuDelta < 0 || elapsedDelta <= 0) {
+            // the thread id has been reused by a new thread
+            return;
+        }
+        if (null == cpuMillisDeltas) {
+            cpuMillisDeltas = new float[0];
+        }
+        ensureCpuMillisDeltasCapacity();
+        cpuMillisDeltas[size - 1] = (float) cpuDelta;
+        cpuMillis += cpuDelta;
+        cpuWindowSeconds += elapsedDelta;
+    }
+
+    private void ensureCpuMillisDeltasCapacity() {
+        int length = cpuMillisDeltas.length;
+        if (length < threadDumps.length) {
+            cpuMillisDeltas = Arrays.copyOf(cpuMillisDeltas, threadDumps.length);
+            Arrays.fill(cpuMillisDeltas, length, threadDumps.length, -1);
+        }
+    }
+
+    /**
+     * drops the oldest thread dumps. the row is shifted by {@link ThreadStateMatrix#evict(int)}.
+     *
+     * @param count number of thread dumps to drop, less than size()
+     */
+    /*package*/ void evict(int count) {
+        System.arraycopy(threadDumps, count, threadDumps, 0, size - count);
+        Arrays.fill(threadDumps, size - count, size, null);
+        size -= count;
+        trimmed = null;
+        if (null != cpuMillisDeltas) {
+            ensureCpuMillisDeltasCapacity();
+            System.arraycopy(cpuMillisDeltas, count, cpuMillisDeltas, 0, size);
+            Arrays.fill(cpuMillisDeltas, size, size + count, -1);
+            // the oldest remaining thread dump has no predecessor any more
+            cpuMillisDeltas[0] = -1;
+            cpuMillis = 0;
+            cpuWindowSeconds = 0;
+            for (int i = 1; i < size; i++) {
+                if (0 <= cpuMillisDeltas[i]) {
+                    cpuMillis += cpuMillisDeltas[i];
+                    cpuWindowSeconds += threadDumps[i].getElapsedSeconds() - threadDumps[i - 1].getElapsedSeconds();
+                }
+            }
+        }
+    }
+
+    /**
+     * returns CPU usage of the thread between the previous thread dump and the specified one, computed from "cpu=" and
+     * "elapsed=" of HotSpot 11+ headers
+     * index starts with 0
+     *
+     * @param index int
+     * @return CPU usage in percent of one core, -1 if not available
+     */
+    public double getCpuRate(int index) {
+        if (null == cpuMillisDeltas || index < 1 || index >= Math.min(size, cpuMillisDeltas.length) || cpuMillisDeltas[index] < 0) {
+            return -1;
+        }
+        double elapsedDelta = threadDumps[index].getElapsedSeconds() - threadDumps[index - 1].getElapsedSeconds();
+        return cpuMillisDeltas[index] / elapsedDelta / 10;
+    }
+
+    /**
+     * returns CPU time consumed by the thread while it was captured
+     *
+     * @return CPU time in milliseconds, -1 if not available
+     */
+    public double getCpuMillis() {
+        return 0 == cpuWindowSeconds ? -1 : cpuMillis;
+    }
+
+    /**
+     * returns CPU usage of the thread over the capture window
+     *
+     * @return CPU usage in percent of one core, -1 if not available
+     */
+    public double getCpuRate() {
+        return 0 == cpuWindowSeconds ? -1 : cpuMillis / cpuWindowSeconds / 10;
+    }
+
+    /**
+     * records states of the thread dumps added since the last call into the row.<br>
+     * to be called once blocking and deadlock analysis of the full thread dump is done.
+     */
+    /*package*/ void updateStates() {
+        for (int i = row.size(); i < size; i++) {
+            row.add(ThreadStateMatrix.stateOf(threadDumps[i]) | (compareWithBefore(i + 1) ? ThreadStateMatrix.SAME_AS_BEFORE : 0));
+        }
     }
 
     /**
@@ -49,7 +166,17 @@ public final class ThreadDumpSequence implements Serializable{
      */
     public boolean sameAsBefore(int index) {
         //range check
-        if (index < 2 || index > threadDumps.length) {
+        if (index < 2 || index > size) {
+            return false;
+        }
+        if (index <= row.size()) {
+            return row.sameAsBefore(index - 1);
+        }
+        return compareWithBefore(index);
+    }
+
+    private boolean compareWithBefore(int index) {
+        if (index < 2) {
             return false;
         }
         ThreadDump previous = threadDumps[index - 2];
@@ -57,16 +184,57 @@ public final class ThreadDumpSequence implements Serializable{
         return null != previous && previous.equals(specified) || null == specified;
     }
 
+    /**
+     * returns the state of the specified thread dump as a {@link ThreadStateMatrix} cell
+     * index starts with 0
+     *
+     * @param index int
+     * @return state code, with {@link ThreadStateMatrix#SAME_AS_BEFORE} if the stack is same as previous one
+     */
+    public int getState(int index) {
+        if (index < row.size()) {
+            return row.get(index);
+        }
+        if (index >= size) {
+            return ThreadStateMatrix.ABSENT;
+        }
+        return ThreadStateMatrix.stateOf(threadDumps[index]) | (compareWithBefore(index + 1) ? ThreadStateMatrix.SAME_AS_BEFORE : 0);
+    }
+
+    /*package*/ ThreadStateMatrix.Row getRow() {
+        return row;
+    }
+
     public int size() {
-        return threadDumps.length;
+        return size;
+    }
+
+    /**
+     * @param threadDump thread dump
+     * @return position of the very thread dump instance in this sequence, -1 if not found
+     */
+    public int indexOf(ThreadDump threadDump) {
+        for (int i = size - 1; 0 <= i; i--) {
+            if (threadDumps[i] == threadDump) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     public ThreadDump get(int i) {
+        if (i >= size) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
         return threadDumps[i];
     }
 
     public ThreadDump[] asArray() {
-        return threadDumps;
+        ThreadDump[] array = trimmed;
+        if (null == array) {
+            array = trimmed = Arrays.copyOf(threadDumps, size);
+        }
+        return array;
     }
 
     public String getName() {
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Typed fields of a thread header, tokenized in a single pass.<br>
+ * Understands HotSpot ("prio=5 os_prio=0 cpu=1.23ms elapsed=4.56s tid=0x.. nid=0x.. state [range]"),
+ * IBM ("(TID:0x.., sys_thread_t:0x.., state:CW, native ID:0x..) prio=5") and JRockit ("id: 0x80  prio: 5") conditions.
+ * Parameters take the same precedence as the historical lookup: "name=" over "name: " over "name:".
+ */
+/*package*/ final class ThreadHeader {
+    private static final int EQUALS = 0;
+    private static final int COLON_SPACE = 1;
+    private static final int COLON = 2;
+
+    private final Map<String, String> parameters = new HashMap<>(16);
+    private final long number;
+    private final boolean daemon;
+    private final int priority;
+    private final int osPriority;
+    private final double cpuMillis;
+    private final double elapsedSeconds;
+    private final String state;
+    private final String stackRange;
+
+    /*package*/ ThreadHeader(String condition) {
+        // precedence of each parameter seen so far, only needed while tokenizing
+        Map<String, Integer> ranks = new HashMap<>(16);
+        long number = -1;
+        boolean daemon = false;
+        int length = condition.length();
+        int i = 0;
+        while (i < length) {
+            char c = condition.charAt(i);
+            if (isSeparator(c)) {
+                i++;
+                continue;
+            }
+            int keyStart = i;
+            while (i < length && !isSeparator(c = condition.charAt(i)) && c != '=' && c != ':') {
+                i++;
+            }
+            if (i == length || isSeparator(c)) {
+                if ('#' == condition.charAt(keyStart)) {
+                    number = parseLong(condition.substring(keyStart + 1, i));
+                } else if (i - keyStart == 6 && condition.startsWith("daemon", keyStart)) {
+                    daemon = true;
+                }
+                continue;
+            }
+            String key = condition.substring(keyStart, i);
+            int valueEnd;
+            if (c == '=') {
+                // Sun
+                valueEnd = indexOf(condition, ' ', i + 1);
+                put(key, condition.substring(i + 1, valueEnd), EQUALS, ranks);
+            } else if (i + 1 < length && condition.charAt(i + 1) == ' ') {
+                // JRockit viking
+                valueEnd = indexOf(condition, ' ', i + 2);
+                put(key, condition.substring(i + 2, valueEnd), COLON_SPACE, ranks);
+            } else {
+                // IBM and JRockit Ariane & Dragon
+                valueEnd = i + 1;
+                while (valueEnd < length && (c = condition.charAt(valueEnd)) != ' ' && c != ')' && c != ',') {
+                    valueEnd++;
+                }
+                put(key, condition.substring(i + 1, valueEnd), COLON, ranks);
+            }
+            i = valueEnd;
+        }
+        this.number = number;
+        this.daemon = daemon;
+        this.priority = (int) parseLong(parameters.get("prio"));
+        this.osPriority = (int) parseLong(parameters.get("os_prio"));
+        this.cpuMillis = parseDuration(parameters.get("cpu"), 1);
+        this.elapsedSeconds = parseDuration(parameters.get("elapsed"), 1000);
+
+        int lastEquals = condition.lastIndexOf('=');
+        int stateBegin = -1 == lastEquals ? 0 : indexOf(condition, ' ', lastEquals);
+        if (condition.endsWith("]")) {
+            int rangeBegin = condition.lastIndexOf('[');
+            this.stackRange = condition.substring(rangeBegin);
+            this.state = stateBegin < rangeBegin ? condition.substring(stateBegin, rangeBegin).trim() : "";
+        } else {
+            this.stackRange = "";
+            this.state = condition.substring(stateBegin).trim();
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '\t' || c == ',' || c == '(' || c == ')';
+    }
+
+    private static int indexOf(String str, char c, int from) {
+        int index = str.indexOf(c, from);
+        return -1 == index ? str.length() : index;
+    }
+
+    private void put(String key, String value, int rank, Map<String, Integer> ranks) {
+        Integer current = ranks.get(key);
+        if (null == current || rank < current) {
+            parameters.put(key, value);
+            ranks.put(key, rank);
+        }
+    }
+
+    private static long parseLong(String value) {
+        if (null != value) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param value         - duration such as "171.69ms" or "13225.97s"
+     * @param millisPerUnit - milliseconds per unit of the result
+     * @return duration in the requested unit, -1 if not available
+     */
+    private static double parseDuration(String value, double millisPerUnit) {
+        if (null == value) {
+            return -1;
+        }
+        double millis;
+        try {
+            if (value.endsWith("ms")) {
+                millis = Double.parseDouble(value.substring(0, value.length() - 2));
+            } else if (value.endsWith("s")) {
+                millis = Double.parseDouble(value.substring(0, value.length() - 1)) * 1000;
+            } else {
+                return -1;
+            }
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+        return millis / millisPerUnit;
+    }
+
+    /**
+     * @param name - parameter name
+     * @return parameter value, null if the header doesn't have the parameter
+     */
+    /*package*/ String get(String name) {
+        return parameters.get(name);
+    }
+
+    /**
+     * @return thread number ("#12"), -1 if not available
+     */
+    /*package*/ long getNumber() {
+        return number;
+    }
+
+    /*package*/ boolean isDaemon() {
+        return daemon;
+    }
+
+    /*package*/ int getPriority() {
+        return priority;
+    }
+
+    /*package*/ int getOsPriority() {
+        return osPriority;
+    }
+
+    /*package*/ double getCpuMillis() {
+        return cpuMillis;
+    }
+
+    /*package*/ double getElapsedSeconds() {
+        return elapsedSeconds;
+    }
+
+    /**
+     * @return text between the last parameter and the stack range, e.g. "waiting on condition"
+     */
+    /*package*/ String getState() {
+        return state;
+    }
+
+    /**
+     * @return stack range including the brackets, "" if not available
+     */
+    /*package*/ String getStackRange() {
+        return stackRange;
+    }
+}
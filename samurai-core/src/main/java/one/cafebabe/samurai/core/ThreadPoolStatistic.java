@@ -0,0 +1,219 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Number of threads per thread pool and state in each full thread dump, maintained by {@link ThreadStatistic}.<br>
+ * Threads are grouped into pools by their names without the trailing sequence number,
+ * e.g. "http-nio-8080-exec-137" and "http-nio-8080-exec-2" both belong to "http-nio-8080-exec-#".
+ */
+public final class ThreadPoolStatistic implements Serializable {
+    private static final long serialVersionUID = 2935906432186627218L;
+    // state codes of ThreadStateMatrix, ABSENT excluded
+    private static final int STATES = ThreadStateMatrix.DEADLOCKED + 1;
+
+    private final Map<String, ThreadPool> pools = new LinkedHashMap<>();
+    private int fullThreadDumpCount = 0;
+
+    /*package*/ ThreadPoolStatistic() {
+    }
+
+    /**
+     * returns the pool name of the thread, i.e. the name with its trailing sequence number replaced with "#"
+     *
+     * @param threadName thread name
+     * @return pool name, the thread name itself if it doesn't end with a number
+     */
+    public static String poolNameOf(String threadName) {
+        int end = threadName.length();
+        int numberStart = end;
+        while (0 < numberStart && Character.isDigit(threadName.charAt(numberStart - 1))) {
+            numberStart--;
+        }
+        if (numberStart == end || 0 == numberStart) {
+            return threadName;
+        }
+        return threadName.substring(0, numberStart) + '#';
+    }
+
+    /*package*/ void onFullThreadDump(FullThreadDump fullThreadDump) {
+        int dump = fullThreadDumpCount++;
+        for (ThreadPool pool : pools.values()) {
+            pool.ensureCapacity(fullThreadDumpCount);
+        }
+        for (ThreadDump threadDump : fullThreadDump.getThreadDumps()) {
+            String name = poolNameOf(threadDump.getName());
+            ThreadPool pool = pools.get(name);
+            if (null == pool) {
+                pool = new ThreadPool(name);
+                pool.ensureCapacity(fullThreadDumpCount);
+                pools.put(name, pool);
+            }
+            pool.counts[dump * STATES + ThreadStateMatrix.stateOf(threadDump)]++;
+        }
+    }
+
+    /*package*/ void evict(int count) {
+        fullThreadDumpCount -= count;
+        pools.values().removeIf(pool -> pool.evict(count, fullThreadDumpCount));
+    }
+
+    /*package*/ void clear() {
+        pools.clear();
+        fullThreadDumpCount = 0;
+    }
+
+    /**
+     * @return number of full thread dumps, same as {@link ThreadStatistic#getFullThreadDumpCount()}
+     */
+    public int getFullThreadDumpCount() {
+        return fullThreadDumpCount;
+    }
+
+    /**
+     * returns thread pools, largest first
+     *
+     * @param minSize minimum peak number of threads, 2 to omit threads not in a pool
+     * @return thread pools ordered by peak number of threads, then by appearance
+     */
+    public List<ThreadPool> getThreadPools(int minSize) {
+        List<ThreadPool> threadPools = new ArrayList<>();
+        for (ThreadPool pool : pools.values()) {
+            if (minSize <= pool.getPeakSize()) {
+                threadPools.add(pool);
+            }
+        }
+        threadPools.sort((o1, o2) -> Integer.compare(o2.getPeakSize(), o1.getPeakSize()));
+        return threadPools;
+    }
+
+    /**
+     * @param name pool name
+     * @return the thread pool, null if not found
+     */
+    public ThreadPool getThreadPool(String name) {
+        return pools.get(name);
+    }
+
+    public static final class ThreadPool implements Serializable {
+        private static final long serialVersionUID = -3215540296385393093L;
+        private final String name;
+        // number of threads per full thread dump and state
+        private int[] counts = new int[0];
+
+        private ThreadPool(String name) {
+            this.name = name;
+        }
+
+        private void ensureCapacity(int fullThreadDumpCount) {
+            if (counts.length < fullThreadDumpCount * STATES) {
+                counts = Arrays.copyOf(counts, Math.max(fullThreadDumpCount, counts.length / STATES * 2) * STATES);
+            }
+        }
+
+        /**
+         * @return true if the pool has no threads in the remaining full thread dumps
+         */
+        private boolean evict(int count, int remaining) {
+            System.arraycopy(counts, count * STATES, counts, 0, remaining * STATES);
+            Arrays.fill(counts, remaining * STATES, (remaining + count) * STATES, 0);
+            for (int i = 0; i < remaining * STATES; i++) {
+                if (0 != counts[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return pool name, e.g. "http-nio-8080-exec-#"
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @param dump  index of the full thread dump
+         * @param state state code defined in {@link ThreadStateMatrix}
+         * @return number of threads in the state
+         */
+        public int getCount(int dump, byte state) {
+            int index = dump * STATES + state;
+            return index < counts.length ? counts[index] : 0;
+        }
+
+        /**
+         * @param dump index of the full thread dump
+         * @return number of threads in the pool
+         */
+        public int getSize(int dump) {
+            return getRunning(dump) + getIdle(dump) + getBlocked(dump);
+        }
+
+        /**
+         * @param dump index of the full thread dump
+         * @return number of running threads, including those blocking others
+         */
+        public int getRunning(int dump) {
+            return getCount(dump, ThreadStateMatrix.NORMAL) + getCount(dump, ThreadStateMatrix.BLOCKING);
+        }
+
+        /**
+         * @param dump index of the full thread dump
+         * @return number of idle, i.e. waiting, threads
+         */
+        public int getIdle(int dump) {
+            return getCount(dump, ThreadStateMatrix.IDLE);
+        }
+
+        /**
+         * @param dump index of the full thread dump
+         * @return number of blocked threads, including deadlocked ones
+         */
+        public int getBlocked(int dump) {
+            return getCount(dump, ThreadStateMatrix.BLOCKED) + getCount(dump, ThreadStateMatrix.DEADLOCKED);
+        }
+
+        /**
+         * @return maximum number of threads in the pool across the full thread dumps
+         */
+        public int getPeakSize() {
+            int peak = 0;
+            for (int dump = 0; dump < counts.length / STATES; dump++) {
+                peak = Math.max(peak, getSize(dump));
+            }
+            return peak;
+        }
+
+        /**
+         * @return maximum number of running or blocked threads across the full thread dumps
+         */
+        public int getPeakBusy() {
+            int peak = 0;
+            for (int dump = 0; dump < counts.length / STATES; dump++) {
+                peak = Math.max(peak, getRunning(dump) + getBlocked(dump));
+            }
+            return peak;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Thread states of every thread (row) in every full thread dump (column), one byte per cell.<br>
+ * The lower bits of a cell hold the state code, {@link #SAME_AS_BEFORE} tells that the stack is unchanged from the previous dump.
+ * Rows grow in fixed size chunks and a filled chunk holding a single value is replaced with a shared one,
+ * so long runs of the same state cost a reference per chunk.
+ */
+public final class ThreadStateMatrix implements Serializable {
+    private static final long serialVersionUID = -2407412427106155962L;
+
+    public static final byte ABSENT = 0;
+    public static final byte NORMAL = 1;
+    public static final byte IDLE = 2;
+    public static final byte BLOCKING = 3;
+    public static final byte BLOCKED = 4;
+    public static final byte DEADLOCKED = 5;
+    public static final int STATE_MASK = 0x0f;
+    public static final int SAME_AS_BEFORE = 0x10;
+
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final byte[][] RUNS = new byte[(STATE_MASK | SAME_AS_BEFORE) + 1][];
+
+    static {
+        for (int i = 0; i < RUNS.length; i++) {
+            RUNS[i] = new byte[CHUNK_SIZE];
+            Arrays.fill(RUNS[i], (byte) i);
+        }
+    }
+
+    private final List<Row> rows = new ArrayList<>();
+
+    /**
+     * returns the state code of the thread.<br>
+     * Deadlocked threads are always blocked, blocked threads take precedence over blocking ones.
+     * Threads parked on a j.u.c. lock owned by another thread are blocked as well.
+     *
+     * @param threadDump thread dump, may be null
+     * @return state code
+     */
+    public static byte stateOf(ThreadDump threadDump) {
+        if (null == threadDump) {
+            return ABSENT;
+        }
+        if (threadDump.isDeadLocked()) {
+            return DEADLOCKED;
+        }
+        if (threadDump.isBlocked() || threadDump.isParkedOnLock()) {
+            return BLOCKED;
+        }
+        if (threadDump.isBlocking()) {
+            return BLOCKING;
+        }
+        if (threadDump.isIdle()) {
+            return IDLE;
+        }
+        return NORMAL;
+    }
+
+    /*package*/ Row newRow() {
+        Row row = new Row();
+        rows.add(row);
+        return row;
+    }
+
+    /*package*/ void clear() {
+        rows.clear();
+    }
+
+    /**
+     * drops the oldest columns, and rows of threads that are not seen in the remaining ones
+     *
+     * @param columns number of columns to drop
+     */
+    /*package*/ void evict(int columns) {
+        for (Row row : rows) {
+            row.evict(columns);
+        }
+        rows.removeIf(row -> 0 == row.size());
+    }
+
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    public Row getRow(int index) {
+        return rows.get(index);
+    }
+
+    /**
+     * counts threads in the specified state
+     *
+     * @param column index of the full thread dump
+     * @param state  state code
+     * @return number of threads
+     */
+    public int count(int column, byte state) {
+        int count = 0;
+        for (Row row : rows) {
+            if ((row.get(column) & STATE_MASK) == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * States of a thread over the full thread dumps.
+     */
+    public static final class Row implements Serializable {
+        private static final long serialVersionUID = 5025327806155563016L;
+        private byte[][] chunks = new byte[1][];
+        // position of column 0 in the first chunk
+        private int offset = 0;
+        private int size = 0;
+
+        /*package*/ Row() {
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param column index of the full thread dump
+         * @return the cell, {@link #ABSENT} if out of range
+         */
+        public byte get(int column) {
+            if (column < 0 || size <= column) {
+                return ABSENT;
+            }
+            int position = column + offset;
+            return chunks[position >>> CHUNK_SHIFT][position & CHUNK_MASK];
+        }
+
+        public byte getState(int column) {
+            return (byte) (get(column) & STATE_MASK);
+        }
+
+        public boolean sameAsBefore(int column) {
+            return 0 != (get(column) & SAME_AS_BEFORE);
+        }
+
+        /*package*/ void add(int cell) {
+            int position = offset + size;
+            int chunkIndex = position >>> CHUNK_SHIFT;
+            if (chunkIndex == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            byte[] chunk = chunks[chunkIndex];
+            if (null == chunk) {
+                chunk = chunks[chunkIndex] = new byte[CHUNK_SIZE];
+            }
+            chunk[position & CHUNK_MASK] = (byte) cell;
+            size++;
+            if (0 == ((position + 1) & CHUNK_MASK)) {
+                chunks[chunkIndex] = compress(chunk);
+            }
+        }
+
+        /*package*/ void evict(int columns) {
+            columns = Math.min(columns, size);
+            size -= columns;
+            offset += columns;
+            int drop = offset >>> CHUNK_SHIFT;
+            if (0 < drop) {
+                chunks = Arrays.copyOfRange(chunks, drop, Math.max(drop + 1, chunks.length));
+                offset &= CHUNK_MASK;
+            }
+        }
+
+        private static byte[] compress(byte[] chunk) {
+            byte first = chunk[0];
+            for (byte cell : chunk) {
+                if (cell != first) {
+                    return chunk;
+                }
+            }
+            return RUNS[first];
+        }
+    }
+}
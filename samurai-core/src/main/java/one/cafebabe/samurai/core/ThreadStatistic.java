@@ -15,15 +15,41 @@
  */
 package one.cafebabe.samurai.core;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.LongSupplier;
 
 public class ThreadStatistic implements ThreadDumpRenderer, Serializable {
     private final List<FullThreadDump> fullThreadDumps = new ArrayList<>();
 
     private List<ThreadDumpSequence> threadDumpsList = new ArrayList<>();
+    // thread id -> index of the first sequence with the id in threadDumpsList
+    private Map<String, Integer> indexById = new HashMap<>();
+    private final ThreadStateMatrix stateMatrix = new ThreadStateMatrix();
+    private final ThreadPoolStatistic threadPools = new ThreadPoolStatistic();
+    // threadDumpsList sorted by CPU usage and by name, computed on first use after each change
+    private transient volatile SortOrder byCpuRate;
+    private transient volatile SortOrder byName;
+    // incremented on every change of threadDumpsList or of CPU rates, tells sort orders built before the change
+    private transient volatile int modCount = 0;
+    // received thread dumps and the retention policy change the statistic while holding its lock
+    // when each retained full thread dump was received, in milliseconds
+    private final List<Long> receivedAt = new ArrayList<>();
+    private int maxFullThreadDumps = 0;
+    private long maxAgeMillis = 0;
+    private int evictedCount = 0;
+    private transient FullThreadDumpSpill spill;
+    private transient FrameIndex frameIndex;
+    /*package*/ transient LongSupplier clock = System::currentTimeMillis;
     private static final long serialVersionUID = 871320558326468787L;
 
     public ThreadStatistic() {
@@ -36,66 +62,296 @@ public class ThreadStatistic implements ThreadDumpRenderer, Serializable {
     public synchronized void reset() {
         this.fullThreadDumps.clear();
         this.threadDumpsList.clear();
+        this.indexById.clear();
+        this.stateMatrix.clear();
+        this.threadPools.clear();
+        this.byCpuRate = null;
+        this.byName = null;
+        this.modCount++;
+        this.receivedAt.clear();
+        this.evictedCount = 0;
+        this.frameIndex = null;
+        if (null != spill) {
+            try {
+                spill.close();
+            } catch (IOException ignore) {
+            }
+            spill = null;
+        }
     }
 
-    public void onFullThreadDump(FullThreadDump fullThreadDump) {
-        this.fullThreadDumps.add(fullThreadDump);
-        List<ThreadDumpSequence> newThreadDumpsList = new ArrayList<>(threadDumpsList.size());
-        for (int i = 0; i < fullThreadDump.getThreadCount(); i++) {
-            for (ThreadDumpSequence sequence :  threadDumpsList) {
-                if (fullThreadDump.getThreadDump(i).getId().equals(sequence.getId())) {
-                    newThreadDumpsList.add(sequence);
-                    break;
+    /**
+     * limits the full thread dumps kept in memory. the latest full thread dump is always kept.<br>
+     * evicted full thread dumps are dropped, or paged out if {@link #setSpillFile(Path)} is set.
+     *
+     * @param maxFullThreadDumps number of full thread dumps to keep, 0 for no limit
+     * @param maxAgeMillis       how long to keep a full thread dump after it was received, 0 for no limit
+     */
+    public synchronized void setRetention(int maxFullThreadDumps, long maxAgeMillis) {
+        this.maxFullThreadDumps = Math.max(0, maxFullThreadDumps);
+        this.maxAgeMillis = Math.max(0, maxAgeMillis);
+        evict();
+    }
+
+    /**
+     * pages evicted full thread dumps out to the specified file instead of dropping them.<br>
+     * the file is truncated, and stays open until {@link #reset()}.<br>
+     * library API for now: the swing and web viewers don't set a spill file, and only show the evicted count.
+     *
+     * @param file spill file
+     * @throws IOException when the file can't be opened
+     */
+    public synchronized void setSpillFile(Path file) throws IOException {
+        if (null != spill) {
+            spill.close();
+        }
+        spill = new FullThreadDumpSpill(file);
+    }
+
+    /**
+     * returns the number of full thread dumps evicted by the retention policy
+     *
+     * @return number of evicted full thread dumps
+     */
+    public synchronized int getEvictedFullThreadDumpCount() {
+        return evictedCount;
+    }
+
+    /**
+     * pages an evicted full thread dump back in from the spill file
+     *
+     * @param index index among all full thread dumps received, less than {@link #getEvictedFullThreadDumpCount()}
+     * @return the full thread dump
+     * @throws IOException when no spill file is set, the full thread dump was evicted before the spill file is set, or it can't be read
+     */
+    public synchronized FullThreadDump getEvictedFullThreadDump(int index) throws IOException {
+        int spilled = null == spill ? 0 : spill.size();
+        int spillIndex = index - (evictedCount - spilled);
+        if (spillIndex < 0 || spilled <= spillIndex) {
+            throw new IOException("full thread dump " + index + " is not in the spill file");
+        }
+        return spill.read(spillIndex);
+    }
+
+    private long now() {
+        // clock is not restored by deserialization
+        return null == clock ? System.currentTimeMillis() : clock.getAsLong();
+    }
+
+    private void evict() {
+        int count = 0;
+        long now = now();
+        int retained = fullThreadDumps.size();
+        while (count < retained - 1
+                && (0 < maxFullThreadDumps && maxFullThreadDumps < retained - count
+                || 0 < maxAgeMillis && maxAgeMillis < now - receivedAt.get(count))) {
+            count++;
+        }
+        if (0 == count) {
+            return;
+        }
+        if (null != spill) {
+            try {
+                for (int i = 0; i < count; i++) {
+                    spill.append(fullThreadDumps.get(i));
                 }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
             }
         }
-        threadDumpsList = newThreadDumpsList;
+        fullThreadDumps.subList(0, count).clear();
+        receivedAt.subList(0, count).clear();
+        for (ThreadDumpSequence sequence : threadDumpsList) {
+            sequence.evict(count);
+        }
+        stateMatrix.evict(count);
+        threadPools.evict(count);
+        // CPU rates are over the retained full thread dumps only
+        modCount++;
+        evictedCount += count;
+        if (null != frameIndex) {
+            frameIndex.evict(evictedCount);
+        }
     }
 
-    public void onThreadDump(ThreadDump threadDump) {
-        boolean found = false;
-        for (ThreadDumpSequence dumps : threadDumpsList) {
-            if (dumps.getId().equals(threadDump.getId())) {
-                found = true;
-                dumps.addThreadDump(threadDump);
-                break;
+    /**
+     * returns the inverted index of stack frames of the retained full thread dumps.<br>
+     * The index is built on first access and kept up to date as full thread dumps are received or evicted.
+     *
+     * @return frame index
+     */
+    public synchronized FrameIndex getFrameIndex() {
+        if (null == frameIndex) {
+            FrameIndex frameIndex = new FrameIndex();
+            frameIndex.evict(evictedCount);
+            for (int i = 0; i < fullThreadDumps.size(); i++) {
+                frameIndex.add(evictedCount + i, fullThreadDumps.get(i));
             }
+            this.frameIndex = frameIndex;
         }
-        if (!found) {
-            threadDumpsList.add(new ThreadDumpSequence(threadDump, getFullThreadDumpCount() + 1));
+        return frameIndex;
+    }
+
+    public synchronized void onFullThreadDump(FullThreadDump fullThreadDump) {
+        this.fullThreadDumps.add(fullThreadDump);
+        this.receivedAt.add(now());
+        List<ThreadDumpSequence> newThreadDumpsList = new ArrayList<>(fullThreadDump.getThreadCount());
+        Map<String, Integer> newIndexById = new HashMap<>(fullThreadDump.getThreadCount() * 4 / 3 + 1);
+        for (int i = 0; i < fullThreadDump.getThreadCount(); i++) {
+            ThreadDumpSequence sequence = get(fullThreadDump.getThreadDump(i).getId());
+            if (null != sequence) {
+                newIndexById.putIfAbsent(sequence.getId(), newThreadDumpsList.size());
+                newThreadDumpsList.add(sequence);
+            }
+        }
+        threadDumpsList = newThreadDumpsList;
+        indexById = newIndexById;
+        for (ThreadDumpSequence sequence : threadDumpsList) {
+            sequence.updateStates();
+        }
+        modCount++;
+        threadPools.onFullThreadDump(fullThreadDump);
+        if (null != frameIndex) {
+            frameIndex.add(evictedCount + fullThreadDumps.size() - 1, fullThreadDump);
+        }
+        evict();
+    }
+
+    public synchronized void onThreadDump(ThreadDump threadDump) {
+        ThreadDumpSequence dumps = get(threadDump.getId());
+        if (null != dumps) {
+            dumps.addThreadDump(threadDump);
+        } else {
+            indexById.put(threadDump.getId(), threadDumpsList.size());
+            modCount++;
+            threadDumpsList.add(new ThreadDumpSequence(threadDump, getFullThreadDumpCount() + 1, stateMatrix.newRow()));
         }
     }
 
+    private ThreadDumpSequence get(String threadId) {
+        Integer index = indexById.get(threadId);
+        return null == index ? null : threadDumpsList.get(index);
+    }
+
+    /**
+     * returns the sequence listed before the specified thread
+     *
+     * @param threadId thread id
+     * @return the previous sequence, null if the thread is the first one, the last sequence if the thread is not found
+     */
     public ThreadDumpSequence getPreviousThreadDumps(String threadId) {
-        ThreadDumpSequence lastThreadDumps = null;
-        for (ThreadDumpSequence td : threadDumpsList) {
-            if (td.getId().equals(threadId)) {
-                break;
-            }
-            lastThreadDumps = td;
+        Integer index = indexById.get(threadId);
+        if (null == index) {
+            return threadDumpsList.isEmpty() ? null : threadDumpsList.get(threadDumpsList.size() - 1);
         }
-        return lastThreadDumps;
+        return 0 == index ? null : threadDumpsList.get(index - 1);
     }
 
+    /**
+     * returns the sequence listed after the specified thread
+     *
+     * @param threadId thread id
+     * @return the next sequence, null if the thread is the last one or not found
+     */
     public ThreadDumpSequence getNextThreadDumps(String threadId) {
-        boolean found = false;
-        ThreadDumpSequence nextThreadDumps = null;
-        for (ThreadDumpSequence td : threadDumpsList) {
-            if (found) {
-                nextThreadDumps = td;
-                break;
-            }
-            if (td.getId().equals(threadId)) {
-                found = true;
-            }
+        Integer index = indexById.get(threadId);
+        if (null == index || index + 1 == threadDumpsList.size()) {
+            return null;
         }
-        return nextThreadDumps;
+        return threadDumpsList.get(index + 1);
+    }
+
+    /**
+     * returns number of threads per thread pool and state in each retained full thread dump
+     *
+     * @return thread pool statistic
+     */
+    public ThreadPoolStatistic getThreadPools() {
+        return threadPools;
+    }
+
+    /**
+     * returns states of all threads seen so far, including ones no longer alive
+     *
+     * @return state matrix
+     */
+    public ThreadStateMatrix getStateMatrix() {
+        return stateMatrix;
     }
 
     public ThreadDumpSequence[] getStackTracesAsArray() {
         return threadDumpsList.toArray(new ThreadDumpSequence[0]);
     }
 
+    /**
+     * returns live threads ordered by CPU usage over the capture window, busiest first.<br>
+     * threads without CPU time (dumps prior to HotSpot 11, or seen only once) follow in the order of {@link #getStackTracesAsArray()}.
+     *
+     * @return sequences ordered by CPU usage
+     */
+    public ThreadDumpSequence[] getStackTracesByCpuRate() {
+        SortOrder order = byCpuRate;
+        if (null == order || order.modCount != modCount) {
+            order = byCpuRate = sortOrder(Comparator.comparingDouble((ThreadDumpSequence sequence) -> sequence.getCpuRate()).reversed());
+        }
+        return order.toArray();
+    }
+
+    /**
+     * returns live threads ordered by name, case insensitive. threads of the same name follow the order of {@link #getStackTracesAsArray()}.
+     *
+     * @return sequences ordered by name
+     */
+    public ThreadDumpSequence[] getStackTracesByName() {
+        SortOrder order = byName;
+        if (null == order || order.modCount != modCount) {
+            order = byName = sortOrder(Comparator.comparing(ThreadDumpSequence::getName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)));
+        }
+        return order.toArray();
+    }
+
+    /**
+     * builds the caches filled on first use: sort orders of threads, stacks of sequences, identical stacks and thread positions of full thread dumps.<br>
+     * Caches are published whole and safe to fill concurrently; filling them up front spares concurrent readers, such as parallel rendering, building each of them at once.
+     */
+    public void fillCaches() {
+        getStackTracesByCpuRate();
+        getStackTracesByName();
+        for (ThreadDumpSequence sequence : threadDumpsList) {
+            sequence.asArray();
+        }
+        for (FullThreadDump fullThreadDump : fullThreadDumps) {
+            fullThreadDump.getIdenticalStacks();
+            fullThreadDump.indexOf("");
+        }
+    }
+
+    private SortOrder sortOrder(Comparator<ThreadDumpSequence> comparator) {
+        // read before the list, so that an order built while the list changes is rebuilt on the next call
+        int modCount = this.modCount;
+        ThreadDumpSequence[] sorted = getStackTracesAsArray();
+        // stable, keeps the order of appearance among equal keys
+        Arrays.sort(sorted, comparator);
+        return new SortOrder(modCount, sorted);
+    }
+
+    /**
+     * threads in sorted order, along with the modification count of the statistic they were sorted at
+     */
+    private static final class SortOrder {
+        private final int modCount;
+        private final ThreadDumpSequence[] sorted;
+
+        SortOrder(int modCount, ThreadDumpSequence[] sorted) {
+            this.modCount = modCount;
+            this.sorted = sorted;
+        }
+
+        ThreadDumpSequence[] toArray() {
+            return sorted.clone();
+        }
+    }
+
     public int getFullThreadDumpCount() {
         return this.fullThreadDumps.size();
     }
@@ -108,11 +364,18 @@ public class ThreadStatistic implements ThreadDumpRenderer, Serializable {
         return fullThreadDumps;
     }
 
+    /**
+     * @param threadId thread id
+     * @return true if a thread with the id is found
+     */
+    public boolean containsThread(String threadId) {
+        return indexById.containsKey(threadId);
+    }
+
     public ThreadDumpSequence getStackTracesById(String id) {
-        for (ThreadDumpSequence sequence :  threadDumpsList) {
-            if (sequence.getId().equals(id)) {
-                return sequence;
-            }
+        ThreadDumpSequence sequence = get(id);
+        if (null != sequence) {
+            return sequence;
         }
         throw new AssertionError("no thread dump with id:" + id + " found");
     }
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wait-for graph of a full thread dump.<br>
+ * A thread waits for the thread holding the monitor it is trying to lock, or owning the j.u.c. synchronizer it is parked on.
+ * Cycles (deadlocks) are found with Tarjan's strongly connected components algorithm.
+ */
+public final class WaitForGraph implements Serializable {
+    private static final long serialVersionUID = 2875320957839064171L;
+    private static final int NONE = -1;
+
+    private final List<ThreadDump> threadDumps;
+    // index of the thread each thread is waiting for
+    private final int[] waitsFor;
+    private final int[] fanIn;
+    // number of distinct threads on the wait chain starting at each thread
+    private final int[] chainLength;
+    private final List<List<ThreadDump>> cycles = new ArrayList<>();
+    private int longestChainStart = NONE;
+    private int mostWaitedFor = NONE;
+
+    /**
+     * builds the graph, resolving blockers of the threads
+     *
+     * @param threadDumps threads in a full thread dump
+     */
+    /*package*/ WaitForGraph(List<ThreadDump> threadDumps) {
+        this.threadDumps = threadDumps;
+        int size = threadDumps.size();
+        Map<String, Integer> indexById = new HashMap<>(size * 2);
+        Map<String, ThreadDump> monitorOwners = new HashMap<>();
+        Map<String, ThreadDump> synchronizerOwners = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            ThreadDump threadDump = threadDumps.get(i);
+            indexById.putIfAbsent(threadDump.getId(), i);
+            List<StackLine> locked = threadDump.getLockedLines();
+            if (null != locked) {
+                for (StackLine line : locked) {
+                    monitorOwners.put(line.getLockedObjectId(), threadDump);
+                }
+            }
+            List<String> synchronizers = threadDump.getOwnableSynchronizerIds();
+            if (null != synchronizers) {
+                for (String synchronizer : synchronizers) {
+                    synchronizerOwners.put(synchronizer, threadDump);
+                }
+            }
+        }
+
+        waitsFor = new int[size];
+        fanIn = new int[size];
+        Arrays.fill(waitsFor, NONE);
+        for (int i = 0; i < size; i++) {
+            ThreadDump threadDump = threadDumps.get(i);
+            ThreadDump owner = null;
+            if (threadDump.isBlocked()) {
+                if (null != threadDump.getBlockedObjectId()) {
+                    owner = monitorOwners.get(threadDump.getBlockedObjectId());
+                }
+            } else if (null != threadDump.getParkedObjectId()) {
+                owner = synchronizerOwners.get(threadDump.getParkedObjectId());
+            }
+            if (null != owner) {
+                threadDump.setBlockerId(owner.getId());
+                int blocker = indexById.get(owner.getId());
+                threadDumps.get(blocker).setBlocking(true);
+                waitsFor[i] = blocker;
+                fanIn[blocker]++;
+                if (NONE == mostWaitedFor || fanIn[mostWaitedFor] < fanIn[blocker]) {
+                    mostWaitedFor = blocker;
+                }
+            }
+        }
+
+        boolean[] inCycle = findCycles();
+        chainLength = new int[size];
+        int[] cycleEntry = new int[size];
+        measureChains(inCycle, cycleEntry);
+        collectCycles(inCycle, cycleEntry);
+    }
+
+    /**
+     * Tarjan's strongly connected components algorithm, iterative as chains of waiting threads can be long.
+     *
+     * @return true for threads in a cycle
+     */
+    private boolean[] findCycles() {
+        int size = waitsFor.length;
+        int[] index = new int[size];
+        int[] lowLink = new int[size];
+        boolean[] onStack = new boolean[size];
+        boolean[] explored = new boolean[size];
+        boolean[] inCycle = new boolean[size];
+        int[] stack = new int[size];
+        int[] callStack = new int[size];
+        Arrays.fill(index, NONE);
+        int nextIndex = 0;
+        int sp = 0;
+        for (int root = 0; root < size; root++) {
+            if (NONE != index[root]) {
+                continue;
+            }
+            int csp = 0;
+            callStack[csp++] = root;
+            index[root] = lowLink[root] = nextIndex++;
+            stack[sp++] = root;
+            onStack[root] = true;
+            while (0 < csp) {
+                int v = callStack[csp - 1];
+                if (!explored[v]) {
+                    explored[v] = true;
+                    int w = waitsFor[v];
+                    if (NONE != w) {
+                        if (NONE == index[w]) {
+                            index[w] = lowLink[w] = nextIndex++;
+                            stack[sp++] = w;
+                            onStack[w] = true;
+                            callStack[csp++] = w;
+                            continue;
+                        } else if (onStack[w]) {
+                            lowLink[v] = Math.min(lowLink[v], index[w]);
+                        }
+                    }
+                }
+                csp--;
+                if (lowLink[v] == index[v]) {
+                    int componentStart = sp;
+                    do {
+                        componentStart--;
+                        onStack[stack[componentStart]] = false;
+                    } while (stack[componentStart] != v);
+                    boolean cyclic = 1 < sp - componentStart || waitsFor[v] == v;
+                    for (int i = componentStart; i < sp; i++) {
+                        inCycle[stack[i]] = cyclic;
+                    }
+                    sp = componentStart;
+                }
+                if (0 < csp) {
+                    int parent = callStack[csp - 1];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+                }
+            }
+        }
+        return inCycle;
+    }
+
+    private void measureChains(boolean[] inCycle, int[] cycleEntry) {
+        int size = waitsFor.length;
+        for (int i = 0; i < size; i++) {
+            if (inCycle[i] && 0 == chainLength[i]) {
+                int length = 1;
+                for (int j = waitsFor[i]; j != i; j = waitsFor[j]) {
+                    length++;
+                }
+                for (int j = i, k = 0; k < length; j = waitsFor[j], k++) {
+                    chainLength[j] = length;
+                    cycleEntry[j] = j;
+                }
+            }
+        }
+        int[] path = new int[size];
+        for (int i = 0; i < size; i++) {
+            // follow the chain up to a thread already measured, then unwind
+            int depth = 0;
+            int j = i;
+            while (0 == chainLength[j] && NONE != waitsFor[j]) {
+                path[depth++] = j;
+                j = waitsFor[j];
+            }
+            if (0 == chainLength[j]) {
+                chainLength[j] = 1;
+                cycleEntry[j] = NONE;
+            }
+            while (0 < depth) {
+                int k = path[--depth];
+                chainLength[k] = chainLength[waitsFor[k]] + 1;
+                cycleEntry[k] = cycleEntry[waitsFor[k]];
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (NONE != waitsFor[i] && (NONE == longestChainStart || chainLength[longestChainStart] < chainLength[i])) {
+                longestChainStart = i;
+            }
+        }
+    }
+
+    /**
+     * lists cycles in the order of the threads leading to them, each starting from the thread the cycle is entered at
+     */
+    private void collectCycles(boolean[] inCycle, int[] cycleEntry) {
+        boolean[] reported = new boolean[waitsFor.length];
+        for (int i = 0; i < waitsFor.length; i++) {
+            int entry = cycleEntry[i];
+            if (NONE != waitsFor[i] && NONE != entry && inCycle[entry] && !reported[entry]) {
+                List<ThreadDump> cycle = new ArrayList<>();
+                int j = entry;
+                do {
+                    reported[j] = true;
+                    cycle.add(threadDumps.get(j));
+                    j = waitsFor[j];
+                } while (j != entry);
+                cycles.add(Collections.unmodifiableList(cycle));
+            }
+        }
+    }
+
+    /**
+     * @return deadlocked threads, one list per cycle
+     */
+    public List<List<ThreadDump>> getCycles() {
+        return Collections.unmodifiableList(cycles);
+    }
+
+    /**
+     * returns the thread the specified thread is waiting for
+     *
+     * @param index index of the thread in the full thread dump
+     * @return the thread, null if not waiting for any thread
+     */
+    public ThreadDump getWaitingFor(int index) {
+        return NONE == waitsFor[index] ? null : threadDumps.get(waitsFor[index]);
+    }
+
+    /**
+     * returns the number of threads directly waiting for the specified thread
+     *
+     * @param index index of the thread in the full thread dump
+     * @return fan-in
+     */
+    public int getFanIn(int index) {
+        return fanIn[index];
+    }
+
+    /**
+     * @return the largest fan-in, 0 if no thread is waiting for another
+     */
+    public int getMaxFanIn() {
+        return NONE == mostWaitedFor ? 0 : fanIn[mostWaitedFor];
+    }
+
+    /**
+     * @return the thread most threads are waiting for, null if no thread is waiting for another
+     */
+    public ThreadDump getMostWaitedFor() {
+        return NONE == mostWaitedFor ? null : threadDumps.get(mostWaitedFor);
+    }
+
+    /**
+     * returns the number of threads on the wait chain starting at the specified thread, including itself
+     *
+     * @param index index of the thread in the full thread dump
+     * @return chain length
+     */
+    public int getChainLength(int index) {
+        return chainLength[index];
+    }
+
+    /**
+     * @return the number of threads on the longest wait chain, 0 if no thread is waiting for another
+     */
+    public int getLongestChainLength() {
+        return NONE == longestChainStart ? 0 : chainLength[longestChainStart];
+    }
+
+    /**
+     * @return threads on the longest wait chain from the waiting thread to the thread at the end, empty if no thread is waiting for another
+     */
+    public List<ThreadDump> getLongestChain() {
+        List<ThreadDump> chain = new ArrayList<>();
+        if (NONE != longestChainStart) {
+            for (int i = longestChainStart, k = 0; k < chainLength[longestChainStart]; i = waitsFor[i], k++) {
+                chain.add(threadDumps.get(i));
+            }
+        }
+        return chain;
+    }
+}
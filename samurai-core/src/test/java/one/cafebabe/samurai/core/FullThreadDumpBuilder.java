@@ -0,0 +1,99 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds HotSpot style full thread dumps for tests.
+ */
+/*package*/ final class FullThreadDumpBuilder {
+    /*package*/ static final String SLEEP = "java.lang.Thread.sleep(Native Method)";
+    private final StringBuilder dump = new StringBuilder("Full thread dump Java HotSpot(TM) 64-Bit Server VM:\n\n");
+
+    /**
+     * @param names - thread names, each sleeping with tid "0x" + name
+     * @return HotSpot style full thread dump
+     */
+    /*package*/
+    static String sleeping(String... names) {
+        FullThreadDumpBuilder builder = new FullThreadDumpBuilder();
+        for (String name : names) {
+            builder.thread(name, "0x" + name, "waiting on condition", SLEEP);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param elapsed - seconds since the JVM started
+     * @param threads - pairs of thread name and CPU time in milliseconds, each running with tid "0x" + name
+     * @return HotSpot 11+ style full thread dump
+     */
+    /*package*/
+    static String withCpu(double elapsed, Object... threads) {
+        FullThreadDumpBuilder builder = new FullThreadDumpBuilder();
+        for (int i = 0; i < threads.length; i += 2) {
+            builder.append(String.valueOf(threads[i]), "prio=5 os_prio=0 cpu=" + threads[i + 1] + "ms elapsed=" + elapsed + "s tid=0x" + threads[i],
+                    "runnable", SLEEP);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * adds a thread
+     *
+     * @param name   - thread name
+     * @param tid    - thread id
+     * @param state  - state at the end of the thread line, e.g. "runnable"
+     * @param frames - stack frames, top first
+     * @return this builder
+     */
+    /*package*/ FullThreadDumpBuilder thread(String name, String tid, String state, String... frames) {
+        return append(name, "prio=5 tid=" + tid, state, frames);
+    }
+
+    private FullThreadDumpBuilder append(String name, String parameters, String state, String... frames) {
+        dump.append('"').append(name).append("\" ").append(parameters).append(" nid=0x1 ").append(state).append('\n');
+        for (String frame : frames) {
+            dump.append("\tat ").append(frame).append('\n');
+        }
+        dump.append('\n');
+        return this;
+    }
+
+    /**
+     * adds a runnable thread started by java.lang.Thread.run()
+     *
+     * @param name     - thread name
+     * @param tid      - thread id
+     * @param topFrame - the frame being executed
+     * @return this builder
+     */
+    /*package*/ FullThreadDumpBuilder running(String name, String tid, String topFrame) {
+        return thread(name, tid, "runnable", topFrame, "java.lang.Thread.run(Thread.java:833)");
+    }
+
+    /*package*/ InputStream toInputStream() {
+        return new ByteArrayInputStream(toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String toString() {
+        return dump.toString();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TestClusterStatistic {
+
+    @Test
+    void cluster() throws IOException {
+        Map<String, InputStream> streams = new LinkedHashMap<>();
+        for (int i = 1; i <= 4; i++) {
+            streams.put("node" + i, new FullThreadDumpBuilder()
+                    .running("exec-1", "0x00", FullThreadDumpBuilder.SLEEP)
+                    .running("exec-2", "0x02", FullThreadDumpBuilder.SLEEP)
+                    .running("reader", "0x04", "java.net.SocketInputStream.socketRead0(Native Method)")
+                    .toInputStream());
+        }
+        // every worker busy inflating
+        streams.put("node5", new FullThreadDumpBuilder()
+                .running("exec-1", "0x00", "java.util.zip.Inflater.inflate(Native Method)")
+                .running("exec-2", "0x02", "java.util.zip.Inflater.inflate(Native Method)")
+                .running("reader", "0x04", "java.net.SocketInputStream.socketRead0(Native Method)")
+                .toInputStream());
+        ClusterStatistic cluster = new ClusterStatistic();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            cluster.analyzeStreams(streams, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(List.of("node1", "node2", "node3", "node4", "node5"), cluster.getNodeIds());
+        for (String nodeId : cluster.getNodeIds()) {
+            ThreadStatistic node = cluster.getNode(nodeId);
+            assertEquals(1, node.getFullThreadDumpCount());
+            assertEquals(nodeId, node.getFullThreadDump(0).getNodeId());
+        }
+
+        int[] histogram = cluster.getStateHistogram("node1");
+        assertEquals(2, histogram[ThreadStateMatrix.IDLE]);
+        assertEquals(1, histogram[ThreadStateMatrix.NORMAL]);
+        histogram = cluster.getStateHistogram("node5");
+        assertEquals(0, histogram[ThreadStateMatrix.IDLE]);
+        assertEquals(3, histogram[ThreadStateMatrix.NORMAL]);
+
+        List<ClusterStatistic.FrameCount> frameCounts = cluster.getFrameCounts();
+        assertEquals("java.lang.Thread.run", frameCounts.get(0).getFrame());
+        assertEquals(15, frameCounts.get(0).getTotal());
+        assertEquals(5, frameCounts.get(0).getNodeCount());
+        ClusterStatistic.FrameCount inflate = null;
+        for (ClusterStatistic.FrameCount frameCount : frameCounts) {
+            if (frameCount.getFrame().equals("java.util.zip.Inflater.inflate")) {
+                inflate = frameCount;
+            }
+        }
+        assertNotNull(inflate);
+        assertEquals(1, inflate.getNodeCount());
+        assertEquals(2, inflate.getCount(4));
+        assertEquals(0, inflate.getCount(0));
+
+        List<String> ranking = new ArrayList<>(cluster.getOutlierScores().keySet());
+        assertEquals("node5", ranking.get(0));
+        // states 2/3 apart, frames 1/3 apart
+        assertEquals(0.5, cluster.getOutlierScores().get("node5").doubleValue(), 1e-9);
+        assertEquals(0, cluster.getOutlierScores().get("node1").doubleValue(), 1e-9);
+    }
+
+    @Test
+    void streamsClosedWhenNotRead() {
+        AtomicInteger closed = new AtomicInteger();
+        Map<String, InputStream> streams = new LinkedHashMap<>();
+        for (int i = 1; i <= 3; i++) {
+            streams.put("node" + i, new FilterInputStream(new FullThreadDumpBuilder().running("main", "0x01", FullThreadDumpBuilder.SLEEP).toInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    closed.incrementAndGet();
+                    super.close();
+                }
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        // every submission is rejected
+        pool.shutdown();
+        assertThrows(RejectedExecutionException.class, () -> new ClusterStatistic().analyzeStreams(streams, pool));
+        assertTrue(3 <= closed.get());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TestFrameTrie {
+    private static final String DUMP = new FullThreadDumpBuilder()
+            .thread("worker-1", "0x1", "runnable",
+                    "example.Worker.compute(Worker.java:10)", "example.Worker.run(Worker.java:5)", "java.lang.Thread.run(Thread.java:834)")
+            .thread("worker-2", "0x2", "waiting on condition",
+                    FullThreadDumpBuilder.SLEEP, "example.Worker.run(Worker.java:7)", "java.lang.Thread.run(Thread.java:834)")
+            .thread("main", "0x3", "runnable", "example.Main.main(Main.java:3)")
+            .thread("VM Thread", "0x4", "runnable")
+            .toString();
+
+    @Test
+    void collapsedStacks() throws IOException {
+        FrameTrie trie = new FrameTrie();
+        new ThreadDumpExtractor(trie).analyze(DUMP + DUMP);
+        assertEquals(2, trie.getFullThreadDumpCount());
+        // "VM Thread" has no frames
+        assertEquals(6, trie.getRoot().getTotal());
+        StringWriter collapsed = new StringWriter();
+        trie.writeCollapsed(collapsed);
+        assertEquals("example.Main.main 2\n"
+                + "java.lang.Thread.run;example.Worker.run;example.Worker.compute 2\n"
+                + "java.lang.Thread.run;example.Worker.run;java.lang.Thread.sleep 2\n", collapsed.toString());
+        FrameTrie.Node run = trie.getRoot().getChildren().get(1);
+        assertEquals("java.lang.Thread.run", run.getName());
+        assertEquals(4, run.getTotal());
+        assertEquals(0, run.getSelf());
+    }
+
+    @Test
+    void filter() throws IOException {
+        FrameTrie idle = new FrameTrie(FrameTrie.stateIs(ThreadStateMatrix.IDLE));
+        new ThreadDumpExtractor(idle).analyze(DUMP);
+        StringWriter collapsed = new StringWriter();
+        idle.writeCollapsed(collapsed);
+        assertEquals("java.lang.Thread.run;example.Worker.run;java.lang.Thread.sleep 1\n", collapsed.toString());
+
+        FrameTrie workers = new FrameTrie(FrameTrie.nameMatches("worker-\\d+"));
+        new ThreadDumpExtractor(workers).analyze(DUMP);
+        assertEquals(2, workers.getRoot().getTotal());
+        assertEquals(1, workers.getRoot().getChildren().size());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import static one.cafebabe.samurai.core.FullThreadDumpBuilder.SLEEP;
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TestFullThreadDumpDiff {
+
+    @Test
+    void diff() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(
+                new FullThreadDumpBuilder()
+                        .running("main", "0x01", SLEEP)
+                        .running("worker", "0x02", SLEEP)
+                        .running("worker", "0x03", SLEEP)
+                        .running("reader", "0x04", "java.net.SocketInputStream.socketRead0(Native Method)")
+                        .running("gone", "0x05", SLEEP).toString()
+                        + new FullThreadDumpBuilder()
+                        // id reused by another thread
+                        .running("fresh", "0x05", SLEEP)
+                        .running("main", "0x01", SLEEP)
+                        // matched by name, in order of appearance
+                        .running("worker", "0x12", SLEEP)
+                        .running("worker", "0x13", "java.util.zip.Inflater.inflate(Native Method)")
+                        .running("reader", "0x04", "java.net.SocketInputStream.socketAvailable(Native Method)").toString());
+        FullThreadDumpDiff diff = new FullThreadDumpDiff(statistic.getFullThreadDump(0), statistic.getFullThreadDump(1));
+
+        assertEquals(1, diff.getNewThreads().size());
+        assertEquals("fresh", diff.getNewThreads().get(0).getName());
+        assertEquals(1, diff.getVanishedThreads().size());
+        assertEquals("gone", diff.getVanishedThreads().get(0).getName());
+
+        assertEquals(1, diff.getStateChanges().size());
+        FullThreadDumpDiff.Change stateChange = diff.getStateChanges().get(0);
+        assertEquals("0x03", stateChange.getBefore().getId());
+        assertEquals("0x13", stateChange.getAfter().getId());
+        assertEquals(ThreadStateMatrix.IDLE, stateChange.getBeforeState());
+        assertEquals(ThreadStateMatrix.NORMAL, stateChange.getAfterState());
+        assertTrue(stateChange.isStackChanged());
+
+        assertEquals(1, diff.getStackChanges().size());
+        FullThreadDumpDiff.Change stackChange = diff.getStackChanges().get(0);
+        assertEquals("reader", stackChange.getAfter().getName());
+        assertFalse(stackChange.isStateChanged());
+        assertTrue(stackChange.isStackChanged());
+
+        assertEquals(2, diff.getUnchanged().size());
+        assertEquals("0x01", diff.getUnchanged().get(0).getAfter().getId());
+        assertEquals("0x02", diff.getUnchanged().get(1).getBefore().getId());
+        assertEquals("0x12", diff.getUnchanged().get(1).getAfter().getId());
+        assertFalse(diff.getUnchanged().get(1).isStackChanged());
+    }
+
+    @Test
+    void sameFullThreadDump() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(new FullThreadDumpBuilder()
+                .running("a", "0x01", SLEEP)
+                .running("b", "0x02", "java.lang.Object.wait(Native Method)").toString());
+        FullThreadDump fullThreadDump = statistic.getFullThreadDump(0);
+        FullThreadDumpDiff diff = new FullThreadDumpDiff(fullThreadDump, fullThreadDump);
+        assertTrue(diff.getNewThreads().isEmpty());
+        assertTrue(diff.getVanishedThreads().isEmpty());
+        assertTrue(diff.getStateChanges().isEmpty());
+        assertTrue(diff.getStackChanges().isEmpty());
+        assertEquals(2, diff.getUnchanged().size());
+    }
+}
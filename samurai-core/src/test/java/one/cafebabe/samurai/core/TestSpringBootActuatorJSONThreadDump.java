@@ -1,12 +1,17 @@
 package one.cafebabe.samurai.core;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.parallel.Execution;
 import org.junit.jupiter.api.parallel.ExecutionMode;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -113,4 +118,68 @@ class TestSpringBootActuatorJSONThreadDump {
                         "        \"identityHashCode\": 325888395\n" +
                         "      }")));
     }
-}
\ No newline at end of file
+
+    @Test
+    void lockedMonitorsFollowTheirFrames() throws IOException, JSONException {
+        String json;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(TestSpringBootActuatorJSONThreadDump.class
+                .getResourceAsStream("/SpringBoot/spring-boot-2.5.4-java8.dmp"), StandardCharsets.UTF_8))) {
+            json = reader.lines().filter(line -> line.startsWith("{\"threads\":")).findFirst().orElseThrow();
+        }
+        JSONArray threads = new JSONObject(json).getJSONArray("threads");
+        List<ThreadDump> streamed = new ArrayList<>();
+        SpringBootActuatorJSONReader reader = new SpringBootActuatorJSONReader(streamed::add);
+        reader.feed(json);
+        assertTrue(reader.isComplete());
+        assertEquals(threads.length(), streamed.size());
+        int monitorCtrlBreak = 0;
+        while (!"Monitor Ctrl-Break".equals(streamed.get(monitorCtrlBreak).getName())) {
+            monitorCtrlBreak++;
+        }
+        // the same monitor locked in two frames, at depth 9 and 12
+        for (ThreadDump threadDump : List.of(streamed.get(monitorCtrlBreak),
+                new SpringBootActuatorJSONThreadDump(threads.getJSONObject(monitorCtrlBreak)))) {
+            List<StackLine> stackLines = threadDump.getStackLines();
+            assertEquals(17, stackLines.size());
+            assertEquals("at sun.nio.ch.SocketDispatcher.read0(java.base@17-panama/Native Method)", stackLines.get(0).line);
+            assertEquals("at sun.nio.cs.StreamDecoder.read(java.base@17-panama/StreamDecoder.java:188)", stackLines.get(9).line);
+            assertEquals("- locked <1207767663> (a java.io.InputStreamReader)", stackLines.get(10).line);
+            assertEquals("at java.io.InputStreamReader.read(java.base@17-panama/InputStreamReader.java:177)", stackLines.get(11).line);
+            assertEquals("at java.io.BufferedReader.readLine(java.base@17-panama/BufferedReader.java:329)", stackLines.get(13).line);
+            assertEquals("- locked <1207767663> (a java.io.InputStreamReader)", stackLines.get(14).line);
+            assertEquals("at com.intellij.rt.execution.application.AppMainV2$1.run(AppMainV2.java:49)", stackLines.get(16).line);
+            assertTrue(threadDump.isBlocking());
+        }
+    }
+
+    @Test
+    void prettyPrinted() throws IOException {
+        ThreadStatistic compact = new ThreadStatistic();
+        new ThreadDumpExtractor(compact).analyze(TestSpringBootActuatorJSONThreadDump.class.getResourceAsStream("/SpringBoot/spring-boot-2.5.4-java8.dmp"));
+        ThreadStatistic pretty = new ThreadStatistic();
+        new ThreadDumpExtractor(pretty).analyze(TestSpringBootActuatorJSONThreadDump.class.getResourceAsStream("/SpringBoot/spring-boot-2.5.4-java8-pretty.dmp"));
+        assertEquals(1, pretty.getFullThreadDumps().size());
+        List<ThreadDump> expected = compact.getFullThreadDumps().get(0).getThreadDumps();
+        List<ThreadDump> actual = pretty.getFullThreadDumps().get(0).getThreadDumps();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameThreadDump(expected.get(i), actual.get(i));
+        }
+        assertTrue(pretty.getFullThreadDumps().get(0).isDeadLocked());
+    }
+
+    private static void assertSameThreadDump(ThreadDump expected, ThreadDump actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getCondition(), actual.getCondition());
+        assertEquals(expected.isBlocked(), actual.isBlocked());
+        assertEquals(expected.isBlocking(), actual.isBlocking());
+        assertEquals(expected.isIdle(), actual.isIdle());
+        assertEquals(expected.isDaemon(), actual.isDaemon());
+        assertEquals(expected.getParkedObjectId(), actual.getParkedObjectId());
+        assertEquals(expected.getStackLines().size(), actual.getStackLines().size());
+        for (int i = 0; i < expected.getStackLines().size(); i++) {
+            assertEquals(expected.getStackLines().get(i).line, actual.getStackLines().get(i).line);
+        }
+    }
+}
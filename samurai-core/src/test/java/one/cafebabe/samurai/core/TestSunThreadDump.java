@@ -21,6 +21,7 @@ import org.junit.jupiter.api.parallel.Execution;
 import org.junit.jupiter.api.parallel.ExecutionMode;
 
 import java.io.IOException;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -123,6 +124,35 @@ class TestSunThreadDump {
         assertEquals("<0x67c76938> (a com.octetstring.vde.backend.standard.TransactionProcessor)", line.getTarget());
     }
 
+    @Test
+    void testSunStackLineLockAndSource() {
+        SunStackLine line = new SunStackLine("\tat java.util.concurrent.ThreadPoolExecutor$Worker.run(java.base@17/ThreadPoolExecutor.java:635)");
+        assertTrue(line.isLine());
+        assertFalse(line.isNativeMethod());
+        assertEquals("java.util.concurrent.ThreadPoolExecutor$Worker", line.getClassName());
+        assertEquals("run", line.getMethodName());
+        assertEquals("java.base@17/ThreadPoolExecutor.java", line.getSource());
+        assertEquals("635", line.getLineNumber());
+
+        line = new SunStackLine("\tat sun.misc.Unsafe.park(Unknown Source)");
+        assertEquals("Unknown Source", line.getSource());
+
+        line = new SunStackLine("\t- waiting to lock <0x00000000eb5f3d30> (a java.lang.Object)");
+        assertTrue(line.isTryingToGetLock());
+        assertFalse(line.isHoldingLock());
+        assertEquals("0x00000000eb5f3d30", line.getLockedObjectId());
+        assertEquals("java.lang.Object", line.getLockedClassName());
+        assertEquals("\t- waiting to lock <", line.beforeObjectId());
+        assertEquals("> (a java.lang.Object)", line.afterObjectId());
+
+        line = new SunStackLine("\t- locked <0x00000000eb5f3d40> (a java.util.HashMap)");
+        assertFalse(line.isTryingToGetLock());
+        assertTrue(line.isHoldingLock());
+        assertEquals("0x00000000eb5f3d40", line.getLockedObjectId());
+        assertEquals("java.util.HashMap", line.getLockedClassName());
+        assertEquals("n/a", line.getClassName());
+    }
+
     private SunThreadDump threadDump = null;
 
     @Test
@@ -168,6 +198,44 @@ class TestSunThreadDump {
         assertEquals(1, threadDump.getLockedLines().size(), "line");
     }
 
+    @Test
+    void testOpenJDK17Header() throws IOException {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(TestSunThreadDump.class.getResourceAsStream("/OpenJDK/17/samurai.core.IdleExample-30091-2021-09-15-17-37-26.dmp"));
+        ThreadDump dump = statistic.getFullThreadDump(0).getThreadDump(0);
+        //"main" #1 prio=5 os_prio=31 cpu=115.46ms elapsed=7.05s tid=0x00007fb62700a600 nid=0x1803 waiting on condition  [0x000070000b01e000]
+        assertEquals("main", dump.getName());
+        assertEquals(1, dump.getNumber());
+        assertEquals(5, dump.getPriority());
+        assertEquals(31, dump.getOsPriority());
+        assertEquals(115.46, dump.getCpuMillis(), 0.0001);
+        assertEquals(7.05, dump.getElapsedSeconds(), 0.0001);
+        assertEquals("0x00007fb62700a600", dump.getId());
+        assertEquals("[0x000070000b01e000]", dump.getStackRange());
+        assertFalse(dump.isDaemon());
+
+        // JDK 19+ print the native thread id right after the number
+        threadDump = new SunThreadDump("\"Reference Handler\" #9 [25349] daemon prio=10 os_prio=0 cpu=0.44ms elapsed=174.97s tid=0x00007f1c8c1b6000 nid=25349 waiting on condition  [0x00007f1c6c4fe000]");
+        assertEquals(9, threadDump.getNumber());
+        assertTrue(threadDump.isDaemon());
+        assertEquals(10, threadDump.getPriority());
+        assertEquals(0, threadDump.getOsPriority());
+        assertEquals(0.44, threadDump.getCpuMillis(), 0.0001);
+        assertEquals(174.97, threadDump.getElapsedSeconds(), 0.0001);
+        assertEquals("25349", threadDump.getNid());
+        assertEquals("[0x00007f1c6c4fe000]", threadDump.getStackRange());
+        assertFalse(threadDump.isBlocked());
+
+        // not available before JDK 11
+        threadDump = new SunThreadDump("\"Thread-1\" prio=5 tid=0x0028ea18 nid=0x604 waiting for monitor entry [182ef000..182efd88]");
+        assertEquals(-1, threadDump.getNumber());
+        assertEquals(-1, threadDump.getOsPriority());
+        assertEquals(-1, threadDump.getCpuMillis());
+        assertEquals(-1, threadDump.getElapsedSeconds());
+        assertTrue(threadDump.isBlocked());
+        assertEquals("", threadDump.getHeaderParameter("lwp_id"));
+    }
+
     @Test
     void testNonDaemonThread() {
         threadDump = new SunThreadDump("\"Reference Handler daemon\" prio=10 tid=0x000915d0 nid=0x51c60 in Object.wait() ");
@@ -178,4 +246,31 @@ class TestSunThreadDump {
 //                threadDump.getState());
     }
 
+    @Test
+    void identicalStacks() throws IOException {
+        ThreadStatistic statistic = new ThreadStatistic();
+        ThreadDumpExtractor dumpExtractor = new ThreadDumpExtractor(statistic);
+        dumpExtractor.analyze(TestSunThreadDump.class.getResourceAsStream("/OpenJDK/17/samurai.core.BlockerExample-28082-2021-09-15-17-02-03.dmp"));
+        FullThreadDump fullThreadDump = statistic.getFullThreadDump(0);
+        List<List<ThreadDump>> groups = fullThreadDump.getIdenticalStacks();
+        assertFalse(groups.isEmpty());
+        int previousSize = Integer.MAX_VALUE;
+        for (List<ThreadDump> group : groups) {
+            assertTrue(1 < group.size());
+            assertTrue(group.size() <= previousSize);
+            previousSize = group.size();
+            ThreadDump first = group.get(0);
+            for (ThreadDump threadDump : group) {
+                assertEquals(first, threadDump);
+                assertEquals(first.hashCode(), threadDump.hashCode());
+                assertEquals(first.getStackLines(), threadDump.getStackLines());
+                assertEquals(group.size(), fullThreadDump.getIdenticalStack(threadDump).size());
+            }
+        }
+        for (ThreadDump threadDump : fullThreadDump.getThreadDumps()) {
+            for (ThreadDump other : fullThreadDump.getThreadDumps()) {
+                assertEquals(threadDump.getStackLines().equals(other.getStackLines()), threadDump.equals(other));
+            }
+        }
+    }
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TestThreadDumpExtractor {
+
+    static List<Path> corpus() throws IOException, URISyntaxException {
+        //noinspection ConstantConditions
+        Path root = Paths.get(TestThreadDumpExtractor.class.getResource("/log4j2-test.xml").toURI()).getParent();
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(file -> file.toString().matches("^.*\\.(txt|dmp)$")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void mappedFileIsEquivalentToInputStream() throws IOException, URISyntaxException {
+        for (Path file : corpus()) {
+            ThreadStatistic streamed = new ThreadStatistic();
+            try (InputStream is = Files.newInputStream(file)) {
+                new ThreadDumpExtractor(streamed).analyze(is);
+            }
+            ThreadStatistic mapped = new ThreadStatistic();
+            new ThreadDumpExtractor(mapped).analyze(file);
+            assertEquals(streamed.getFullThreadDumpCount(), mapped.getFullThreadDumpCount(), file.toString());
+            assertEquals(streamed.getFullThreadDumps(), mapped.getFullThreadDumps(), file.toString());
+        }
+    }
+
+    @Test
+    void parallelIsEquivalentToSequential() throws IOException, URISyntaxException {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            List<Path> corpus = corpus();
+            for (Path file : corpus) {
+                assertEquals(events(file, null), events(file, pool), file.toString());
+            }
+            // every vendor in one capture, IBM lock infos included
+            Path concatenated = Files.createTempFile("samurai", ".dmp");
+            try {
+                for (Path file : corpus) {
+                    Files.write(concatenated, Files.readAllBytes(file), java.nio.file.StandardOpenOption.APPEND);
+                }
+                List<Object> sequential = events(concatenated, null);
+                assertTrue(sequential.size() > corpus.size());
+                assertEquals(sequential, events(concatenated, pool));
+            } finally {
+                Files.delete(concatenated);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void streamIsEquivalentToInputStream() throws IOException, URISyntaxException {
+        for (Path file : corpus()) {
+            ThreadStatistic statistic = new ThreadStatistic();
+            new ThreadDumpExtractor(statistic).analyze(file);
+            try (Stream<FullThreadDump> stream = ThreadDumpExtractor.stream(file)) {
+                assertEquals(statistic.getFullThreadDumps(), stream.collect(Collectors.toList()), file.toString());
+            }
+        }
+    }
+
+    @Test
+    void publisher() throws Exception {
+        //noinspection ConstantConditions
+        Path file = Paths.get(TestThreadDumpExtractor.class.getResource("/Apple/1.4.2_08Apple.dmp").toURI());
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(file);
+        assertEquals(3, statistic.getFullThreadDumpCount());
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // one by one, with a buffer of a single full thread dump
+            List<FullThreadDump> received = new ArrayList<>();
+            CompletableFuture<List<FullThreadDump>> completed = new CompletableFuture<>();
+            new FullThreadDumpPublisher(file, executor, 1).subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(FullThreadDump item) {
+                    received.add(item);
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    completed.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.complete(received);
+                }
+            });
+            assertEquals(statistic.getFullThreadDumps(), completed.get(10, TimeUnit.SECONDS));
+
+            // cancelled after the first one
+            CompletableFuture<FullThreadDump> first = new CompletableFuture<>();
+            new FullThreadDumpPublisher(Files.newInputStream(file), executor, 1).subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(FullThreadDump item) {
+                    subscription.cancel();
+                    first.complete(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    first.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+            assertEquals(statistic.getFullThreadDump(0), first.get(10, TimeUnit.SECONDS));
+
+            // errors are signalled
+            CompletableFuture<Throwable> error = new CompletableFuture<>();
+            new FullThreadDumpPublisher(file.resolveSibling("missing.dmp"), executor, 1).subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(FullThreadDump item) {
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    error.complete(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    error.complete(null);
+                }
+            });
+            assertTrue(error.get(10, TimeUnit.SECONDS) instanceof IOException);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void compressed() throws IOException, URISyntaxException {
+        //noinspection ConstantConditions
+        Path apple = Paths.get(TestThreadDumpExtractor.class.getResource("/Apple/1.4.2_08Apple.dmp").toURI());
+        //noinspection ConstantConditions
+        Path sun = Paths.get(TestThreadDumpExtractor.class.getResource("/Sun/1.4.2_03Sunstacked.dmp").toURI());
+        // sun was taken first, though named after apple
+        List<Object> expected = new ArrayList<>(events(sun, null));
+        expected.addAll(events(apple, null));
+        long taken = 1631692923000L;
+
+        Path gzip = Files.createTempFile("samurai", ".dmp.gz");
+        Path zip = Files.createTempFile("samurai", ".zip");
+        Path tarGzip = Files.createTempFile("samurai", ".tar.gz");
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+                os.write(Files.readAllBytes(apple));
+            }
+            assertEquals(CompressedInput.Format.GZIP, CompressedInput.formatOf(gzip));
+            assertEquals(events(apple, null), events(gzip, null));
+
+            try (ZipOutputStream os = new ZipOutputStream(Files.newOutputStream(zip))) {
+                ZipEntry entry = new ZipEntry("dumps/a.dmp");
+                entry.setTime(taken + 60000);
+                os.putNextEntry(entry);
+                os.write(Files.readAllBytes(apple));
+                entry = new ZipEntry("dumps/b.dmp");
+                entry.setTime(taken);
+                os.putNextEntry(entry);
+                os.write(Files.readAllBytes(sun));
+            }
+            assertEquals(CompressedInput.Format.ZIP, CompressedInput.formatOf(zip));
+            assertEquals(expected, events(zip, null));
+            assertEquals(expected, events(zip, pool));
+
+            try (OutputStream os = new GZIPOutputStream(Files.newOutputStream(tarGzip))) {
+                writeTarEntry(os, "dumps/a.dmp", taken + 60000, Files.readAllBytes(apple));
+                writeTarEntry(os, "dumps/b.dmp", taken, Files.readAllBytes(sun));
+                os.write(new byte[1024]);
+            }
+            assertEquals(CompressedInput.Format.TAR_GZIP, CompressedInput.formatOf(tarGzip));
+            assertEquals(expected, events(tarGzip, null));
+            assertEquals(expected, events(tarGzip, pool));
+            // concatenated in the same order
+            ThreadStatistic statistic = new ThreadStatistic();
+            new ThreadDumpExtractor(statistic).analyze(CompressedInput.open(tarGzip));
+            assertEquals(statistic.getFullThreadDump(0), events(sun, null).stream()
+                    .filter(event -> event instanceof FullThreadDump).findFirst().orElseThrow());
+        } finally {
+            pool.shutdown();
+            Files.delete(gzip);
+            Files.delete(zip);
+            Files.delete(tarGzip);
+        }
+    }
+
+    private static void writeTarEntry(OutputStream os, String name, long time, byte[] content) throws IOException {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        writeOctal(header, 100, 8, 0644);
+        writeOctal(header, 124, 12, content.length);
+        writeOctal(header, 136, 12, time / 1000);
+        header[156] = '0';
+        // ustar magic followed by NUL and version "00"
+        System.arraycopy("ustar".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 5);
+        header[263] = '0';
+        header[264] = '0';
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        int checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        writeOctal(header, 148, 7, checksum);
+        os.write(header);
+        os.write(content);
+        os.write(new byte[(512 - content.length % 512) % 512]);
+    }
+
+    private static void writeOctal(byte[] header, int offset, int length, long value) {
+        String octal = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(octal.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+    }
+
+    private static List<Object> events(Path file, ForkJoinPool pool) throws IOException {
+        List<Object> events = new ArrayList<>();
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(new ThreadDumpRenderer() {
+            @Override
+            public void onFullThreadDump(FullThreadDump fullThreadDump) {
+                events.add(fullThreadDump);
+            }
+
+            @Override
+            public void onThreadDump(ThreadDump threadDump) {
+                events.add(threadDump.getHeader());
+            }
+        });
+        if (null == pool) {
+            extractor.analyze(file);
+        } else {
+            extractor.analyzeParallel(file, pool);
+        }
+        return events;
+    }
+
+    @Test
+    void mappedLinesAcrossWindows() throws IOException {
+        String content = "Full thread dump\r\n\"main\" prio=5 tid=0x01 nid=0x02 runnable\r\n\tat Foo.bar(Foo.java:1)\r\n\r"
+                + "\n日本語のスレッド\n\n" + "x".repeat(100) + "\rlast line without terminator";
+        Path file = Files.createTempFile("samurai", ".dmp");
+        try {
+            Files.writeString(file, content, StandardCharsets.UTF_8);
+            List<String> expected = new BufferedReader(new StringReader(content)).lines().collect(Collectors.toList());
+            for (int windowSize : new int[]{1, 2, 7, 64, MappedLineReader.DEFAULT_WINDOW_SIZE}) {
+                List<String> lines = new ArrayList<>();
+                MappedLineReader.read(file, StandardCharsets.UTF_8, windowSize, line -> lines.add(line.toString()));
+                assertEquals(expected, lines, "window size:" + windowSize);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TestThreadDumpFormats {
+
+    @Test
+    void match() {
+        ThreadDumpFormats formats = ThreadDumpFormats.getInstance();
+        assertSame(ThreadDumpFormats.SUN, formats.match("Full thread dump OpenJDK 64-Bit Server VM (11.0.2+9 mixed mode):"));
+        assertSame(ThreadDumpFormats.BEA, formats.match("===== FULL THREAD DUMP ==============="));
+        assertSame(ThreadDumpFormats.IBM, formats.match("2XMFULLTHDDUMP Full thread dump J9 VM"));
+        assertSame(ThreadDumpFormats.SPRING_BOOT_ACTUATOR_JSON, formats.match("{\"threads\":[]}"));
+        assertNull(formats.match(""));
+        assertNull(formats.match("Full thread"));
+        assertNull(formats.match("\"main\" #1 prio=5 os_prio=0 tid=0x00007f3c4800b000 nid=0x1b03 runnable"));
+        // registered in META-INF/services
+        assertTrue(formats.match("SAMURAI THREAD DUMP") instanceof PlainFormat);
+    }
+
+    @Test
+    void longestPrefix() {
+        ThreadDumpFormat shorter = new PlainFormat(List.of("Full"));
+        ThreadDumpFormats formats = new ThreadDumpFormats(List.of(shorter, ThreadDumpFormats.SUN));
+        assertSame(ThreadDumpFormats.SUN, formats.match("Full thread dump"));
+        assertSame(shorter, formats.match("Full thread"));
+        assertNull(formats.match("Ful"));
+    }
+
+    @Test
+    void serviceLoadedFormat() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(statistic);
+        for (String line : List.of("log line",
+                "SAMURAI THREAD DUMP",
+                "thread \"main\" id=1",
+                "\tat Main.main(Main.java:1)",
+                "thread \"worker\" id=2",
+                "\tat java.lang.Object.wait(Native Method)",
+                "\tat Worker.run(Worker.java:5)",
+                "END",
+                "log line")) {
+            extractor.analyzeLine(line);
+        }
+        extractor.finish();
+        assertEquals(1, statistic.getFullThreadDumps().size());
+        FullThreadDump fullThreadDump = statistic.getFullThreadDumps().get(0);
+        assertEquals(2, fullThreadDump.getThreadCount());
+        assertEquals("main", fullThreadDump.getThreadDump(0).getName());
+        assertEquals("2", fullThreadDump.getThreadDump(1).getId());
+        assertEquals(2, fullThreadDump.getThreadDump(1).size());
+    }
+
+    /**
+     * lines: "SAMURAI THREAD DUMP", then "thread "name" id=n" followed by stack lines, up to "END"
+     */
+    public static final class PlainFormat implements ThreadDumpFormat {
+        private final List<String> headerPrefixes;
+
+        public PlainFormat() {
+            this(List.of("SAMURAI THREAD DUMP"));
+        }
+
+        PlainFormat(List<String> headerPrefixes) {
+            this.headerPrefixes = headerPrefixes;
+        }
+
+        @Override
+        public List<String> getHeaderPrefixes() {
+            return headerPrefixes;
+        }
+
+        @Override
+        public FullThreadDump newFullThreadDump(String header) {
+            return new FullThreadDump(header) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean isThreadHeader(String line) {
+                    return line.startsWith("thread ");
+                }
+
+                @Override
+                protected boolean isThreadFooter(String line) {
+                    return false;
+                }
+
+                @Override
+                protected boolean isThreadDumpContinuing(String line) {
+                    return !line.equals("END");
+                }
+            };
+        }
+
+        @Override
+        public ThreadDump newThreadDump(FullThreadDump fullThreadDump, String header) {
+            return new ThreadDump(header) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void addStackLine(String line) {
+                    addStackLine(new StackLine(line));
+                }
+
+                @Override
+                public String getId() {
+                    return getHeader().substring(getHeader().indexOf("id=") + 3);
+                }
+            };
+        }
+    }
+}
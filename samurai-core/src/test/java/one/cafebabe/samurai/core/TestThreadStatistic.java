@@ -0,0 +1,401 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static one.cafebabe.samurai.core.FullThreadDumpBuilder.sleeping;
+import static one.cafebabe.samurai.core.FullThreadDumpBuilder.withCpu;
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TestThreadStatistic {
+
+    @Test
+    void cpuRateBetweenConsecutiveDumps() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(withCpu(10, "idle", 5.0, "busy", 100.0, "half", 0.0)
+                + withCpu(12, "idle", 5.0, "busy", 2100.0, "half", 1000.0, "new", 50.0)
+                + withCpu(14, "idle", 25.0, "busy", 4100.0, "half", 2000.0, "new", 50.0));
+
+        ThreadDumpSequence busy = statistic.getStackTracesById("0xbusy");
+        assertEquals(-1, busy.getCpuRate(0));
+        assertEquals(100, busy.getCpuRate(1), 0.001);
+        assertEquals(100, busy.getCpuRate(2), 0.001);
+        assertEquals(4000, busy.getCpuMillis(), 0.001);
+        assertEquals(100, busy.getCpuRate(), 0.001);
+
+        ThreadDumpSequence idle = statistic.getStackTracesById("0xidle");
+        assertEquals(0, idle.getCpuRate(1), 0.001);
+        assertEquals(1, idle.getCpuRate(2), 0.001);
+        assertEquals(0.5, idle.getCpuRate(), 0.001);
+
+        ThreadDumpSequence newThread = statistic.getStackTracesById("0xnew");
+        assertEquals(-1, newThread.getCpuRate(1));
+        assertEquals(0, newThread.getCpuRate(2), 0.001);
+
+        ThreadDumpSequence[] byCpuRate = statistic.getStackTracesByCpuRate();
+        assertEquals("0xbusy", byCpuRate[0].getId());
+        assertEquals("0xhalf", byCpuRate[1].getId());
+        assertEquals("0xidle", byCpuRate[2].getId());
+        assertEquals("0xnew", byCpuRate[3].getId());
+    }
+
+    @Test
+    void cpuRateIsNotAvailableWithoutCpuTime() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(sleeping("a", "b") + sleeping("a", "b"));
+        ThreadDumpSequence a = statistic.getStackTracesById("0xa");
+        assertEquals(-1, a.getCpuRate(1));
+        assertEquals(-1, a.getCpuRate());
+        assertEquals(-1, a.getCpuMillis());
+        assertEquals("0xa", statistic.getStackTracesByCpuRate()[0].getId());
+
+        // a new thread reusing the id of a terminated one
+        statistic.reset();
+        new ThreadDumpExtractor(statistic).analyze(withCpu(10, "a", 500.0) + withCpu(12, "a", 20.0));
+        assertEquals(-1, statistic.getStackTracesById("0xa").getCpuRate(1));
+    }
+
+    @Test
+    void sequencesFollowLatestThreadOrder() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(sleeping("a", "b", "c") + sleeping("c", "a", "d"));
+        assertEquals(2, statistic.getFullThreadDumpCount());
+        ThreadDumpSequence[] sequences = statistic.getStackTracesAsArray();
+        assertEquals(3, sequences.length);
+        assertEquals("0xc", sequences[0].getId());
+        assertEquals("0xa", sequences[1].getId());
+        assertEquals("0xd", sequences[2].getId());
+        assertEquals("0xc", statistic.getFirstThreadId());
+        assertEquals(2, statistic.getStackTracesById("0xa").size());
+        ThreadDumpSequence d = statistic.getStackTracesById("0xd");
+        assertEquals(2, d.size());
+        assertNull(d.get(0));
+
+        assertNull(statistic.getPreviousThreadDumps("0xc"));
+        assertSame(sequences[0], statistic.getPreviousThreadDumps("0xa"));
+        assertSame(sequences[2], statistic.getPreviousThreadDumps("0xb"), "unknown thread falls back to the last one");
+        assertSame(sequences[1], statistic.getNextThreadDumps("0xc"));
+        assertNull(statistic.getNextThreadDumps("0xd"));
+        assertNull(statistic.getNextThreadDumps("0xb"));
+        assertThrows(AssertionError.class, () -> statistic.getStackTracesById("0xb"));
+    }
+
+    @Test
+    void sortedByName() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(sleeping("c", "B", "a"));
+        ThreadDumpSequence[] byName = statistic.getStackTracesByName();
+        assertEquals("0xa", byName[0].getId());
+        assertEquals("0xB", byName[1].getId());
+        assertEquals("0xc", byName[2].getId());
+
+        // recomputed on the next full thread dump
+        new ThreadDumpExtractor(statistic).analyze(sleeping("c", "B", "a", "A"));
+        byName = statistic.getStackTracesByName();
+        assertEquals(4, byName.length);
+        assertEquals("0xa", byName[0].getId());
+        assertEquals("0xA", byName[1].getId());
+
+        FullThreadDump latest = statistic.getFullThreadDump(1);
+        assertEquals(3, latest.indexOf("0xA"));
+        assertEquals(-1, latest.indexOf("0xd"));
+        assertSame(latest.getThreadDump(1), latest.getThreadDumpById("0xB"));
+    }
+
+    @Test
+    void sortedByNameAfterSameNumberOfThreads() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(statistic);
+        extractor.analyze(sleeping("b", "a"));
+        assertEquals("0xa", statistic.getStackTracesByName()[0].getId());
+
+        // as many threads as before, none of them the same
+        extractor.analyze(sleeping("c", "d"));
+        ThreadDumpSequence[] byName = statistic.getStackTracesByName();
+        assertEquals("0xc", byName[0].getId());
+        assertEquals("0xd", byName[1].getId());
+    }
+
+    @Test
+    void vanishedThreadStartsOver() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(sleeping("a", "b") + sleeping("a") + sleeping("b", "a"));
+        ThreadDumpSequence b = statistic.getStackTracesById("0xb");
+        assertEquals(3, b.size());
+        assertNull(b.get(0));
+        assertNull(b.get(1));
+        assertNotNull(b.get(2));
+        assertEquals(3, statistic.getStackTracesById("0xa").size());
+        assertSame(b, statistic.getPreviousThreadDumps("0xa"));
+
+        statistic.reset();
+        assertThrows(AssertionError.class, () -> statistic.getStackTracesById("0xa"));
+        assertNull(statistic.getPreviousThreadDumps("0xa"));
+    }
+
+    @Test
+    void stateMatrixMatchesThreadDumps() throws IOException, URISyntaxException {
+        for (Path file : TestThreadDumpExtractor.corpus()) {
+            ThreadStatistic statistic = new ThreadStatistic();
+            new ThreadDumpExtractor(statistic).analyze(file);
+            for (ThreadDumpSequence sequence : statistic.getStackTracesAsArray()) {
+                assertEquals(statistic.getFullThreadDumpCount(), sequence.size(), file.toString());
+                assertEquals(sequence.size(), sequence.getRow().size(), file.toString());
+                for (int i = 0; i < sequence.size(); i++) {
+                    ThreadDump threadDump = sequence.get(i);
+                    ThreadDump previous = 0 == i ? null : sequence.get(i - 1);
+                    int state = sequence.getState(i);
+                    assertEquals(ThreadStateMatrix.stateOf(threadDump), state & ThreadStateMatrix.STATE_MASK, file.toString());
+                    assertEquals(0 < i && (null == threadDump || null != previous && previous.equals(threadDump)),
+                            sequence.sameAsBefore(i + 1), file.toString());
+                    assertEquals(sequence.sameAsBefore(i + 1), 0 != (state & ThreadStateMatrix.SAME_AS_BEFORE), file.toString());
+                }
+            }
+            ThreadStateMatrix matrix = statistic.getStateMatrix();
+            for (int column = 0; column < statistic.getFullThreadDumpCount(); column++) {
+                int blocked = 0;
+                for (ThreadDump threadDump : statistic.getFullThreadDump(column).getThreadDumps()) {
+                    if (ThreadStateMatrix.BLOCKED == ThreadStateMatrix.stateOf(threadDump)) {
+                        blocked++;
+                    }
+                }
+                assertEquals(blocked, matrix.count(column, ThreadStateMatrix.BLOCKED), file.toString());
+            }
+        }
+    }
+
+    @Test
+    void cpuOrderFollowsRetention() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(withCpu(10, "early", 0.0, "late", 0.0)
+                + withCpu(12, "early", 2000.0, "late", 100.0)
+                + withCpu(14, "early", 2000.0, "late", 600.0));
+        ThreadDumpSequence[] byCpuRate = statistic.getStackTracesByCpuRate();
+        assertEquals("0xearly", byCpuRate[0].getId());
+        assertEquals(50, byCpuRate[0].getCpuRate(), 0.001);
+
+        // "early" was busy only before the retained window
+        statistic.setRetention(2, 0);
+        byCpuRate = statistic.getStackTracesByCpuRate();
+        assertEquals("0xlate", byCpuRate[0].getId());
+        assertEquals(25, byCpuRate[0].getCpuRate(), 0.001);
+        assertEquals(0, byCpuRate[1].getCpuRate(), 0.001);
+    }
+
+    @Test
+    void retentionKeepsLatestFullThreadDumps() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        statistic.setRetention(3, 0);
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(statistic);
+        extractor.analyze(sleeping("a", "b") + sleeping("a", "b") + sleeping("a")
+                + sleeping("a", "c") + sleeping("c", "a"));
+        assertEquals(3, statistic.getFullThreadDumpCount());
+        assertEquals(2, statistic.getEvictedFullThreadDumpCount());
+        assertEquals(1, statistic.getFullThreadDump(0).getThreadCount());
+
+        ThreadDumpSequence a = statistic.getStackTracesById("0xa");
+        assertEquals(3, a.size());
+        assertNotNull(a.get(0));
+        ThreadDumpSequence c = statistic.getStackTracesById("0xc");
+        assertEquals(3, c.size());
+        assertNull(c.get(0));
+        assertNotNull(c.get(1));
+        assertEquals(ThreadStateMatrix.ABSENT, c.getState(0) & ThreadStateMatrix.STATE_MASK);
+        assertEquals(ThreadStateMatrix.IDLE, c.getState(1) & ThreadStateMatrix.STATE_MASK);
+        // "b" vanished before the retained window
+        assertEquals(2, statistic.getStateMatrix().getRowCount());
+        assertEquals(2, statistic.getStateMatrix().count(2, ThreadStateMatrix.IDLE));
+
+        statistic.setRetention(1, 0);
+        assertEquals(1, statistic.getFullThreadDumpCount());
+        assertEquals(4, statistic.getEvictedFullThreadDumpCount());
+        assertEquals(1, statistic.getStackTracesById("0xa").size());
+        assertThrows(IOException.class, () -> statistic.getEvictedFullThreadDump(0));
+    }
+
+    @Test
+    void retentionByAgeKeepsCpuRateOfWindow() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        AtomicLong now = new AtomicLong(0);
+        statistic.clock = now::get;
+        statistic.setRetention(0, 60000);
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(statistic);
+        extractor.analyze(withCpu(10, "busy", 100.0));
+        now.set(30000);
+        extractor.analyze(withCpu(40, "busy", 30100.0));
+        now.set(61000);
+        extractor.analyze(withCpu(71, "busy", 33200.0));
+        assertEquals(2, statistic.getFullThreadDumpCount());
+        ThreadDumpSequence busy = statistic.getStackTracesById("0xbusy");
+        assertEquals(-1, busy.getCpuRate(0));
+        assertEquals(10, busy.getCpuRate(1), 0.001);
+        assertEquals(10, busy.getCpuRate(), 0.001);
+        assertEquals(3100, busy.getCpuMillis(), 0.001);
+
+        // the latest full thread dump is kept however old it is
+        now.set(1000000);
+        statistic.setRetention(0, 60000);
+        assertEquals(1, statistic.getFullThreadDumpCount());
+        assertEquals(-1, statistic.getStackTracesById("0xbusy").getCpuRate());
+    }
+
+    @Test
+    void evictedFullThreadDumpsArePagedBackIn() throws IOException {
+        Path spill = Files.createTempFile("samurai", ".spill");
+        try {
+            ThreadStatistic statistic = new ThreadStatistic();
+            statistic.setSpillFile(spill);
+            statistic.setRetention(2, 0);
+            new ThreadDumpExtractor(statistic).analyze(sleeping("a") + sleeping("a", "b")
+                    + sleeping("b", "c") + sleeping("c"));
+            assertEquals(2, statistic.getEvictedFullThreadDumpCount());
+            FullThreadDump first = statistic.getEvictedFullThreadDump(0);
+            assertEquals(1, first.getThreadCount());
+            assertEquals("0xa", first.getThreadDump(0).getId());
+            FullThreadDump second = statistic.getEvictedFullThreadDump(1);
+            assertEquals(2, second.getThreadCount());
+            assertEquals("0xb", second.getThreadDump(1).getId());
+            assertEquals("\tat java.lang.Thread.sleep(Native Method)", second.getThreadDump(1).getLine(0).getLine());
+            assertThrows(IOException.class, () -> statistic.getEvictedFullThreadDump(2));
+            statistic.reset();
+        } finally {
+            Files.delete(spill);
+        }
+    }
+
+    @Test
+    void stateMatrixRowEvictsAcrossChunks() {
+        ThreadStateMatrix.Row row = new ThreadStateMatrix().newRow();
+        for (int i = 0; i < 200; i++) {
+            row.add(i % 3 == 0 ? ThreadStateMatrix.BLOCKED : ThreadStateMatrix.IDLE);
+        }
+        row.evict(70);
+        assertEquals(130, row.size());
+        for (int i = 200; i < 300; i++) {
+            row.add(i % 3 == 0 ? ThreadStateMatrix.BLOCKED : ThreadStateMatrix.IDLE);
+        }
+        row.evict(100);
+        assertEquals(130, row.size());
+        for (int i = 0; i < 130; i++) {
+            assertEquals((i + 170) % 3 == 0 ? ThreadStateMatrix.BLOCKED : ThreadStateMatrix.IDLE, row.getState(i));
+        }
+        row.evict(1000);
+        assertEquals(0, row.size());
+    }
+
+    @Test
+    void stateMatrixRowGrowsAcrossChunks() {
+        ThreadStateMatrix.Row row = new ThreadStateMatrix().newRow();
+        for (int i = 0; i < 1000; i++) {
+            row.add(i % 300 == 0 ? ThreadStateMatrix.BLOCKED : ThreadStateMatrix.IDLE | ThreadStateMatrix.SAME_AS_BEFORE);
+        }
+        assertEquals(1000, row.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i % 300 == 0 ? ThreadStateMatrix.BLOCKED : ThreadStateMatrix.IDLE, row.getState(i));
+            assertEquals(i % 300 != 0, row.sameAsBefore(i));
+        }
+        assertEquals(ThreadStateMatrix.ABSENT, row.get(1000));
+        assertEquals(ThreadStateMatrix.ABSENT, row.get(-1));
+    }
+
+    @Test
+    void frameIndex() {
+        ThreadStatistic statistic = new ThreadStatistic();
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(statistic);
+        extractor.analyze(sleeping("a", "b") + sleeping("a"));
+        FrameIndex index = statistic.getFrameIndex();
+        assertArrayEquals(new int[]{2, 1}, index.getThreadCountPerDump("java.lang.Thread#sleep", 0, 1));
+        assertArrayEquals(new int[]{2, 1}, index.getThreadCountPerDump("sleep", 0, 1));
+        assertArrayEquals(new int[]{0, 0}, index.getThreadCountPerDump("java.lang.Object#wait", 0, 1));
+        assertEquals(Arrays.asList("0xa", "0xb"), index.getThreadIds("java.lang.Thread", 0, 1));
+        assertEquals(List.of("0xa"), index.getThreadIds("java.lang.Thread", 1, 1));
+
+        // kept up to date once built
+        extractor.analyze(new FullThreadDumpBuilder().thread("c", "0xc", "runnable",
+                "example.Recursive.call(Recursive.java:3)",
+                "example.Recursive.call(Recursive.java:3)",
+                "example.Main.main(Main.java:9)").toString());
+        assertArrayEquals(new int[]{0, 0, 1}, index.getThreadCountPerDump("example.Recursive#call", 0, 2));
+        List<Integer> depths = new ArrayList<>();
+        index.forEach("example.Recursive#call", 0, 2, (dump, threadId, depth) -> {
+            assertEquals(2, dump);
+            assertEquals("0xc", threadId);
+            depths.add(depth);
+        });
+        assertEquals(Arrays.asList(0, 1), depths);
+        assertEquals(List.of("0xc"), index.getThreadIds("main", 0, 2));
+
+        statistic.setRetention(1, 0);
+        assertEquals(2, index.getFirstDump());
+        assertEquals(List.of(), index.getThreadIds("sleep", 0, 2));
+        assertEquals(List.of("0xc"), index.getThreadIds("example.Main", 0, 2));
+        // class, method and class#method of Recursive.call and Main.main
+        assertEquals(6, index.getTermCount());
+        assertEquals(1, index.getThreadCount());
+
+        statistic.setRetention(0, 0);
+        extractor.analyze(sleeping("d"));
+        assertEquals(List.of("0xd"), index.getThreadIds("sleep", 0, 3));
+        assertEquals(List.of("0xc"), index.getThreadIds("main", 0, 3));
+    }
+
+    @Test
+    void threadPools() {
+        assertEquals("http-nio-8080-exec-#", ThreadPoolStatistic.poolNameOf("http-nio-8080-exec-137"));
+        assertEquals("ForkJoinPool.commonPool-worker-#", ThreadPoolStatistic.poolNameOf("ForkJoinPool.commonPool-worker-3"));
+        assertEquals("pool-7-thread-#", ThreadPoolStatistic.poolNameOf("pool-7-thread-12"));
+        assertEquals("main", ThreadPoolStatistic.poolNameOf("main"));
+        assertEquals("42", ThreadPoolStatistic.poolNameOf("42"));
+
+        ThreadStatistic statistic = new ThreadStatistic();
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(statistic);
+        extractor.analyze(sleeping("exec-1", "exec-2", "main") + sleeping("exec-1", "exec-2", "exec-3", "main"));
+        ThreadPoolStatistic threadPools = statistic.getThreadPools();
+        assertEquals(2, threadPools.getFullThreadDumpCount());
+        assertEquals(1, threadPools.getThreadPools(2).size());
+        ThreadPoolStatistic.ThreadPool exec = threadPools.getThreadPool("exec-#");
+        assertEquals(2, exec.getSize(0));
+        assertEquals(3, exec.getSize(1));
+        assertEquals(3, exec.getIdle(1));
+        assertEquals(0, exec.getRunning(1));
+        assertEquals(3, exec.getPeakSize());
+        assertEquals(0, exec.getPeakBusy());
+        assertEquals(2, threadPools.getThreadPools(1).size());
+        assertEquals("exec-#", threadPools.getThreadPools(1).get(0).getName());
+
+        statistic.setRetention(1, 0);
+        assertEquals(1, threadPools.getFullThreadDumpCount());
+        assertEquals(3, exec.getSize(0));
+        assertEquals(0, exec.getSize(1));
+
+        statistic.reset();
+        assertEquals(0, threadPools.getFullThreadDumpCount());
+        assertNull(threadPools.getThreadPool("exec-#"));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TestWaitForGraph {
+    private static final String HEADER = "Full thread dump OpenJDK 64-Bit Server VM (17.0.1+12 mixed mode, sharing):\n\n";
+
+    private static String parked(String name, String id, String parkedOn, String... owns) {
+        StringBuilder thread = new StringBuilder();
+        thread.append('"').append(name).append("\" #1 prio=5 os_prio=0 tid=").append(id)
+                .append(" nid=0x1 waiting on condition  [0x0000700001a4f000]\n")
+                .append("   java.lang.Thread.State: WAITING (parking)\n")
+                .append("\tat jdk.internal.misc.Unsafe.park(java.base@17.0.1/Native Method)\n")
+                .append("\t- parking to wait for  <").append(parkedOn).append("> (a java.util.concurrent.locks.ReentrantLock$NonfairSync)\n")
+                .append("\tat java.util.concurrent.locks.LockSupport.park(java.base@17.0.1/LockSupport.java:211)\n");
+        return thread.append(ownableSynchronizers(owns)).toString();
+    }
+
+    private static String blocked(String name, String id, String waitingToLock, String... locked) {
+        StringBuilder thread = new StringBuilder();
+        thread.append('"').append(name).append("\" #2 prio=5 os_prio=0 tid=").append(id)
+                .append(" nid=0x2 waiting for monitor entry  [0x0000700001b52000]\n")
+                .append("   java.lang.Thread.State: BLOCKED (on object monitor)\n")
+                .append("\tat Example.run(Example.java:10)\n")
+                .append("\t- waiting to lock <").append(waitingToLock).append("> (a java.lang.Object)\n");
+        for (String lock : locked) {
+            thread.append("\tat Example.lock(Example.java:20)\n")
+                    .append("\t- locked <").append(lock).append("> (a java.lang.Object)\n");
+        }
+        return thread.append(ownableSynchronizers()).toString();
+    }
+
+    private static String running(String name, String id, String... owns) {
+        return '"' + name + "\" #3 prio=5 os_prio=0 tid=" + id + " nid=0x3 runnable  [0x0000700001c55000]\n"
+                + "   java.lang.Thread.State: RUNNABLE\n"
+                + "\tat Example.work(Example.java:30)\n" + ownableSynchronizers(owns);
+    }
+
+    private static String ownableSynchronizers(String... owns) {
+        StringBuilder section = new StringBuilder("\n   Locked ownable synchronizers:\n");
+        if (0 == owns.length) {
+            section.append("\t- None\n");
+        }
+        for (String own : owns) {
+            section.append("\t- <").append(own).append("> (a java.util.concurrent.locks.ReentrantLock$NonfairSync)\n");
+        }
+        return section.append('\n').toString();
+    }
+
+    private static FullThreadDump analyze(String dump) {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(dump);
+        assertEquals(1, statistic.getFullThreadDumpCount());
+        return statistic.getFullThreadDump(0);
+    }
+
+    @Test
+    void reentrantLockDeadlockAndChains() {
+        FullThreadDump dump = analyze(HEADER
+                + parked("t1", "0x01", "0x0a", "0x0b")
+                + parked("t2", "0x02", "0x0b", "0x0a")
+                + blocked("t3", "0x03", "0x0m")
+                + parked("t4", "0x04", "0x0c", "0x0d")
+                + running("t5", "0x05", "0x0c")
+                + blocked("t6", "0x06", "0x0m")
+                + parked("t7", "0x07", "0x0e")
+                + blocked("t8", "0x08", "0x0n", "0x0m"));
+        assertEquals(8, dump.getThreadCount());
+        ThreadDump t1 = dump.getThreadDump(0);
+        assertEquals("0x0a", t1.getParkedObjectId());
+        assertEquals(List.of("0x0b"), t1.getOwnableSynchronizerIds());
+        assertEquals("   Locked ownable synchronizers:", t1.getLine(t1.size() - 2).getLine());
+
+        assertTrue(dump.isDeadLocked());
+        assertEquals(1, dump.getDeadLockSize());
+        assertEquals(List.of(t1, dump.getThreadDump(1)), dump.getDeadLockChains().get(0));
+        assertTrue(t1.isDeadLocked());
+        assertTrue(t1.isParkedOnLock());
+        assertEquals("0x02", t1.getBlockerId());
+        assertEquals(ThreadStateMatrix.DEADLOCKED, ThreadStateMatrix.stateOf(t1));
+
+        // t3, t6 -> t8 (monitor), t8 not waiting
+        // t4 -> t5 (ReentrantLock)
+        ThreadDump t3 = dump.getThreadDump(2);
+        ThreadDump t4 = dump.getThreadDump(3);
+        ThreadDump t5 = dump.getThreadDump(4);
+        ThreadDump t7 = dump.getThreadDump(6);
+        ThreadDump t8 = dump.getThreadDump(7);
+        assertEquals("0x08", t3.getBlockerId());
+        assertFalse(t3.isDeadLocked());
+        assertTrue(t8.isBlocking());
+        assertEquals("0x05", t4.getBlockerId());
+        assertTrue(t5.isBlocking());
+        assertFalse(t5.isDeadLocked());
+        assertEquals(ThreadStateMatrix.BLOCKED, ThreadStateMatrix.stateOf(t4));
+        assertFalse(t7.isParkedOnLock(), "nobody owns the synchronizer");
+        assertNull(t7.getBlockerId());
+        assertEquals(ThreadStateMatrix.NORMAL, ThreadStateMatrix.stateOf(t7));
+
+        WaitForGraph graph = dump.getWaitForGraph();
+        assertSame(t8, graph.getWaitingFor(2));
+        assertNull(graph.getWaitingFor(4));
+        assertEquals(2, graph.getMaxFanIn());
+        assertSame(t8, graph.getMostWaitedFor());
+        assertEquals(2, graph.getFanIn(7));
+        assertEquals(1, graph.getFanIn(4));
+        assertEquals(2, graph.getChainLength(0), "a deadlocked thread's chain is the cycle");
+        assertEquals(2, graph.getChainLength(2));
+        assertEquals(1, graph.getChainLength(7));
+        assertEquals(2, graph.getLongestChainLength());
+        assertEquals(List.of(t1, dump.getThreadDump(1)), graph.getLongestChain());
+    }
+
+    @Test
+    void longChainsAndCycles() {
+        int length = 20000;
+        StringBuilder chain = new StringBuilder(HEADER);
+        for (int i = 0; i < length; i++) {
+            chain.append(blocked("t" + i, "0x" + i, "m" + (i + 1), "m" + i));
+        }
+        FullThreadDump dump = analyze(chain.toString());
+        WaitForGraph graph = dump.getWaitForGraph();
+        assertFalse(dump.isDeadLocked());
+        assertEquals(length, graph.getLongestChainLength());
+        assertEquals(length, graph.getLongestChain().size());
+        assertSame(dump.getThreadDump(0), graph.getLongestChain().get(0));
+        assertEquals(1, graph.getMaxFanIn());
+
+        // the last thread closes the chain into a cycle
+        chain.append(blocked("closing", "0xclosing", "m0", "m" + length));
+        dump = analyze(chain.toString());
+        assertTrue(dump.isDeadLocked());
+        assertEquals(1, dump.getDeadLockSize());
+        List<ThreadDump> cycle = dump.getDeadLockChains().get(0);
+        assertEquals(length + 1, cycle.size());
+        assertSame(dump.getThreadDump(0), cycle.get(0));
+        assertSame(dump.getThreadDump(length), cycle.get(length));
+    }
+
+    @Test
+    void noWaiters() {
+        FullThreadDump dump = analyze(HEADER + running("t1", "0x01") + running("t2", "0x02"));
+        WaitForGraph graph = dump.getWaitForGraph();
+        assertFalse(dump.isDeadLocked());
+        assertEquals(0, graph.getLongestChainLength());
+        assertTrue(graph.getLongestChain().isEmpty());
+        assertEquals(0, graph.getMaxFanIn());
+        assertNull(graph.getMostWaitedFor());
+        assertEquals("\tat Example.work(Example.java:30)", dump.getThreadDump(0).getLine(1).getLine());
+    }
+}
@@ -45,16 +45,27 @@ public class GraphPanel extends LogRenderer implements ClipBoardOperationListene
     }
 
     public LineGraph addLineGraph(String title, String[] labels) {
+        return addLineGraph(title, labels, resources.getMessage(isCSV ? "GraphPanel.csv" : "GraphPanel.memory"));
+    }
+
+    /**
+     * adds a graph of a thread pool, plotted by {@link ThreadDumpPanel} as full thread dumps are detected
+     *
+     * @param title  pool name
+     * @param labels labels of the values
+     * @return the graph
+     */
+    /*package*/ LineGraph addThreadPoolGraph(String title, String[] labels) {
+        return addLineGraph(title, labels, resources.getMessage("GraphPanel.threadPool"));
+    }
+
+    private LineGraph addLineGraph(String title, String[] labels, String tabTitle) {
         LineGraphPanel lineGraphPanel = new LineGraphPanel();
         lineGraphPanel.setLabels(labels);
         config.applyLocation("PlotSettingDialog.location", lineGraphPanel.plotSetting);
         config.apply(lineGraphPanel.plotSetting);
         tileTabPanel.addComponent(title, lineGraphPanel);
-        if (isCSV) {
-            showMe(resources.getMessage("GraphPanel.csv"));
-        } else {
-            showMe(resources.getMessage("GraphPanel.memory"));
-        }
+        showMe(tabTitle);
 
         return lineGraphPanel;
     }
@@ -81,7 +92,7 @@ public class GraphPanel extends LogRenderer implements ClipBoardOperationListene
 
     public void logStarted(File file, long filePointer) {
         super.logStarted(file, filePointer);
-        if (file.getName().endsWith(".csv")) {
+        if (file.getName().endsWith(".csv") || file.getName().endsWith(".csv.gz")) {
             isCSV = true;
             csvParser = new CSVParser();
         } else {
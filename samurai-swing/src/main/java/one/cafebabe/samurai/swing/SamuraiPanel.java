@@ -58,8 +58,9 @@ public class SamuraiPanel extends JPanel implements LogMonitor, RemoveListener {
         setEncoding(encoding);
         this.setLayout(new BorderLayout());
         tab.setShowTitleWithSingleComponent(false);
-        logRenderers.add(new ThreadDumpPanel(this, context));
-        logRenderers.add(new GraphPanel(this, config));
+        GraphPanel graphPanel = new GraphPanel(this, config);
+        logRenderers.add(new ThreadDumpPanel(this, context, graphPanel));
+        logRenderers.add(graphPanel);
         logRenderers.add(new LogPanel(this));
         this.add(tab, BorderLayout.CENTER);
         setIcon.accept(stoppedIcon, this);
@@ -17,7 +17,9 @@ package one.cafebabe.samurai.swing;
 
 import one.cafebabe.samurai.core.ThreadDumpExtractor;
 import one.cafebabe.samurai.core.ThreadDumpSequence;
+import one.cafebabe.samurai.core.ThreadPoolStatistic;
 import one.cafebabe.samurai.core.ThreadStatistic;
+import one.cafebabe.samurai.gc.LineGraph;
 import one.cafebabe.samurai.util.*;
 import one.cafebabe.samurai.core.FullThreadDump;
 import one.cafebabe.samurai.web.ThreadFilter;
@@ -41,6 +43,20 @@ public class ThreadDumpPanel extends LogRenderer implements HyperlinkListener,
     private static final GUIResourceBundle resources = GUIResourceBundle.getInstance();
     public String config_dumpFontFamily = "Monospace";
     public String config_dumpFontSize = "12";
+    /**
+     * number of full thread dumps to keep while tailing, 0 or less for no limit
+     */
+    public int config_dumpRetentionCount = 0;
+    /**
+     * minutes to keep a full thread dump while tailing, 0 or less for no limit
+     */
+    public int config_dumpRetentionMinutes = 0;
+    /**
+     * peak number of threads for a thread pool to be plotted, 0 or less for none
+     */
+    public int config_threadPoolGraphMinSize = 10;
+    private final GraphPanel graphPanel;
+    private final Map<String, LineGraph> threadPoolGraphs = new HashMap<>();
     private final Map<String, Object> webContext = new HashMap<>();
 
     private final JProgressBar progressBar = new JProgressBar();
@@ -67,8 +83,9 @@ public class ThreadDumpPanel extends LogRenderer implements HyperlinkListener,
     final JPanel settingPanel = new JPanel();
     private final ThymeleafHtmlRenderer renderer = new ThymeleafHtmlRenderer();
 
-    public ThreadDumpPanel(SamuraiPanel samuraiPanel, Context context) {
+    public ThreadDumpPanel(SamuraiPanel samuraiPanel, Context context, GraphPanel graphPanel) {
         super(true, samuraiPanel);
+        this.graphPanel = graphPanel;
         this.setLayout(borderLayout1);
         this.setMaximumSize(new Dimension(2147483647, 2147483647));
         this.setMinimumSize(new Dimension(0, 0));
@@ -370,6 +387,7 @@ public class ThreadDumpPanel extends LogRenderer implements HyperlinkListener,
 
         public synchronized void onFullThreadDump(FullThreadDump fullThreadDump) {
             super.onFullThreadDump(fullThreadDump);
+            plotThreadPools();
             invokeLater(() -> {
                 showMe(resources.getMessage("ThreadDumpPanel.threadDump"));
                 threadList = statistic.getStackTracesAsArray();
@@ -378,6 +396,35 @@ public class ThreadDumpPanel extends LogRenderer implements HyperlinkListener,
         }
     };
     private ThreadDumpExtractor analyzer = new ThreadDumpExtractor(statistic);
+
+    /**
+     * plots running, idle and blocked threads of each thread pool in the latest full thread dump.<br>
+     * a pool is plotted from the first retained full thread dump once it reaches config_threadPoolGraphMinSize threads.
+     */
+    private void plotThreadPools() {
+        if (config_threadPoolGraphMinSize <= 0) {
+            return;
+        }
+        ThreadPoolStatistic threadPools = statistic.getThreadPools();
+        int latest = threadPools.getFullThreadDumpCount() - 1;
+        for (ThreadPoolStatistic.ThreadPool threadPool : threadPools.getThreadPools(config_threadPoolGraphMinSize)) {
+            LineGraph graph = threadPoolGraphs.get(threadPool.getName());
+            if (null == graph) {
+                graph = graphPanel.addThreadPoolGraph(threadPool.getName(), new String[]{
+                        resources.getMessage("ThreadDumpPanel.running"), resources.getMessage("ThreadDumpPanel.idle"),
+                        resources.getMessage("ThreadDumpPanel.blocked")});
+                threadPoolGraphs.put(threadPool.getName(), graph);
+                for (int i = 0; i < latest; i++) {
+                    plot(graph, threadPool, i);
+                }
+            }
+            plot(graph, threadPool, latest);
+        }
+    }
+
+    private static void plot(LineGraph graph, ThreadPoolStatistic.ThreadPool threadPool, int dump) {
+        graph.addValues(new double[]{threadPool.getRunning(dump), threadPool.getIdle(dump), threadPool.getBlocked(dump)});
+    }
     final JScrollPane threadDumpPanelScrollPane = new JScrollPane();
 
     File currentFile;
@@ -390,6 +437,8 @@ public class ThreadDumpPanel extends LogRenderer implements HyperlinkListener,
     public void logStarted(File file, long filePointer) {
         super.logStarted(file, filePointer);
         currentFile = file;
+        // graphs are removed by GraphPanel as the log starts
+        threadPoolGraphs.clear();
     }
 
     public void logEnded(File file, long filePointer) {
@@ -399,6 +448,8 @@ public class ThreadDumpPanel extends LogRenderer implements HyperlinkListener,
 
     public synchronized void clearBuffer() {
         init();
+        // graphs are removed by GraphPanel.clearBuffer()
+        threadPoolGraphs.clear();
         analyzer = new ThreadDumpExtractor(statistic);
         hideMe();
     }
@@ -422,6 +473,7 @@ public class ThreadDumpPanel extends LogRenderer implements HyperlinkListener,
         config.apply(renderer);
         webContext.put("fontFamily", config_dumpFontFamily);
         webContext.put("fontSize", config_dumpFontSize);
+        statistic.setRetention(config_dumpRetentionCount, config_dumpRetentionMinutes * 60000L);
         updateHtml();
     }
 
@@ -16,12 +16,15 @@
 package one.cafebabe.samurai.tail;
 
 
+import one.cafebabe.samurai.core.CompressedInput;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.List;
@@ -37,6 +40,11 @@ public class SingleLogWatcher {
         this.file = file;
         this.encoding = encoding;
         if (null != file && file.exists()) {
+            try {
+                compressed = CompressedInput.isCompressed(file.toPath());
+            } catch (IOException ex) {
+                onException(ex);
+            }
             openFile();
         }
     }
@@ -58,6 +66,12 @@ public class SingleLogWatcher {
             throw new IllegalStateException("Thread has already killed.");
         }
         this.killed = true;
+        if (compressed && null != decompressed) {
+            try {
+                decompressed.close();
+            } catch (IOException ignore) {
+            }
+        }
     }
 
     public boolean isDead() {
@@ -70,6 +84,11 @@ public class SingleLogWatcher {
     private File file = null;
     private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
     private RandomAccessFile raf;
+    // gzip, zip and tar.gz files are read once through, decompressed, as they are not appended to
+    private boolean compressed = false;
+    private BufferedReader decompressed;
+    // decompressed content has no byte offset to seek to, so monitors are given the number of lines read instead
+    private long linesRead = 0;
 
     private boolean checking = true;
 
@@ -81,10 +100,19 @@ public class SingleLogWatcher {
 
     private synchronized void openFile() {
         try {
+            if (compressed) {
+                decompressed = new BufferedReader(new InputStreamReader(CompressedInput.open(file.toPath()), encoding));
+                checking = false;
+                return;
+            }
             raf = new RandomAccessFile(file, "r");
             raf.seek(filePointer);
         } catch (IOException ex) {
             onException(ex);
+            if (compressed) {
+                // nothing more to read
+                return;
+            }
         }
         checking = false;
     }
@@ -102,7 +130,34 @@ public class SingleLogWatcher {
 
     /*package*/
     synchronized void checkUpdate() {
-        if (!checking) {
+        if (killed && compressed) {
+            // the decompressed stream has been closed
+            return;
+        }
+        if (!checking && compressed) {
+            try {
+                String decompressedLine = decompressed.readLine();
+                if (null != decompressedLine) {
+                    if (!hasStarted) {
+                        logStarted();
+                    }
+                    linesRead++;
+                    onLine(decompressedLine);
+                } else {
+                    checking = true;
+                    decompressed.close();
+                    bedtime = System.currentTimeMillis();
+                    sleeping();
+                }
+            } catch (IOException ex) {
+                checking = true;
+                onException(ex);
+            }
+        } else if (checking && compressed) {
+            if (hasStarted && !hasEnded && 1000 < (System.currentTimeMillis() - bedtime)) {
+                logEnded();
+            }
+        } else if (!checking) {
             try {
                 if (readLine(raf, line)) {
                     if (!hasStarted) {
@@ -181,25 +236,35 @@ public class SingleLogWatcher {
     }
 
     private void onLine(byte[] line) {
-        logger.debug("onLine(" + new String(line) + ")");
+        try {
+            onLine(new String(line, encoding));
+        } catch (java.io.UnsupportedEncodingException uee) {
+            onException(uee);
+        }
+    }
+
+    private void onLine(String line) {
+        logger.debug("onLine(" + line + ")");
         for (LogMonitor monitor : logMonitors) {
             try {
-                monitor.onLine(this.file, new String(line, encoding), this.filePointer);
-            } catch (java.io.UnsupportedEncodingException uee) {
-                uee.printStackTrace();
+                monitor.onLine(this.file, line, position());
             } catch (RuntimeException re) {
                 re.printStackTrace();
             }
         }
     }
 
+    private long position() {
+        return compressed ? linesRead : filePointer;
+    }
+
     private void logStarted() {
         hasStarted = true;
         hasEnded = false;
         logger.debug("logStarted()");
         for (LogMonitor monitor : logMonitors) {
             try {
-                monitor.logStarted(this.file, this.filePointer);
+                monitor.logStarted(this.file, position());
             } catch (RuntimeException re) {
                 re.printStackTrace();
             }
@@ -211,7 +276,7 @@ public class SingleLogWatcher {
         logger.debug("logEnded()");
         for (LogMonitor monitor : logMonitors) {
             try {
-                monitor.logEnded(this.file, this.filePointer);
+                monitor.logEnded(this.file, position());
             } catch (RuntimeException re) {
                 re.printStackTrace();
             }
@@ -223,7 +288,7 @@ public class SingleLogWatcher {
         logger.debug("logContinued()");
         for (LogMonitor monitor : logMonitors) {
             try {
-                monitor.logContinued(this.file, this.filePointer);
+                monitor.logContinued(this.file, position());
             } catch (RuntimeException re) {
                 re.printStackTrace();
             }
@@ -246,7 +311,7 @@ public class SingleLogWatcher {
             logger.debug("logWillEnd()");
             for (LogMonitor monitor : logMonitors) {
                 try {
-                    monitor.logWillEnd(this.file, this.filePointer);
+                    monitor.logWillEnd(this.file, position());
                 } catch (RuntimeException re) {
                     re.printStackTrace();
                 }
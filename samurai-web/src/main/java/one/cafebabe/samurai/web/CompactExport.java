@@ -0,0 +1,297 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.web;
+
+import one.cafebabe.samurai.core.FullThreadDump;
+import one.cafebabe.samurai.core.StackLine;
+import one.cafebabe.samurai.core.ThreadDump;
+import one.cafebabe.samurai.core.ThreadDumpSequence;
+import one.cafebabe.samurai.core.ThreadStateMatrix;
+import one.cafebabe.samurai.core.ThreadStatistic;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+/**
+ * Exports a statistic as one compact data file and a static viewer rendering the table, full and sequence views in the browser.<br>
+ * Stack lines and thread conditions are interned into a string table, identical stacks are stored once as arrays of string ids,
+ * and the state matrix is a base64 encoded byte per thread and thread dump.
+ * So the export grows with the number of distinct stacks rather than threads &times; thread dumps &times; stack depth.
+ * <p>
+ * The JSON document is wrapped in a samurai(...) call and saved as data.js, as browsers don't let a page opened from a file read a JSON file next to it.
+ */
+public final class CompactExport {
+    /*package*/ static final int VERSION = 1;
+    private static final String VIEWER_ROOT = "/one/cafebabe/samurai/web/viewer/";
+    private static final String[] VIEWER_FILES = {"index.html", "viewer.js"};
+
+    private CompactExport() {
+    }
+
+    /**
+     * Saves the data file and the viewer, index.html, to the directory.
+     *
+     * @param stats     statistics to be saved
+     * @param directory directory to save the files
+     * @throws IOException - If an I/O error occurs
+     */
+    public static void saveTo(@NotNull ThreadStatistic stats, @NotNull File directory) throws IOException {
+        Path dir = directory.toPath();
+        Files.createDirectories(dir);
+        for (String file : VIEWER_FILES) {
+            try (InputStream is = CompactExport.class.getResourceAsStream(VIEWER_ROOT + file)) {
+                if (null == is) {
+                    throw new IOException("viewer resource not found: " + file);
+                }
+                Files.copy(is, dir.resolve(file), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        try (Writer out = Files.newBufferedWriter(dir.resolve("data.js"), StandardCharsets.UTF_8)) {
+            out.write("samurai(");
+            write(stats, ResourceBundle.getBundle("one.cafebabe.samurai.web.messages"), out);
+            out.write(");\n");
+        }
+    }
+
+    /**
+     * Writes the statistic as JSON:
+     * <pre>
+     * {"version":1, "messages":{key:message}, "evicted":count of evicted full thread dumps,
+     *  "strings":[stack lines and conditions], "stacks":[[string id of each line]],
+     *  "live":number of threads in the latest full thread dump, listed first in "threads",
+     *  "threads":[{"id", "name", "cpu": CPU% if known}], live threads then threads gone by the latest full thread dump,
+     *  "states": base64 of a {@link one.cafebabe.samurai.core.ThreadStateMatrix} cell per thread, then per full thread dump,
+     *  "dumps":[{"header", "threads":[thread index, condition string id, stack id, ...] in order of appearance}]}
+     * </pre>
+     *
+     * @param stats    statistics to be written
+     * @param resource messages used by the viewer
+     * @param out      destination
+     * @throws IOException - If an I/O error occurs
+     */
+    public static void write(@NotNull ThreadStatistic stats, @NotNull ResourceBundle resource, @NotNull Writer out) throws IOException {
+        ThreadDumpSequence[] sequences = stats.getStackTracesAsArray();
+        List<FullThreadDump> fullThreadDumps = stats.getFullThreadDumps();
+        Map<String, Integer> threadIndex = new HashMap<>();
+        for (int i = 0; i < sequences.length; i++) {
+            threadIndex.put(sequences[i].getId(), i);
+        }
+        // threads gone by the latest full thread dump follow the live ones, with their states in each full thread dump
+        List<ThreadDump> vanished = new ArrayList<>();
+        List<byte[]> vanishedStates = new ArrayList<>();
+        for (int i = 0; i < fullThreadDumps.size(); i++) {
+            for (ThreadDump threadDump : fullThreadDumps.get(i).getThreadDumps()) {
+                Integer index = threadIndex.get(threadDump.getId());
+                if (null == index) {
+                    index = sequences.length + vanished.size();
+                    threadIndex.put(threadDump.getId(), index);
+                    vanished.add(threadDump);
+                    vanishedStates.add(new byte[fullThreadDumps.size()]);
+                }
+                if (sequences.length <= index) {
+                    vanishedStates.get(index - sequences.length)[i] = ThreadStateMatrix.stateOf(threadDump);
+                }
+            }
+        }
+        Interner<String> strings = new Interner<>();
+        Interner<List<Integer>> stacks = new Interner<>();
+        // thread index, condition and stack per thread in each full thread dump
+        List<int[]> dumps = new ArrayList<>(fullThreadDumps.size());
+        for (FullThreadDump fullThreadDump : fullThreadDumps) {
+            List<ThreadDump> threadDumps = fullThreadDump.getThreadDumps();
+            int[] threads = new int[threadDumps.size() * 3];
+            for (int i = 0; i < threadDumps.size(); i++) {
+                ThreadDump threadDump = threadDumps.get(i);
+                List<StackLine> lines = threadDump.getStackLines();
+                List<Integer> stack = new ArrayList<>(lines.size());
+                for (StackLine line : lines) {
+                    stack.add(strings.intern(line.getLine()));
+                }
+                threads[i * 3] = threadIndex.get(threadDump.getId());
+                threads[i * 3 + 1] = strings.intern(threadDump.getCondition());
+                threads[i * 3 + 2] = stacks.intern(stack);
+            }
+            dumps.add(threads);
+        }
+
+        out.write("{\"version\":" + VERSION + ",\n\"messages\":{");
+        boolean first = true;
+        for (Enumeration<String> keys = resource.getKeys(); keys.hasMoreElements(); ) {
+            String key = keys.nextElement();
+            if (key.startsWith("web.")) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                string(out, key.substring(4));
+                out.write(':');
+                string(out, resource.getString(key));
+            }
+        }
+        out.write("},\n\"evicted\":" + stats.getEvictedFullThreadDumpCount() + ",\n\"strings\":[");
+        for (int i = 0; i < strings.values.size(); i++) {
+            if (0 < i) {
+                out.write(",\n");
+            }
+            string(out, strings.values.get(i));
+        }
+        out.write("],\n\"stacks\":[");
+        for (int i = 0; i < stacks.values.size(); i++) {
+            if (0 < i) {
+                out.write(",\n");
+            }
+            out.write('[');
+            List<Integer> stack = stacks.values.get(i);
+            for (int j = 0; j < stack.size(); j++) {
+                if (0 < j) {
+                    out.write(',');
+                }
+                out.write(String.valueOf(stack.get(j)));
+            }
+            out.write(']');
+        }
+        out.write("],\n\"live\":" + sequences.length + ",\n\"threads\":[");
+        byte[] states = new byte[(sequences.length + vanished.size()) * fullThreadDumps.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            ThreadDumpSequence sequence = sequences[i];
+            if (0 < i) {
+                out.write(",\n");
+            }
+            out.write("{\"id\":");
+            string(out, sequence.getId());
+            out.write(",\"name\":");
+            string(out, sequence.getName());
+            if (0 <= sequence.getCpuRate()) {
+                out.write(",\"cpu\":" + String.format(Locale.ROOT, "%.1f", sequence.getCpuRate()));
+            }
+            out.write('}');
+            for (int j = 0; j < fullThreadDumps.size(); j++) {
+                states[i * fullThreadDumps.size() + j] = (byte) sequence.getState(j);
+            }
+        }
+        for (int i = 0; i < vanished.size(); i++) {
+            if (0 < sequences.length + i) {
+                out.write(",\n");
+            }
+            out.write("{\"id\":");
+            string(out, vanished.get(i).getId());
+            out.write(",\"name\":");
+            string(out, vanished.get(i).getName());
+            out.write('}');
+            System.arraycopy(vanishedStates.get(i), 0, states, (sequences.length + i) * fullThreadDumps.size(), fullThreadDumps.size());
+        }
+        out.write("],\n\"states\":\"");
+        out.write(Base64.getEncoder().encodeToString(states));
+        out.write("\",\n\"dumps\":[");
+        for (int i = 0; i < fullThreadDumps.size(); i++) {
+            if (0 < i) {
+                out.write(",\n");
+            }
+            out.write("{\"header\":");
+            string(out, fullThreadDumps.get(i).getHeader());
+            out.write(",\"threads\":[");
+            int[] threads = dumps.get(i);
+            for (int j = 0; j < threads.length; j++) {
+                if (0 < j) {
+                    out.write(',');
+                }
+                out.write(String.valueOf(threads[j]));
+            }
+            out.write("]}");
+        }
+        out.write("]}");
+        out.flush();
+    }
+
+    /**
+     * assigns ids to values in order of first appearance
+     */
+    private static final class Interner<T> {
+        private final Map<T, Integer> ids = new HashMap<>();
+        private final List<T> values = new ArrayList<>();
+
+        private int intern(T value) {
+            Integer id = ids.get(value);
+            if (null == id) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+    }
+
+    private static void string(Writer out, String value) throws IOException {
+        out.write('"');
+        int written = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            switch (c) {
+                case '"':
+                    replacement = "\\\"";
+                    break;
+                case '\\':
+                    replacement = "\\\\";
+                    break;
+                case '\n':
+                    replacement = "\\n";
+                    break;
+                case '\r':
+                    replacement = "\\r";
+                    break;
+                case '\t':
+                    replacement = "\\t";
+                    break;
+                case '<':
+                    // keeps "</script>" in a string from closing an inline script
+                    replacement = "\\u003c";
+                    break;
+                case '\u2028':
+                    replacement = "\\u2028";
+                    break;
+                case '\u2029':
+                    replacement = "\\u2029";
+                    break;
+                default:
+                    if (c >= ' ') {
+                        continue;
+                    }
+                    replacement = String.format("\\u%04x", (int) c);
+            }
+            out.write(value, written, i - written);
+            out.write(replacement);
+            written = i + 1;
+        }
+        out.write(value, written, value.length() - written);
+        out.write('"');
+    }
+}
@@ -19,9 +19,24 @@ public interface Constants {
     String MODE_TABLE = "table";
     String MODE_FULL = "full";
     String MODE_SEQUENCE = "sequence";
+    String MODE_DIFF = "diff";
     String THREAD_ID = "threadId";
 
     String FULL_THREAD_INDEX = "index";
 
+    String BASE_INDEX = "base";
+
     String SHRINK_IDLE = "shrink";
+
+    String ORDER = "order";
+
+    String STATE = "state";
+
+    String OFFSET = "offset";
+
+    String LIMIT = "limit";
+
+    String FLAME_GRAPH = "flamegraph";
+
+    String COMPACT = "compact";
 }
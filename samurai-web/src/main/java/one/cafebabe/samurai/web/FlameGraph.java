@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.web;
+
+import one.cafebabe.samurai.core.FrameTrie;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Writes a {@link FrameTrie} as a self-contained flame graph: nested boxes laid out with CSS, no script nor external resources.<br>
+ * Written iteratively rather than with a recursive template, as stacks can be a thousand frames deep.
+ */
+public final class FlameGraph {
+    private static final String STYLE = "body{font-family:'Helvetica Neue',sans-serif;font-size:12pt}"
+            + ".flamegraph,.node{display:flex;flex-direction:column-reverse;min-width:0}"
+            + ".children{display:flex;flex-direction:row}"
+            + ".frame{height:16px;line-height:16px;font:10px monospace;overflow:hidden;white-space:nowrap;"
+            + "text-overflow:ellipsis;border:1px solid #fff;box-sizing:border-box;padding:0 2px;cursor:default}"
+            + ".frame:hover{border-color:#000}";
+
+    /**
+     * frames narrower than this fraction of all samples are omitted
+     */
+    private static final double MIN_WIDTH = 0.001;
+
+    private FlameGraph() {
+    }
+
+    /**
+     * @param trie  trie to be drawn
+     * @param title title of the page
+     * @param out   destination
+     * @throws IOException when write fails
+     */
+    public static void write(@NotNull FrameTrie trie, @NotNull String title, @NotNull Writer out) throws IOException {
+        FrameTrie.Node root = trie.getRoot();
+        out.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>");
+        ThymeleafHtmlRenderer.Util.escape(out, title);
+        out.write("</title>\n<style>");
+        out.write(STYLE);
+        out.write("</style>\n</head>\n<body>\n<p>");
+        ThymeleafHtmlRenderer.Util.escape(out, title);
+        out.write(": " + root.getTotal() + " samples in " + trie.getFullThreadDumpCount() + " thread dumps</p>\n");
+        out.write("<div class=\"flamegraph\">");
+        writeFrame(root, root.getTotal(), out);
+        int minTotal = (int) Math.ceil(root.getTotal() * MIN_WIDTH);
+        Deque<Iterator<FrameTrie.Node>> iterators = new ArrayDeque<>();
+        Deque<FrameTrie.Node> parents = new ArrayDeque<>();
+        out.write("<div class=\"children\">");
+        iterators.push(root.getChildren().iterator());
+        parents.push(root);
+        while (!iterators.isEmpty()) {
+            Iterator<FrameTrie.Node> iterator = iterators.peek();
+            FrameTrie.Node node = null;
+            while (iterator.hasNext()) {
+                FrameTrie.Node next = iterator.next();
+                if (minTotal <= next.getTotal()) {
+                    node = next;
+                    break;
+                }
+            }
+            if (null == node) {
+                // close .children and the .node it belongs to
+                iterators.pop();
+                parents.pop();
+                out.write("</div></div>");
+                continue;
+            }
+            out.write("<div class=\"node\" style=\"width:");
+            out.write(String.format(Locale.ROOT, "%.4f", node.getTotal() * 100d / parents.peek().getTotal()));
+            out.write("%\">");
+            writeFrame(node, root.getTotal(), out);
+            out.write("<div class=\"children\">");
+            iterators.push(node.getChildren().iterator());
+            parents.push(node);
+        }
+        out.write("\n</body>\n</html>\n");
+        out.flush();
+    }
+
+    private static void writeFrame(FrameTrie.Node node, int samples, Writer out) throws IOException {
+        out.write("<div class=\"frame\" style=\"background:");
+        out.write(color(node.getName()));
+        out.write("\" title=\"");
+        ThymeleafHtmlRenderer.Util.escape(out, node.getName());
+        out.write(String.format(Locale.ROOT, " (%d samples, %.2f%%)", node.getTotal(),
+                0 == samples ? 0d : node.getTotal() * 100d / samples));
+        out.write("\">");
+        ThymeleafHtmlRenderer.Util.escape(out, node.getName());
+        out.write("</div>");
+    }
+
+    /**
+     * @param name frame name
+     * @return warm color, stable per frame name
+     */
+    private static String color(String name) {
+        int hash = name.hashCode();
+        int hue = (hash & 0xff) * 50 / 255;
+        int lightness = 55 + ((hash >>> 8) & 0xff) * 15 / 255;
+        return "hsl(" + hue + ",80%," + lightness + "%)";
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.web;
+
+import one.cafebabe.samurai.core.FullThreadDump;
+import one.cafebabe.samurai.core.StackLine;
+import one.cafebabe.samurai.core.ThreadDump;
+import one.cafebabe.samurai.core.ThreadDumpSequence;
+import one.cafebabe.samurai.core.ThreadPoolStatistic;
+import one.cafebabe.samurai.core.ThreadStatistic;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+/**
+ * Writes the table, full and sequence views straight to a writer, element by element.<br>
+ * Lays pages out as table.html, full.html and sequence.html do, without building a template model,
+ * so that memory stays flat however many threads a page lists.
+ */
+public final class HtmlWriter {
+    private final ResourceBundle resource;
+    private final String baseurl;
+    private final ThymeleafHtmlRenderer.Util util = new ThymeleafHtmlRenderer.Util();
+
+    /**
+     * @param resource messages
+     * @param baseurl  base url of css and images
+     */
+    public HtmlWriter(@NotNull ResourceBundle resource, @NotNull String baseurl) {
+        this.resource = resource;
+        this.baseurl = baseurl;
+    }
+
+    /**
+     * @param mode view
+     * @return true if the view can be written
+     */
+    public static boolean supports(ThreadFilter.View mode) {
+        return mode == ThreadFilter.View.table || mode == ThreadFilter.View.full || mode == ThreadFilter.View.sequence;
+    }
+
+    /**
+     * @param filter     filter specifying the view
+     * @param statistic  statistic
+     * @param webContext "fontFamily" and "fontSize"
+     * @param out        destination, not flushed nor closed
+     * @throws IOException when write fails
+     */
+    public void write(@NotNull ThreadFilter filter, @NotNull ThreadStatistic statistic, @NotNull Map<String, Object> webContext,
+                      @NotNull Writer out) throws IOException {
+        switch (filter.mode) {
+            case table:
+                writeHead(out, "web.table", webContext);
+                writeTable(out, filter, statistic);
+                break;
+            case full:
+                writeHead(out, "web.threadDump", webContext);
+                writeFull(out, filter, statistic);
+                break;
+            case sequence:
+                writeHead(out, "web.sequence", webContext);
+                writeSequence(out, filter, statistic);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported view: " + filter.mode);
+        }
+        out.write("</body>\n</html>\n");
+    }
+
+    private void writeHead(Writer out, String titleKey, Map<String, Object> webContext) throws IOException {
+        out.write("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n<title>");
+        text(out, resource.getString(titleKey) + resource.getString("web.view"));
+        out.write("</title>\n<meta charset=\"UTF-8\">\n<base href=\"");
+        text(out, baseurl);
+        out.write("\">\n<link rel=\"stylesheet\" href=\"./css/style.css\"/>\n<style>\nbody {\nfont-size: ");
+        text(out, String.valueOf(webContext.getOrDefault("fontSize", "12")));
+        out.write("pt;\nfont-family: ");
+        text(out, String.valueOf(webContext.getOrDefault("fontFamily", "Helvetica Neue")));
+        out.write(";\n}\n</style>\n</head>\n<body>\n");
+    }
+
+    private void writeNavigation(Writer out, ThreadFilter filter, ThreadStatistic statistic) throws IOException {
+        out.write("<div class=\"container\">\n");
+        navigationButton(out, filter.mode == ThreadFilter.View.table, "./table/index.html", "tableButton.gif", "web.table");
+        navigationButton(out, filter.mode == ThreadFilter.View.full,
+                "./full/index-0_shrink-" + filter.getShrinkIdle() + ".html", "fullButton.gif", "web.threadDump");
+        navigationButton(out, filter.mode == ThreadFilter.View.sequence,
+                "./sequence/threadId-" + statistic.getFirstThreadId() + "_shrink-" + filter.getShrinkIdle() + ".html",
+                "sequenceButton.gif", "web.sequence");
+        out.write("<br><br>\n");
+    }
+
+    private void navigationButton(Writer out, boolean current, String href, String image, String key) throws IOException {
+        if (!current) {
+            link(out, href);
+        }
+        out.write("<img border=\"0\" src=\"./images/");
+        out.write(image);
+        out.write("\"><span>");
+        text(out, resource.getString(key));
+        out.write("</span>");
+        if (!current) {
+            out.write("</a>");
+        }
+        out.write('\n');
+    }
+
+    private void writeTable(Writer out, ThreadFilter filter, ThreadStatistic statistic) throws IOException {
+        writeNavigation(out, filter, statistic);
+        out.write("<div><table><tr><td><div style=\"background-color: black\"><table border=\"0\" cellpadding=\"2\" cellspacing=\"1\">\n<tr>");
+        legend(out, "web.running", "./table/index" + filter.getStateQuery("running") + ".html", "back-normal", null, 1);
+        legend(out, "web.same", null, "back-normal", "same-h.gif", 3);
+        legend(out, "web.blocking", "./table/index" + filter.getStateQuery("blocking") + ".html", "back-blocking", null, 1);
+        legend(out, "web.idle", "./table/index" + filter.getStateQuery("idle") + ".html", "back-idle", null, 1);
+        out.write("</tr>\n<tr>");
+        legend(out, "web.blocked", "./table/index" + filter.getStateQuery("blocked") + ".html", "back-blocked", null, 1);
+        legend(out, "web.deadlocked", "./table/index" + filter.getStateQuery("deadlocked") + ".html", "back-blocked", "deadlocked.gif", 3);
+        out.write("<td colspan=\"2\"></td>");
+        legend(out, "web.absent", null, "back-notexist", null, 1);
+        out.write("</tr>\n</table></div></td></tr></table></div>\n");
+
+        ThreadDumpSequence[] sequences = filter.getStackTraces(statistic);
+        writeWindow(out, filter, "./table/index", sequences.length, filter.getThreadCount(statistic));
+
+        String shrink = "_shrink-" + filter.getShrinkIdle() + ".html";
+        List<FullThreadDump> fullThreadDumps = statistic.getFullThreadDumps();
+        out.write("<div><table><tr><td><div style=\"background-color: black\"><table border=\"0\" cellpadding=\"2\" cellspacing=\"1\">\n<tr><td align=\"center\">");
+        link(out, "./table/index" + filter.getOrderQuery(filter.getOrder() == ThreadFilter.Order.name ? "appearance" : "name") + ".html");
+        out.write("<span>");
+        text(out, resource.getString("web.name"));
+        out.write("</span></a></td><td align=\"center\">");
+        link(out, "./table/index" + filter.getOrderQuery(filter.getOrder() == ThreadFilter.Order.cpu ? "appearance" : "cpu") + ".html");
+        out.write("<span>");
+        text(out, resource.getString("web.cpu"));
+        out.write("</span></a></td>");
+        for (int i = 0; i < fullThreadDumps.size(); i++) {
+            out.write("<td align=\"center\">");
+            link(out, "./full/index-" + i + shrink);
+            out.write("<span>");
+            out.write(String.valueOf(statistic.getEvictedFullThreadDumpCount() + i + 1));
+            if (fullThreadDumps.get(i).isDeadLocked()) {
+                out.write("<div><br><img border=\"0\" src=\"./images/deadlocked.gif\"/></div>");
+            }
+            out.write("</span></a></td>");
+        }
+        out.write("</tr>\n");
+        for (ThreadDumpSequence sequence : sequences) {
+            String sequenceHref = "./sequence/threadId-" + sequence.getId() + shrink;
+            out.write("<tr><td align=\"right\">");
+            link(out, sequenceHref);
+            out.write("<span>");
+            text(out, sequence.toString());
+            out.write("</span></a></td><td align=\"right\" class=\"back-normal\"><span>");
+            text(out, util.formatCpuRate(sequence.getCpuRate()));
+            out.write("</span></td>");
+            for (int i = 0; i < sequence.size(); i++) {
+                int state = sequence.getState(i);
+                out.write("<td class=\"");
+                out.write(util.stateToClassName(state));
+                out.write("\">");
+                link(out, sequenceHref + "#" + (i + 1));
+                out.write("<img width=\"16\" height=\"16\" border=\"0\" src=\"./images/");
+                out.write(util.stateToImageSrc(state));
+                out.write("\"></a></td>");
+            }
+            out.write("</tr>\n");
+        }
+        out.write("</table></div></td></tr></table></div>\n");
+
+        List<ThreadPoolStatistic.ThreadPool> threadPools = statistic.getThreadPools().getThreadPools(2);
+        if (!threadPools.isEmpty()) {
+            out.write("<div><br><table><tr><td><div style=\"background-color: black\"><table border=\"0\" cellpadding=\"2\" cellspacing=\"1\">\n<tr>");
+            out.write("<td class=\"back-normal\"><span>");
+            text(out, resource.getString("web.threadPool"));
+            out.write("</span></td><td class=\"back-normal\" align=\"center\"><span>");
+            text(out, resource.getString("web.peak"));
+            out.write("</span></td><td class=\"back-normal\" align=\"center\"><span>");
+            text(out, resource.getString("web.peakBusy"));
+            out.write("</span></td><td class=\"back-normal\" colspan=\"" + statistic.getFullThreadDumpCount() + "\"><span>");
+            text(out, resource.getString("web.poolCounts"));
+            out.write("</span></td></tr>\n");
+            for (ThreadPoolStatistic.ThreadPool threadPool : threadPools) {
+                out.write("<tr><td align=\"right\" class=\"back-normal\"><span>");
+                text(out, threadPool.getName());
+                out.write("</span></td><td align=\"right\" class=\"back-normal\"><span>" + threadPool.getPeakSize()
+                        + "</span></td><td align=\"right\" class=\"back-normal\"><span>" + threadPool.getPeakBusy() + "</span></td>");
+                for (int i = 0; i < fullThreadDumps.size(); i++) {
+                    String className = threadPool.getSize(i) == 0 ? "back-notexist" : threadPool.getIdle(i) == 0 ? "back-blocked" : "back-normal";
+                    out.write("<td align=\"center\" class=\"" + className + "\"><span>"
+                            + threadPool.getRunning(i) + '/' + threadPool.getIdle(i) + '/' + threadPool.getBlocked(i) + "</span></td>");
+                }
+                out.write("</tr>\n");
+            }
+            out.write("</table></div></td></tr></table></div>\n");
+        }
+        out.write("</div>\n");
+    }
+
+    private void legend(Writer out, String key, String href, String className, String image, int colspan) throws IOException {
+        out.write(1 == colspan ? "<td style=\"text-align: right\">" : "<td style=\"text-align: right\" colspan=\"" + colspan + "\">");
+        if (null != href) {
+            link(out, href);
+        }
+        out.write("<span>&nbsp;");
+        text(out, resource.getString(key));
+        out.write(null != href ? "</span></a></td><td class=\"" : "</span></td><td class=\"");
+        out.write(className);
+        out.write(null == image ? "\">&nbsp;</td>" : "\"><img border=\"0\" src=\"./images/" + image + "\"></td>");
+    }
+
+    /**
+     * writes the link listing all threads and the pager over threads, if the view doesn't list all of them
+     *
+     * @param page   path of the view, followed by the query
+     * @param listed number of threads listed in this page
+     * @param count  number of threads in the state specified
+     */
+    private void writeWindow(Writer out, ThreadFilter filter, String page, int listed, int count) throws IOException {
+        boolean hasPrevious = 0 < filter.getOffset();
+        boolean hasNext = filter.getOffset() + listed < count;
+        if (null == filter.getState() && !hasPrevious && !hasNext) {
+            return;
+        }
+        out.write("<div>\n");
+        if (null != filter.getState()) {
+            link(out, page + filter.getStateQuery("") + ".html");
+            out.write("<span>");
+            text(out, resource.getString("web.allThreads"));
+            out.write("</span></a>\n");
+        }
+        if (hasPrevious || hasNext) {
+            pager(out, hasPrevious ? page + filter.getOffsetQuery(filter.getOffset() - filter.getLimit()) + ".html" : null,
+                    hasNext ? page + filter.getOffsetQuery(filter.getOffset() + filter.getLimit()) + ".html" : null);
+            out.write("<span>" + (filter.getOffset() + 1) + '-' + (filter.getOffset() + listed) + '/' + count + "</span>\n");
+        }
+        out.write("</div>\n");
+    }
+
+    private void writeFull(Writer out, ThreadFilter filter, ThreadStatistic statistic) throws IOException {
+        writeNavigation(out, filter, statistic);
+        int index = filter.getFullThreadIndex();
+        int count = statistic.getFullThreadDumpCount();
+        String shrink = "_shrink-" + filter.getShrinkIdle() + ".html";
+        pager(out, 0 < index ? "./full/index-" + (index - 1) + shrink : null, index < count - 1 ? "./full/index-" + (index + 1) + shrink : null);
+        out.write("<span>" + (index + 1) + '/' + count + "</span>\n");
+        if (0 < index) {
+            link(out, "./diff/index-" + index + "_base-" + (index - 1) + ".html");
+            out.write("<span>");
+            text(out, resource.getString("web.diffWithPrevious"));
+            out.write("</span></a>");
+        }
+        out.write("<br><br>\n</div>\n");
+
+        FullThreadDump fullThreadDump = statistic.getFullThreadDump(index);
+        out.write("<span>");
+        text(out, fullThreadDump.getHeader());
+        out.write("</span><br><br>\n");
+        List<ThreadDump> threadDumps = filter.getThreadDumps(statistic);
+        writeWindow(out, filter, "./full/index-" + index + "_shrink-" + filter.getShrinkIdle(), threadDumps.size(), filter.getThreadCount(statistic));
+        for (ThreadDump threadDump : threadDumps) {
+            List<ThreadDump> identical = fullThreadDump.getIdenticalStack(threadDump);
+            out.write("<div><div class=\"");
+            out.write(util.threadDumpToClass(threadDump));
+            out.write("\">\n\"<a name=\"");
+            text(out, threadDump.getId());
+            out.write("\" href=\"");
+            text(out, "./sequence/threadId-" + threadDump.getId() + shrink + "#" + util.sequenceAnchorOf(statistic, threadDump, index));
+            out.write("\"><span>");
+            text(out, threadDump.getName());
+            out.write("</span></a>\"\n");
+            writeCondition(out, threadDump, false);
+            if (identical.size() < 2 || identical.get(0) == threadDump) {
+                if (identical.size() > 1) {
+                    out.write("<span>");
+                    text(out, identical.size() + " " + resource.getString("web.identicalStack"));
+                    out.write("</span><br>\n");
+                }
+                writeStackLines(out, filter, statistic, threadDump, -1);
+            } else {
+                out.write("<span>");
+                text(out, resource.getString("web.sameStackAs"));
+                out.write("</span>\n\"");
+                link(out, filter.getFullPage(statistic, index, identical.get(0).getId()) + "#" + identical.get(0).getId());
+                text(out, identical.get(0).getName());
+                out.write("</a>\"<br><br>\n");
+            }
+            out.write("</div></div>\n");
+        }
+    }
+
+    private void writeSequence(Writer out, ThreadFilter filter, ThreadStatistic statistic) throws IOException {
+        writeNavigation(out, filter, statistic);
+        String shrink = "_shrink-" + filter.getShrinkIdle() + ".html";
+        ThreadDumpSequence previous = statistic.getPreviousThreadDumps(filter.getThreadId());
+        ThreadDumpSequence next = statistic.getNextThreadDumps(filter.getThreadId());
+        pager(out, null == previous ? null : "./sequence/threadId-" + previous.getId() + shrink,
+                null == next ? null : "./sequence/threadId-" + next.getId() + shrink);
+        out.write("</div>\n<br>\n");
+
+        ThreadDumpSequence sequence = filter.doFilter(statistic);
+        if (null == sequence) {
+            return;
+        }
+        out.write("\"<span>");
+        text(out, sequence.getName());
+        out.write("</span>\"\n");
+        cpuRate(out, sequence.getCpuRate());
+        out.write("<br><br>\n");
+        for (int i = 0; i < sequence.size(); i++) {
+            ThreadDump threadDump = sequence.get(i);
+            out.write("<div><a name=\"" + (i + 1) + "\" href=\"");
+            text(out, filter.getFullPage(statistic, i, filter.getThreadId()) + "#" + filter.getThreadId());
+            out.write("\"><span>Thread dump " + (i + 1) + '/' + sequence.size() + "</span>\n");
+            cpuRate(out, sequence.getCpuRate(i));
+            out.write("<br></a>\n<div class=\"");
+            out.write(util.threadDumpToClass(threadDump));
+            out.write("\">\n");
+            if (null != threadDump) {
+                out.write("\"<span>");
+                text(out, threadDump.getName());
+                out.write("</span>\"\n");
+                writeCondition(out, threadDump, sequence.sameAsBefore(i + 1));
+                writeStackLines(out, filter, statistic, threadDump, i + 1);
+            } else {
+                out.write("<span>");
+                text(out, sequence.getName());
+                out.write("</span>\n<span>");
+                text(out, resource.getString("web.absent"));
+                out.write("</span><br>\n");
+            }
+            out.write("</div></div>\n");
+        }
+    }
+
+    private void writeCondition(Writer out, ThreadDump threadDump, boolean sameAsBefore) throws IOException {
+        if (threadDump.isDeadLocked()) {
+            out.write("<img border=\"0\" src=\"./images/deadlocked.gif\">\n");
+        }
+        if (sameAsBefore) {
+            out.write("<img border=\"0\" src=\"./images/same-v.gif\">\n");
+        }
+        out.write("<span>");
+        text(out, threadDump.getCondition());
+        out.write("</span><br>\n");
+    }
+
+    /**
+     * writes stack lines as the stackTraces fragment in common.html does
+     *
+     * @param index 1-based position of the thread dump in the sequence view, -1 in the full view
+     */
+    private void writeStackLines(Writer out, ThreadFilter filter, ThreadStatistic statistic, ThreadDump threadDump, int index) throws IOException {
+        boolean shrinkIdle = filter.getShrinkIdle();
+        boolean idle = threadDump.isIdle();
+        List<StackLine> lines = threadDump.getStackLines();
+        for (int i = 0; i < lines.size(); i++) {
+            int count = i + 1;
+            if (idle && shrinkIdle && count > 4) {
+                break;
+            }
+            StackLine line = lines.get(i);
+            if (count == 4 && idle) {
+                String toggle = "_shrink-" + !shrinkIdle;
+                link(out, filter.mode == ThreadFilter.View.full
+                        ? "./full/index-" + filter.getFullThreadIndex() + toggle + filter.getOffsetQuery(filter.getOffset()) + ".html#" + threadDump.getId()
+                        : "./sequence/threadId-" + filter.getThreadId() + toggle + ".html#" + filter.getThreadId());
+                out.write("<img border=\"0\" src=\"./images/");
+                out.write(shrinkIdle ? "expandable_win" : "shrinkable_win");
+                out.write(".gif\"></a>");
+            } else {
+                out.write("&nbsp;");
+            }
+            String suffix = -1 == index ? "" : "_" + index;
+            if (line.isHoldingLock()) {
+                text(out, line.beforeObjectId());
+                out.write("<a id=\"");
+                text(out, line.getLockedObjectId() + suffix);
+                out.write("\"></a>");
+                text(out, line.getLockedObjectId() + line.afterObjectId());
+            } else if (line.isTryingToGetLock() && null != line.getLockedObjectId()) {
+                text(out, line.beforeObjectId());
+                link(out, -1 == index
+                        ? filter.getFullPage(statistic, filter.getFullThreadIndex(), line.getBlockerThreadId()) + "#" + line.getLockedObjectId()
+                        : "./sequence/threadId-" + line.getBlockerThreadId() + "_shrink-" + shrinkIdle + ".html#" + line.getLockedObjectId() + suffix);
+                text(out, line.getLockedObjectId());
+                out.write("</a>");
+                text(out, line.afterObjectId());
+            } else {
+                text(out, line.getLine());
+            }
+            out.write("<br>\n");
+        }
+        out.write("<br>\n");
+    }
+
+    private void pager(Writer out, String previousHref, String nextHref) throws IOException {
+        pagerLink(out, previousHref, "web.previous");
+        pagerLink(out, nextHref, "web.next");
+    }
+
+    private void pagerLink(Writer out, String href, String key) throws IOException {
+        if (null != href) {
+            link(out, href);
+        }
+        out.write("<span>");
+        text(out, resource.getString(key));
+        out.write("</span>");
+        out.write(null != href ? "</a>\n" : "\n");
+    }
+
+    private void cpuRate(Writer out, double cpuRate) throws IOException {
+        if (cpuRate >= 0) {
+            out.write("<span>");
+            text(out, resource.getString("web.cpu") + " " + util.formatCpuRate(cpuRate));
+            out.write("</span>");
+        }
+    }
+
+    private static void link(Writer out, String href) throws IOException {
+        out.write("<a href=\"");
+        text(out, href);
+        out.write("\">");
+    }
+
+    /**
+     * writes text escaped for both element content and attribute values
+     */
+    private static void text(Writer out, String text) throws IOException {
+        ThymeleafHtmlRenderer.Util.escape(out, text);
+    }
+}
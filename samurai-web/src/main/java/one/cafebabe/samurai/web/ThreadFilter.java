@@ -16,20 +16,36 @@
 package one.cafebabe.samurai.web;
 
 import one.cafebabe.samurai.core.FullThreadDump;
+import one.cafebabe.samurai.core.FullThreadDumpDiff;
+import one.cafebabe.samurai.core.ThreadDump;
 import one.cafebabe.samurai.core.ThreadDumpSequence;
+import one.cafebabe.samurai.core.ThreadStateMatrix;
 import one.cafebabe.samurai.core.ThreadStatistic;
 
 import java.io.Serializable;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class ThreadFilter implements Serializable {
     public View mode;
     private int fullThreadIndex;
+    private int baseFullThreadIndex;
     private String threadId;
     public boolean config_shrinkIdleThreads = false;
+    private Order order;
+    private State state;
+    private int offset;
+    private int limit = DEFAULT_LIMIT;
     private static final long serialVersionUID = 34941357376786143L;
 
+    /**
+     * number of threads listed per page in the table and full views
+     */
+    public static final int DEFAULT_LIMIT = 500;
+
     public ThreadFilter() {
         reset();
     }
@@ -37,26 +53,62 @@ public class ThreadFilter implements Serializable {
     public enum View {
         table,
         sequence,
-        full
+        full,
+        diff
+    }
+
+    public enum Order {
+        /**
+         * order of appearance in the latest thread dump
+         */
+        appearance,
+        /**
+         * CPU usage over the capture window, busiest first
+         */
+        cpu,
+        /**
+         * thread name, case insensitive
+         */
+        name
+    }
+
+    /**
+     * lists threads in the state only. in the table view, threads in the state in any of the full thread dumps
+     */
+    public enum State {
+        running(ThreadStateMatrix.NORMAL),
+        idle(ThreadStateMatrix.IDLE),
+        blocking(ThreadStateMatrix.BLOCKING),
+        blocked(ThreadStateMatrix.BLOCKED),
+        deadlocked(ThreadStateMatrix.DEADLOCKED);
+
+        private final byte code;
+
+        State(byte code) {
+            this.code = code;
+        }
     }
 
     public void reset() {
         mode = View.table;
         fullThreadIndex = 0;
+        baseFullThreadIndex = -1;
         threadId = "";
         config_shrinkIdleThreads = true;
+        order = Order.appearance;
+        state = null;
+        offset = 0;
+        limit = DEFAULT_LIMIT;
     }
 
     public ThreadDumpSequence doFilter(ThreadStatistic statistic) {
         ThreadDumpSequence sequence = null;
         if (this.mode == View.full) {
-            FullThreadDump fullThreadDump = statistic.getFullThreadDump(this.
-                    fullThreadIndex);
-            for (int i = 0; i < fullThreadDump.getThreadCount(); i++) {
-                if (i == 0) {
-                    sequence = new ThreadDumpSequence(fullThreadDump.getThreadDump(i), 1);
+            for (ThreadDump threadDump : getThreadDumps(statistic)) {
+                if (null == sequence) {
+                    sequence = new ThreadDumpSequence(threadDump, 1);
                 } else {
-                    sequence.addThreadDump(fullThreadDump.getThreadDump(i));
+                    sequence.addThreadDump(threadDump);
                 }
             }
         } else {
@@ -65,6 +117,185 @@ public class ThreadFilter implements Serializable {
         return sequence;
     }
 
+    /**
+     * returns threads to be listed in the full view
+     *
+     * @param statistic statistic
+     * @return threads of the full thread dump at {@link #getFullThreadIndex()} in the state and the window specified
+     */
+    public List<ThreadDump> getThreadDumps(ThreadStatistic statistic) {
+        List<ThreadDump> threadDumps = filterThreadDumps(statistic);
+        int from = Math.min(offset, threadDumps.size());
+        return threadDumps.subList(from, Math.min(threadDumps.size(), from + limit));
+    }
+
+    private List<ThreadDump> filterThreadDumps(ThreadStatistic statistic) {
+        List<ThreadDump> threadDumps = statistic.getFullThreadDump(fullThreadIndex).getThreadDumps();
+        if (null == state) {
+            return threadDumps;
+        }
+        List<ThreadDump> filtered = new ArrayList<>();
+        for (ThreadDump threadDump : threadDumps) {
+            if (ThreadStateMatrix.stateOf(threadDump) == state.code) {
+                filtered.add(threadDump);
+            }
+        }
+        return filtered;
+    }
+
+    /**
+     * compares the full thread dump at {@link #getFullThreadIndex()} with the one at {@link #getBaseFullThreadIndex()}
+     *
+     * @param statistic statistic
+     * @return differences from the base full thread dump
+     */
+    public FullThreadDumpDiff doDiff(ThreadStatistic statistic) {
+        return new FullThreadDumpDiff(statistic.getFullThreadDump(getBaseFullThreadIndex()),
+                statistic.getFullThreadDump(fullThreadIndex));
+    }
+
+    /**
+     * returns threads to be listed in the table view
+     *
+     * @param statistic statistic
+     * @return sequences in the state, the order and the window specified
+     */
+    public ThreadDumpSequence[] getStackTraces(ThreadStatistic statistic) {
+        ThreadDumpSequence[] sequences = filterStackTraces(statistic);
+        int from = Math.min(offset, sequences.length);
+        return Arrays.copyOfRange(sequences, from, Math.min(sequences.length, from + limit));
+    }
+
+    private ThreadDumpSequence[] filterStackTraces(ThreadStatistic statistic) {
+        ThreadDumpSequence[] sequences = order == Order.cpu ? statistic.getStackTracesByCpuRate()
+                : order == Order.name ? statistic.getStackTracesByName() : statistic.getStackTracesAsArray();
+        if (null == state) {
+            return sequences;
+        }
+        int count = 0;
+        for (ThreadDumpSequence sequence : sequences) {
+            for (int i = 0; i < sequence.size(); i++) {
+                if ((sequence.getState(i) & ThreadStateMatrix.STATE_MASK) == state.code) {
+                    sequences[count++] = sequence;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(sequences, count);
+    }
+
+    /**
+     * @param statistic statistic
+     * @return number of threads in the state specified, listed over the pages of the table or full view
+     */
+    public int getThreadCount(ThreadStatistic statistic) {
+        return mode == View.full ? filterThreadDumps(statistic).size() : filterStackTraces(statistic).length;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public void setOrder(Order order) {
+        this.order = order;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @param state state of threads to be listed, null for all
+     */
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return position of the first thread listed in the table and full views
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = Math.max(0, offset);
+    }
+
+    /**
+     * @return maximum number of threads listed in the table and full views
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    /**
+     * returns the query of the current view listing threads from the offset, to be appended to "./table/index" or "./full/index-n_shrink-b"
+     *
+     * @param offset position of the first thread
+     * @return query, empty if everything is the default
+     */
+    public String getOffsetQuery(int offset) {
+        return query(order, state, offset);
+    }
+
+    /**
+     * @param order name of {@link Order}
+     * @return query of the first page of the table view in the order
+     */
+    public String getOrderQuery(String order) {
+        return query(Order.valueOf(order), state, 0);
+    }
+
+    /**
+     * @param state name of {@link State}, empty for all threads
+     * @return query of the first page of the current view listing threads in the state
+     */
+    public String getStateQuery(String state) {
+        return query(order, state.isEmpty() ? null : State.valueOf(state), 0);
+    }
+
+    private String query(Order order, State state, int offset) {
+        StringBuilder query = new StringBuilder();
+        if (mode == View.table && order != Order.appearance) {
+            query.append('_').append(Constants.ORDER).append('-').append(order);
+        }
+        if (null != state) {
+            query.append('_').append(Constants.STATE).append('-').append(state);
+        }
+        if (0 < offset) {
+            query.append('_').append(Constants.OFFSET).append('-').append(offset);
+        }
+        if (DEFAULT_LIMIT != limit) {
+            query.append('_').append(Constants.LIMIT).append('-').append(limit);
+        }
+        return query.toString();
+    }
+
+    /**
+     * returns the page of the full view listing the thread, regardless of the state specified
+     *
+     * @param statistic       statistic
+     * @param fullThreadIndex index of the full thread dump
+     * @param threadId        thread id
+     * @return path of the page, without the anchor
+     */
+    public String getFullPage(ThreadStatistic statistic, int fullThreadIndex, String threadId) {
+        int index = null == threadId ? -1 : statistic.getFullThreadDump(fullThreadIndex).indexOf(threadId);
+        String page = "./full/index-" + fullThreadIndex + "_shrink-" + getShrinkIdle();
+        if (limit <= index) {
+            page += "_" + Constants.OFFSET + "-" + index / limit * limit;
+        }
+        if (DEFAULT_LIMIT != limit) {
+            page += "_" + Constants.LIMIT + "-" + limit;
+        }
+        return page + ".html";
+    }
+
     public int getFullThreadIndex() {
         return this.fullThreadIndex;
     }
@@ -73,6 +304,20 @@ public class ThreadFilter implements Serializable {
         this.fullThreadIndex = index;
     }
 
+    /**
+     * @return index of the full thread dump compared against in the diff view, the previous one unless specified
+     */
+    public int getBaseFullThreadIndex() {
+        return -1 == baseFullThreadIndex ? Math.max(0, fullThreadIndex - 1) : baseFullThreadIndex;
+    }
+
+    /**
+     * @param index index of the full thread dump compared against in the diff view, -1 for the previous one
+     */
+    public void setBaseFullThreadIndex(int index) {
+        this.baseFullThreadIndex = index;
+    }
+
     public String getThreadId() {
         return threadId;
     }
@@ -91,7 +336,10 @@ public class ThreadFilter implements Serializable {
         if (query.contains(Constants.MODE_SEQUENCE)) {
             mode = View.sequence;
         }
-        if (mode == View.full) {
+        if (query.contains(Constants.MODE_DIFF)) {
+            mode = View.diff;
+        }
+        if (mode == View.full || mode == View.diff) {
             String fullThreadIndex = getParameter(query, Constants.FULL_THREAD_INDEX);
             try {
                 if (null != fullThreadIndex) {
@@ -105,6 +353,53 @@ public class ThreadFilter implements Serializable {
                 setThreadId(threadId);
             }
         }
+        if (mode == View.diff) {
+            String baseIndex = getParameter(query, Constants.BASE_INDEX);
+            setBaseFullThreadIndex(-1);
+            try {
+                if (null != baseIndex) {
+                    setBaseFullThreadIndex(Integer.parseInt(baseIndex));
+                }
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        if (mode == View.table) {
+            String order = getParameter(query, Constants.ORDER);
+            setOrder(Order.appearance);
+            if (null != order) {
+                try {
+                    setOrder(Order.valueOf(order));
+                } catch (IllegalArgumentException ignore) {
+                }
+            }
+        }
+        // links to full thread dumps from other views are paged with the default limit
+        setLimit(DEFAULT_LIMIT);
+        if (mode == View.table || mode == View.full) {
+            String state = getParameter(query, Constants.STATE);
+            setState(null);
+            if (null != state) {
+                try {
+                    setState(State.valueOf(state));
+                } catch (IllegalArgumentException ignore) {
+                }
+            }
+            String offset = getParameter(query, Constants.OFFSET);
+            setOffset(0);
+            try {
+                if (null != offset) {
+                    setOffset(Integer.parseInt(offset));
+                }
+            } catch (NumberFormatException ignore) {
+            }
+            String limit = getParameter(query, Constants.LIMIT);
+            try {
+                if (null != limit) {
+                    setLimit(Integer.parseInt(limit));
+                }
+            } catch (NumberFormatException ignore) {
+            }
+        }
 
         String shrinkIdle = getParameter(query, Constants.SHRINK_IDLE);
         if (null != shrinkIdle) {
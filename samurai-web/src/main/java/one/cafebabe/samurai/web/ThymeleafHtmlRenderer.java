@@ -15,8 +15,12 @@
  */
 package one.cafebabe.samurai.web;
 
+import one.cafebabe.samurai.core.FrameTrie;
+import one.cafebabe.samurai.core.FullThreadDump;
+import one.cafebabe.samurai.core.Futures;
 import one.cafebabe.samurai.core.ThreadDump;
 import one.cafebabe.samurai.core.ThreadDumpSequence;
+import one.cafebabe.samurai.core.ThreadStateMatrix;
 import one.cafebabe.samurai.core.ThreadStatistic;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,18 +31,34 @@ import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
 
 import java.io.*;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class ThymeleafHtmlRenderer implements Constants {
     private final ResourceBundle resource = ResourceBundle.getBundle("one.cafebabe.samurai.web.messages");
     private String baseurl;
     private final Util util = new Util();
+    private HtmlWriter htmlWriter;
+    private int htmlWriterThreshold = Integer.MAX_VALUE;
 
-    ClassLoaderTemplateResolver resolver = getResolver();
+    /**
+     * thread-safe once configured, shared so that parsed templates stay cached across renderers
+     */
+    private static final TemplateEngine ENGINE = newEngine();
 
     public ThymeleafHtmlRenderer() {
         this(null);
@@ -57,12 +77,17 @@ public class ThymeleafHtmlRenderer implements Constants {
         if (this.baseurl.endsWith(".jar")) {
             this.baseurl = "jar:" + this.baseurl + "!/";
         }
+        htmlWriter = new HtmlWriter(resource, this.baseurl);
     }
 
     public String process(@NotNull String template, Context context) {
+        return ENGINE.process(template, context);
+    }
+
+    private static TemplateEngine newEngine() {
         TemplateEngine engine = new TemplateEngine();
-        engine.setTemplateResolver(resolver);
-        return engine.process(template, context);
+        engine.setTemplateResolver(getResolver());
+        return engine;
     }
 
 
@@ -78,7 +103,51 @@ public class ThymeleafHtmlRenderer implements Constants {
         return resolver;
     }
 
+    /**
+     * Views of statistics with at least the specified number of threads are written with {@link HtmlWriter} rather than templates.
+     *
+     * @param threads number of threads, {@link Integer#MAX_VALUE} to always use templates
+     */
+    public void setHtmlWriterThreshold(int threads) {
+        this.htmlWriterThreshold = threads;
+    }
+
     public String render(ThreadFilter filter, ThreadStatistic statistic, Map<String, Object> map) {
+        if (useHtmlWriter(filter, statistic)) {
+            StringWriter writer = new StringWriter();
+            try {
+                htmlWriter.write(filter, statistic, map, writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return writer.toString();
+        }
+        return process(filter.mode.name(), newContext(filter, statistic, map));
+    }
+
+    /**
+     * Renders the view as it is produced, without holding the whole page in memory.
+     *
+     * @param filter    filter specifying the view
+     * @param statistic statistic
+     * @param map       variables passed to the template
+     * @param writer    destination, not closed
+     * @throws IOException when write fails
+     */
+    public void render(ThreadFilter filter, ThreadStatistic statistic, Map<String, Object> map, Writer writer) throws IOException {
+        if (useHtmlWriter(filter, statistic)) {
+            htmlWriter.write(filter, statistic, map, writer);
+        } else {
+            ENGINE.process(filter.mode.name(), newContext(filter, statistic, map), writer);
+        }
+        writer.flush();
+    }
+
+    private boolean useHtmlWriter(ThreadFilter filter, ThreadStatistic statistic) {
+        return HtmlWriter.supports(filter.mode) && htmlWriterThreshold <= statistic.getStateMatrix().getRowCount();
+    }
+
+    private Context newContext(ThreadFilter filter, ThreadStatistic statistic, Map<String, Object> map) {
         Context context = new Context();
         context.setVariables(map);
         context.setVariable("resource", resource);
@@ -86,8 +155,7 @@ public class ThymeleafHtmlRenderer implements Constants {
         context.setVariable("filter", filter);
         context.setVariable("util", util);
         context.setVariable("baseurl", baseurl);
-
-        return process(filter.mode.name(), context);
+        return context;
     }
 
     public int length(Object[] array) {
@@ -95,67 +163,197 @@ public class ThymeleafHtmlRenderer implements Constants {
     }
 
 
+    /**
+     * Saves threadstatistic as html files, rendering pages in parallel on the common pool.<br>
+     *
+     * @param stats     statistics to be saved.
+     * @param directory Directory to save the html files.
+     * @param listener  listener to receive progress events
+     * @throws IOException when save action fails
+     */
+    public void saveTo(@NotNull ThreadStatistic stats, @NotNull File directory, @NotNull ProgressListener listener) throws IOException {
+        saveTo(stats, directory, listener, ForkJoinPool.commonPool());
+    }
+
     /**
      * Saves threadstatistic as html files.<br>
+     * A compact export, see {@link CompactExport}, is saved to the compact directory alongside.<br>
+     * Caches of the statistic are filled and the first page of each view is rendered on the calling thread
+     * so that they and the template are built once, the rest are rendered on the pool. Progress is reported on the calling thread as pages are written.
      *
      * @param stats     statistics to be saved.
      * @param directory Directory to save the html files.
      * @param listener  listener to receive progress events
+     * @param pool      the pool to render pages on
      * @throws IOException when save action fails
      */
     @SuppressWarnings("ResultOfMethodCallIgnored")
-    public void saveTo(@NotNull ThreadStatistic stats, @NotNull File directory, @NotNull ProgressListener listener) throws IOException {
+    public void saveTo(@NotNull ThreadStatistic stats, @NotNull File directory, @NotNull ProgressListener listener, @NotNull ExecutorService pool) throws IOException {
         File tableDir = new File(directory.getAbsolutePath() + File.separator + Constants.MODE_TABLE);
         File fullDir = new File(directory.getAbsolutePath() + File.separator + Constants.MODE_FULL);
         File sequenceDir = new File(directory.getAbsolutePath() + File.separator + Constants.MODE_SEQUENCE);
+        File diffDir = new File(directory.getAbsolutePath() + File.separator + Constants.MODE_DIFF);
         directory.mkdirs();
         tableDir.mkdirs();
         fullDir.mkdirs();
         sequenceDir.mkdirs();
-        ThreadFilter filter = new ThreadFilter();
-        ThreadDumpSequence[] st = stats.getStackTracesAsArray();
-        int count = stats.getFullThreadDumpCount() * 2 + st.length * 2 + 2;
+        diffDir.mkdirs();
+        stats.fillCaches();
+        List<Page> pages = getPages(stats);
+        int count = pages.size() + 2;
         int progress = 0;
         listener.notifyProgress(progress++, count);
         //save index page
         saveAs(directory, "index.html", "<html><head><meta http-equiv=\"Refresh\" content=\"0;URL=./table/index.html\"/></head><body></body></html>");
         listener.notifyProgress(progress++, count);
-        filter.mode = ThreadFilter.View.table;
-        filter.setThreadId(stats.getFirstThreadId());
-        filter.setFullThreadIndex(0);
         Map<String, Object> webContext = new HashMap<>();
         webContext.put("fontFamily", "Helvetica Neue");
         webContext.put("fontSize", "12");
-        //save table view
-        saveAs(directory, Constants.MODE_TABLE + "/index.html", stats, filter, webContext);
-        listener.notifyProgress(progress++, count);
-        //save full thread dump view
-        filter.setShrinkIdle(false);
-        filter.mode = ThreadFilter.View.full;
-        do {
-            for (int i = 0; i < stats.getFullThreadDumpCount(); i++) {
-                filter.setFullThreadIndex(i);
-                saveAs(directory, Constants.MODE_FULL + "/index-" + i + "_shrink-" + filter.getShrinkIdle() + ".html", stats, filter, webContext);
+
+        Set<ThreadFilter.View> warmed = EnumSet.noneOf(ThreadFilter.View.class);
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(pool);
+        List<Future<Void>> futures = new ArrayList<>(pages.size());
+        try {
+            for (Page page : pages) {
+                if (warmed.add(page.filter.mode)) {
+                    saveAs(directory, page.fileName, stats, page.filter, webContext);
+                    listener.notifyProgress(progress++, count);
+                } else {
+                    futures.add(completionService.submit(() -> {
+                        saveAs(directory, page.fileName, stats, page.filter, webContext);
+                        return null;
+                    }));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                completionService.take().get();
                 listener.notifyProgress(progress++, count);
             }
-            filter.setShrinkIdle(!filter.getShrinkIdle());
-        } while (filter.getShrinkIdle());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Futures.rethrow(e);
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
 
-        //save sequence thread dump view
-        filter.setShrinkIdle(false);
-        filter.mode = ThreadFilter.View.sequence;
-        do {
+        //save flame graph and collapsed stacks
+        FrameTrie trie = new FrameTrie();
+        for (FullThreadDump fullThreadDump : stats.getFullThreadDumps()) {
+            trie.onFullThreadDump(fullThreadDump);
+        }
+        try (Writer writer = newWriter(directory, FLAME_GRAPH + ".html")) {
+            FlameGraph.write(trie, resource.getString("web.flameGraph"), writer);
+        }
+        try (Writer writer = newWriter(directory, FLAME_GRAPH + ".txt")) {
+            trie.writeCollapsed(writer);
+        }
+        //save compact export
+        CompactExport.saveTo(stats, new File(directory, COMPACT));
+        listener.notifyProgress(progress, count);
+    }
+
+    /**
+     * @param stats statistics to be saved
+     * @return pages of the table, full, diff and sequence views, each with its own filter
+     */
+    private static List<Page> getPages(ThreadStatistic stats) {
+        List<Page> pages = new ArrayList<>();
+        int fullThreadDumpCount = stats.getFullThreadDumpCount();
+        //table view, a page per order, state and window
+        for (ThreadFilter.Order order : ThreadFilter.Order.values()) {
+            for (int state = -1; state < ThreadFilter.State.values().length; state++) {
+                ThreadFilter filter = newFilter(ThreadFilter.View.table, true);
+                filter.setThreadId(stats.getFirstThreadId());
+                filter.setOrder(order);
+                filter.setState(-1 == state ? null : ThreadFilter.State.values()[state]);
+                addWindows(pages, stats, filter, Constants.MODE_TABLE + "/index");
+            }
+        }
+        //full thread dump view
+        for (boolean shrinkIdle : new boolean[]{false, true}) {
+            for (int i = 0; i < fullThreadDumpCount; i++) {
+                ThreadFilter filter = newFilter(ThreadFilter.View.full, shrinkIdle);
+                filter.setFullThreadIndex(i);
+                addWindows(pages, stats, filter, Constants.MODE_FULL + "/index-" + i + "_shrink-" + shrinkIdle);
+            }
+        }
+        //diff view, each full thread dump against the previous one
+        for (int i = 1; i < fullThreadDumpCount; i++) {
+            ThreadFilter filter = newFilter(ThreadFilter.View.diff, false);
+            filter.setFullThreadIndex(i);
+            filter.setBaseFullThreadIndex(i - 1);
+            pages.add(new Page(Constants.MODE_DIFF + "/" + Constants.FULL_THREAD_INDEX + "-" + i + "_" + Constants.BASE_INDEX + "-" + (i - 1) + ".html", filter));
+        }
+        //sequence thread dump view
+        ThreadDumpSequence[] st = stats.getStackTracesAsArray();
+        for (boolean shrinkIdle : new boolean[]{false, true}) {
             for (ThreadDumpSequence aSt : st) {
+                ThreadFilter filter = newFilter(ThreadFilter.View.sequence, shrinkIdle);
                 filter.setThreadId(aSt.getId());
-                saveAs(directory, Constants.MODE_SEQUENCE + "/threadId-" + filter.getThreadId() + "_shrink-" + filter.getShrinkIdle() + ".html", stats, filter, webContext);
-                listener.notifyProgress(progress++, count);
+                pages.add(new Page(Constants.MODE_SEQUENCE + "/threadId-" + filter.getThreadId() + "_shrink-" + shrinkIdle + ".html", filter));
             }
-            filter.setShrinkIdle(!filter.getShrinkIdle());
-        } while (filter.getShrinkIdle());
+        }
+        return pages;
+    }
+
+    /**
+     * adds pages listing the threads of the filter, a window of {@link ThreadFilter#getLimit()} threads each
+     *
+     * @param path path of the view, followed by the query of each window
+     */
+    private static void addWindows(List<Page> pages, ThreadStatistic stats, ThreadFilter filter, String path) {
+        int count = filter.getThreadCount(stats);
+        int offset = 0;
+        do {
+            ThreadFilter window = copy(filter);
+            window.setOffset(offset);
+            pages.add(new Page(path + window.getOffsetQuery(offset) + ".html", window));
+            offset += filter.getLimit();
+        } while (offset < count);
+    }
+
+    private static ThreadFilter copy(ThreadFilter filter) {
+        ThreadFilter copy = newFilter(filter.mode, filter.getShrinkIdle());
+        copy.setThreadId(filter.getThreadId());
+        copy.setFullThreadIndex(filter.getFullThreadIndex());
+        copy.setOrder(filter.getOrder());
+        copy.setState(filter.getState());
+        copy.setLimit(filter.getLimit());
+        return copy;
+    }
+
+    private static ThreadFilter newFilter(ThreadFilter.View mode, boolean shrinkIdle) {
+        ThreadFilter filter = new ThreadFilter();
+        filter.mode = mode;
+        filter.setShrinkIdle(shrinkIdle);
+        return filter;
+    }
+
+    /**
+     * a page to be saved and the filter it is rendered with
+     */
+    private static final class Page {
+        private final String fileName;
+        private final ThreadFilter filter;
+
+        private Page(String fileName, ThreadFilter filter) {
+            this.fileName = fileName;
+            this.filter = filter;
+        }
     }
 
     public void saveAs(File dir, String fileName, ThreadStatistic stats, ThreadFilter filter, Map<String, Object> webContext) throws IOException {
-        saveAs(dir, fileName, render(filter, stats, webContext));
+        try (Writer writer = newWriter(dir, fileName)) {
+            render(filter, stats, webContext, writer);
+        }
+    }
+
+    private static Writer newWriter(File dir, String fileName) throws IOException {
+        return Files.newBufferedWriter(dir.toPath().resolve(fileName), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
     }
 
     public void saveAs(File dir, String fileName, String utf8Content) throws IOException {
@@ -165,19 +363,19 @@ public class ThymeleafHtmlRenderer implements Constants {
     public static class Util {
 
         public String threadDumpToClass(ThreadDump threadDump) {
-            if (threadDump == null) {
-                return "notexist";
-            }
-            if (threadDump.isBlocked()) {
-                return "blocked";
-            }
-            if (threadDump.isBlocking()) {
-                return "blocking";
-            }
-            if (threadDump.isIdle()) {
-                return "idle";
+            switch (ThreadStateMatrix.stateOf(threadDump)) {
+                case ThreadStateMatrix.ABSENT:
+                    return "notexist";
+                case ThreadStateMatrix.BLOCKED:
+                case ThreadStateMatrix.DEADLOCKED:
+                    return "blocked";
+                case ThreadStateMatrix.BLOCKING:
+                    return "blocking";
+                case ThreadStateMatrix.IDLE:
+                    return "idle";
+                default:
+                    return "normal";
             }
-            return "normal";
         }
 
         public String threadDumpToImageSrc(ThreadDump threadDump, int count, ThreadDumpSequence sequence) {
@@ -194,42 +392,163 @@ public class ThymeleafHtmlRenderer implements Constants {
         }
 
         public String threadDumpToClassName(ThreadDump threadDump) {
-            if (threadDump == null) {
-                return "back-notexist";
+            return stateToClassName(ThreadStateMatrix.stateOf(threadDump));
+        }
+
+        /**
+         * @param cell {@link ThreadStateMatrix} cell
+         * @return css class name for the table view
+         */
+        public String stateToClassName(int cell) {
+            switch (cell & ThreadStateMatrix.STATE_MASK) {
+                case ThreadStateMatrix.ABSENT:
+                    return "back-notexist";
+                case ThreadStateMatrix.BLOCKED:
+                case ThreadStateMatrix.DEADLOCKED:
+                    return "back-blocked";
+                case ThreadStateMatrix.BLOCKING:
+                    return "back-blocking";
+                case ThreadStateMatrix.IDLE:
+                    return "back-idle";
+                default:
+                    return "back-normal";
+            }
+        }
+
+        /**
+         * @param cell {@link ThreadStateMatrix} cell
+         * @return message key suffix of the state, e.g. "running" for web.running
+         */
+        public String stateToName(int cell) {
+            switch (cell & ThreadStateMatrix.STATE_MASK) {
+                case ThreadStateMatrix.ABSENT:
+                    return "absent";
+                case ThreadStateMatrix.BLOCKED:
+                    return "blocked";
+                case ThreadStateMatrix.DEADLOCKED:
+                    return "deadlocked";
+                case ThreadStateMatrix.BLOCKING:
+                    return "blocking";
+                case ThreadStateMatrix.IDLE:
+                    return "idle";
+                default:
+                    return "running";
+            }
+        }
+
+        /**
+         * @param cell {@link ThreadStateMatrix} cell
+         * @return image file name for the table view
+         */
+        public String stateToImageSrc(int cell) {
+            int state = cell & ThreadStateMatrix.STATE_MASK;
+            if (state == ThreadStateMatrix.ABSENT) {
+                return "space.gif";
             }
-            if (threadDump.isBlocked()) {
-                return "back-blocked";
+            if (state == ThreadStateMatrix.DEADLOCKED) {
+                return "deadlocked.gif";
             }
+            if (0 != (cell & ThreadStateMatrix.SAME_AS_BEFORE)) {
+                return "same-h.gif";
+            }
+            return "space.gif";
+        }
 
-            if (threadDump.isBlocking()) {
-                return "back-blocking";
+        /**
+         * @param cpuRate CPU usage in percent
+         * @return formatted CPU usage, empty if not available
+         */
+        public String formatCpuRate(double cpuRate) {
+            if (cpuRate < 0) {
+                return "";
             }
+            return String.format("%.1f%%", cpuRate);
+        }
 
-            if (threadDump.isIdle()) {
-                return "back-idle";
+        /**
+         * returns the anchor of the thread dump in the sequence page of its thread, i.e. its position in the sequence starting with 1
+         *
+         * @param stats           statistic
+         * @param threadDump      thread dump
+         * @param fullThreadIndex index of the full thread dump the thread dump is in, used for threads no longer alive
+         * @return anchor in the sequence page
+         */
+        public int sequenceAnchorOf(ThreadStatistic stats, ThreadDump threadDump, int fullThreadIndex) {
+            if (stats.containsThread(threadDump.getId())) {
+                int position = stats.getStackTracesById(threadDump.getId()).indexOf(threadDump);
+                if (-1 != position) {
+                    return position + 1;
+                }
             }
-            return "back-normal";
+            return fullThreadIndex + 1;
         }
 
+        /**
+         * tests if the thread dumps are the same instance, as ThreadDump.equals() compares stacks
+         *
+         * @param threadDump1 thread dump
+         * @param threadDump2 thread dump
+         * @return true if same instance
+         */
+        public boolean isSameThreadDump(ThreadDump threadDump1, ThreadDump threadDump2) {
+            return threadDump1 == threadDump2;
+        }
+
+        /**
+         * @param from text
+         * @return text escaped for both element content and attribute values
+         */
         public String escape(String from) {
-            int lessThanIndex = from.indexOf("<");
-            int greaterThanIndex = from.indexOf(">");
-            if (-1 == lessThanIndex && -1 == greaterThanIndex) {
+            int i = 0;
+            while (i < from.length() && null == replacementOf(from.charAt(i))) {
+                i++;
+            }
+            if (i == from.length()) {
                 return from;
             }
-            StringBuilder to = new StringBuilder(from);
-            while (-1 != lessThanIndex) {
-                to.replace(lessThanIndex, lessThanIndex + 1, "&lt;");
-                lessThanIndex = to.indexOf("<", lessThanIndex + 4);
-                if (greaterThanIndex != -1) {
-                    greaterThanIndex += 3;
+            StringWriter to = new StringWriter(from.length() + 16);
+            try {
+                escape(to, from);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            return to.toString();
+        }
+
+        /**
+         * writes text escaped for both element content and attribute values
+         *
+         * @param out  writer
+         * @param text text
+         * @throws IOException - If an I/O error occurs
+         */
+        /*package*/
+        static void escape(Writer out, String text) throws IOException {
+            int written = 0;
+            for (int i = 0; i < text.length(); i++) {
+                String replacement = replacementOf(text.charAt(i));
+                if (null != replacement) {
+                    out.write(text, written, i - written);
+                    out.write(replacement);
+                    written = i + 1;
                 }
             }
-            while (-1 != greaterThanIndex) {
-                to.replace(greaterThanIndex, greaterThanIndex + 1, "&gt;");
-                greaterThanIndex = to.indexOf(">", greaterThanIndex + 4);
+            out.write(text, written, text.length() - written);
+        }
+
+        private static String replacementOf(char c) {
+            switch (c) {
+                case '<':
+                    return "&lt;";
+                case '>':
+                    return "&gt;";
+                case '&':
+                    return "&amp;";
+                case '"':
+                    return "&quot;";
+                default:
+                    return null;
             }
-            return to.toString();
         }
     }
 }
\ No newline at end of file
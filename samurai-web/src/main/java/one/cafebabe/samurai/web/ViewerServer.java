@@ -0,0 +1,392 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import one.cafebabe.samurai.core.FrameTrie;
+import one.cafebabe.samurai.core.FullThreadDump;
+import one.cafebabe.samurai.core.ThreadDumpExtractor;
+import one.cafebabe.samurai.core.ThreadDumpSequence;
+import one.cafebabe.samurai.core.ThreadPoolStatistic;
+import one.cafebabe.samurai.core.ThreadStatistic;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+import org.json.JSONStringer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+/**
+ * Serves the table, full, sequence and diff views of a statistic over HTTP, at the same paths as {@link ThymeleafHtmlRenderer#saveTo(ThreadStatistic, File, ProgressListener)} saves them.<br>
+ * Pages are rendered on first request and cached by view, thread dump index, thread id, shrink, order, state and window,
+ * with an ETag and Last-Modified so that browsers revalidate rather than download them again.
+ * The statistic is summarized as JSON at /statistic.json.
+ * <p>
+ * The statistic is expected not to change while served.
+ */
+public final class ViewerServer implements Constants {
+    /**
+     * number of rendered pages kept, least recently used first out
+     */
+    private static final int MAX_CACHED_PAGES = 1024;
+    private static final String RESOURCE_ROOT = "/one/cafebabe/samurai/web";
+
+    private final ThreadStatistic statistic;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ThymeleafHtmlRenderer renderer = new ThymeleafHtmlRenderer("/");
+    private final ResourceBundle resource = ResourceBundle.getBundle("one.cafebabe.samurai.web.messages");
+    private final Map<String, Object> webContext = new HashMap<>();
+    // seconds precision, as in HTTP dates
+    private final long lastModified = System.currentTimeMillis() / 1000 * 1000;
+    private final Map<String, Page> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        private static final long serialVersionUID = -2829326478003806530L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+            return MAX_CACHED_PAGES < size();
+        }
+    };
+
+    /**
+     * @param statistic statistic to be served
+     * @param address   address to listen on, port 0 for an ephemeral port
+     * @throws IOException - If an I/O error occurs
+     */
+    public ViewerServer(@NotNull ThreadStatistic statistic, @NotNull InetSocketAddress address) throws IOException {
+        this.statistic = statistic;
+        // handlers read the statistic on several threads
+        statistic.fillCaches();
+        webContext.put("fontFamily", "Helvetica Neue");
+        webContext.put("fontSize", "12");
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "samurai-viewer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Serves with {@link HtmlWriter} rather than templates once the statistic has the specified number of threads.
+     *
+     * @param threads number of threads
+     */
+    public void setHtmlWriterThreshold(int threads) {
+        renderer.setHtmlWriterThreshold(threads);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * stops serving and releases the port
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * @return address the server listens on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            if ("/".equals(path) || "/index.html".equals(path)) {
+                exchange.getResponseHeaders().set("Location", "/" + MODE_TABLE + "/index.html");
+                exchange.sendResponseHeaders(302, -1);
+                return;
+            }
+            Page page = getPage(path);
+            if (null == page) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            send(exchange, page);
+        }
+    }
+
+    /**
+     * @param path request path
+     * @return page at the path, null if not found
+     */
+    /*package*/ Page getPage(String path) throws IOException {
+        if (path.contains("..")) {
+            return null;
+        }
+        if (path.startsWith("/css/") || path.startsWith("/images/")) {
+            return getResource(path);
+        }
+        if (("/" + FLAME_GRAPH + ".html").equals(path)) {
+            return getCached(FLAME_GRAPH, "text/html; charset=UTF-8", out -> {
+                FrameTrie trie = new FrameTrie();
+                for (FullThreadDump fullThreadDump : statistic.getFullThreadDumps()) {
+                    trie.onFullThreadDump(fullThreadDump);
+                }
+                FlameGraph.write(trie, resource.getString("web.flameGraph"), out);
+            });
+        }
+        if ("/statistic.json".equals(path)) {
+            return getCached("json", "application/json; charset=UTF-8", this::writeJSON);
+        }
+        if (!path.startsWith("/" + MODE_TABLE + "/") && !path.startsWith("/" + MODE_FULL + "/")
+                && !path.startsWith("/" + MODE_SEQUENCE + "/") && !path.startsWith("/" + MODE_DIFF + "/")) {
+            return null;
+        }
+        ThreadFilter filter = new ThreadFilter();
+        filter.setQuery(path);
+        String key;
+        switch (filter.mode) {
+            case full:
+                if (!isValidIndex(filter.getFullThreadIndex())) {
+                    return null;
+                }
+                key = filter.mode + "/" + filter.getFullThreadIndex() + filter.getOffsetQuery(filter.getOffset());
+                break;
+            case diff:
+                if (!isValidIndex(filter.getFullThreadIndex()) || !isValidIndex(filter.getBaseFullThreadIndex())) {
+                    return null;
+                }
+                key = filter.mode + "/" + filter.getFullThreadIndex() + "/" + filter.getBaseFullThreadIndex();
+                break;
+            case sequence:
+                if (!statistic.containsThread(filter.getThreadId())) {
+                    return null;
+                }
+                key = filter.mode + "/" + filter.getThreadId();
+                break;
+            default:
+                filter.setThreadId(statistic.getFirstThreadId());
+                key = filter.mode + "/" + filter.getOffsetQuery(filter.getOffset());
+        }
+        return getCached(key + "/" + filter.getShrinkIdle(), "text/html; charset=UTF-8",
+                out -> renderer.render(filter, statistic, webContext, out));
+    }
+
+    private boolean isValidIndex(int index) {
+        return 0 <= index && index < statistic.getFullThreadDumpCount();
+    }
+
+    @FunctionalInterface
+    private interface Content {
+        void write(Writer out) throws IOException;
+    }
+
+    private Page getCached(String key, String contentType, Content content) throws IOException {
+        synchronized (cache) {
+            Page page = cache.get(key);
+            if (null != page) {
+                return page;
+            }
+        }
+        // rendered outside the lock, a page requested twice at once is rendered twice
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer out = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            content.write(out);
+        }
+        Page page = new Page(contentType, bytes.toByteArray());
+        synchronized (cache) {
+            cache.put(key, page);
+        }
+        return page;
+    }
+
+    private Page getResource(String path) throws IOException {
+        try (InputStream is = ViewerServer.class.getResourceAsStream(RESOURCE_ROOT + path)) {
+            if (null == is) {
+                return null;
+            }
+            return new Page(path.endsWith(".css") ? "text/css; charset=UTF-8" : path.endsWith(".gif") ? "image/gif" : "application/octet-stream",
+                    is.readAllBytes());
+        }
+    }
+
+    private void send(HttpExchange exchange, Page page) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", page.contentType);
+        exchange.getResponseHeaders().set("ETag", page.etag);
+        exchange.getResponseHeaders().set("Last-Modified", formatDate(lastModified));
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (isNotModified(exchange, page)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, page.body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(page.body);
+        }
+    }
+
+    private boolean isNotModified(HttpExchange exchange, Page page) {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (null != ifNoneMatch) {
+            for (String etag : ifNoneMatch.split(",")) {
+                String trimmed = etag.trim();
+                if ("*".equals(trimmed) || page.etag.equals(trimmed) || page.etag.equals(trimmed.replaceFirst("^W/", ""))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (null != ifModifiedSince) {
+            try {
+                return lastModified <= ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch (DateTimeParseException ignore) {
+            }
+        }
+        return false;
+    }
+
+    private static String formatDate(long millis) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC));
+    }
+
+    /**
+     * writes full thread dumps, threads with their state in each full thread dump, and thread pools
+     */
+    private void writeJSON(Writer out) throws IOException {
+        ThymeleafHtmlRenderer.Util util = new ThymeleafHtmlRenderer.Util();
+        try {
+            JSONStringer json = new JSONStringer();
+            json.object().key("evictedFullThreadDumpCount").value(statistic.getEvictedFullThreadDumpCount());
+            json.key("fullThreadDumps").array();
+            for (FullThreadDump fullThreadDump : statistic.getFullThreadDumps()) {
+                json.object()
+                        .key("header").value(fullThreadDump.getHeader())
+                        .key("threadCount").value(fullThreadDump.getThreadCount())
+                        .key("deadlocked").value(fullThreadDump.isDeadLocked());
+                if (null != fullThreadDump.getNodeId()) {
+                    json.key("nodeId").value(fullThreadDump.getNodeId());
+                }
+                json.endObject();
+            }
+            json.endArray().key("threads").array();
+            for (ThreadDumpSequence sequence : statistic.getStackTracesAsArray()) {
+                json.object().key("id").value(sequence.getId()).key("name").value(sequence.getName());
+                if (0 <= sequence.getCpuRate()) {
+                    json.key("cpuRate").value(sequence.getCpuRate());
+                }
+                json.key("states").array();
+                for (int i = 0; i < statistic.getFullThreadDumpCount(); i++) {
+                    json.value(util.stateToName(sequence.getState(i)));
+                }
+                json.endArray().endObject();
+            }
+            json.endArray().key("threadPools").array();
+            for (ThreadPoolStatistic.ThreadPool threadPool : statistic.getThreadPools().getThreadPools(2)) {
+                json.object()
+                        .key("name").value(threadPool.getName())
+                        .key("peakSize").value(threadPool.getPeakSize())
+                        .key("peakBusy").value(threadPool.getPeakBusy())
+                        .endObject();
+            }
+            json.endArray().endObject();
+            out.write(json.toString());
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * rendered response body
+     */
+    /*package*/ static final class Page {
+        private final String contentType;
+        private final byte[] body;
+        private final String etag;
+
+        private Page(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            this.etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length) + "\"";
+        }
+
+        /*package*/ String getContentType() {
+            return contentType;
+        }
+
+        /*package*/ byte[] getBody() {
+            return body;
+        }
+
+        /*package*/ String getETag() {
+            return etag;
+        }
+    }
+
+    /**
+     * Serves thread dump files until interrupted.<br>
+     * usage: ViewerServer port file...
+     *
+     * @param args port and thread dump files
+     * @throws IOException - If an I/O error occurs
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: ViewerServer port file...");
+            System.exit(1);
+        }
+        ThreadStatistic statistic = new ThreadStatistic();
+        ThreadDumpExtractor extractor = new ThreadDumpExtractor(statistic);
+        for (int i = 1; i < args.length; i++) {
+            extractor.analyze(new File(args[i]));
+        }
+        ViewerServer server = new ViewerServer(statistic, new InetSocketAddress(Integer.parseInt(args[0])));
+        server.start();
+        System.out.println("Serving " + statistic.getFullThreadDumpCount() + " thread dumps at http://localhost:"
+                + server.getAddress().getPort() + "/");
+    }
+}
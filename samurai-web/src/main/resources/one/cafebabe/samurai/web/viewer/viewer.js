@@ -0,0 +1,307 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Renders the table, full and sequence views of data.js, written by one.cafebabe.samurai.web.CompactExport.
+ * Views are virtual: only rows in sight, plus a margin, are turned into elements as the view scrolls.
+ * Routes: #table, #table/cpu, #full/<thread dump index>, #sequence/<thread index>
+ */
+(function () {
+    'use strict';
+    var STATE_MASK = 0x0f;
+    var SAME_AS_BEFORE = 0x10;
+    var DEADLOCKED = 5;
+    // ThreadStateMatrix codes: ABSENT, NORMAL, IDLE, BLOCKING, BLOCKED, DEADLOCKED
+    var STATE_CLASSES = ['notexist', 'normal', 'idle', 'blocking', 'blocked', 'blocked'];
+    var ROW_HEIGHT = 18;
+    var LINE_HEIGHT = 16;
+    var OVERSCAN = 400;
+
+    var nav = document.getElementById('nav');
+    var view = document.getElementById('view');
+    var content = document.getElementById('content');
+    // threads listed first in data.threads are live, the rest are gone by the latest thread dump
+    var data, states, dumpCount, threadCount, liveCount, byCpu;
+    // per thread dump, thread index to position in dumps[i].threads, built on first use
+    var positions = [];
+    // the virtual list in sight: offsets of items and a function rendering an item
+    var list = null;
+    var drawPending = false;
+
+    window.samurai = function (exported) {
+        data = exported;
+        dumpCount = data.dumps.length;
+        threadCount = data.threads.length;
+        liveCount = data.live;
+        var binary = atob(data.states);
+        states = new Uint8Array(binary.length);
+        for (var i = 0; i < binary.length; i++) {
+            states[i] = binary.charCodeAt(i);
+        }
+        view.addEventListener('scroll', scheduleDraw);
+        window.addEventListener('resize', scheduleDraw);
+        window.addEventListener('hashchange', route);
+        route();
+    };
+
+    function route() {
+        var hash = location.hash.replace(/^#/, '').split('/');
+        if ('full' === hash[0] && 0 < dumpCount) {
+            full(clamp(parseInt(hash[1], 10) || 0, dumpCount));
+        } else if ('sequence' === hash[0] && 0 < threadCount) {
+            sequence(clamp(parseInt(hash[1], 10) || 0, threadCount));
+        } else {
+            table('cpu' === hash[1]);
+        }
+    }
+
+    function table(orderByCpu) {
+        var order = orderByCpu ? cpuOrder() : null;
+        var html = [link('#table', escape(message('table'))), link('#full/0', escape(message('threadDump')))];
+        html.push('<br>', legend('normal', 'running'), legend('idle', 'idle'), legend('blocking', 'blocking'),
+            legend('blocked', 'blocked'), legend('notexist', 'absent'), '<span>= ' + escape(message('same')) + '</span>',
+            '<span>! ' + escape(message('deadlocked')) + '</span>');
+        nav.innerHTML = html.join('');
+
+        var header = ['<span class="name"></span><span class="cpu">',
+            link(orderByCpu ? '#table' : '#table/cpu', escape(message('cpu'))), '</span>'];
+        for (var d = 0; d < dumpCount; d++) {
+            header.push('<span class="cell">', link('#full/' + d, String(data.evicted + d + 1)), '</span>');
+        }
+        show('', liveCount + 1, function () {
+            return ROW_HEIGHT;
+        }, function (i) {
+            if (0 === i) {
+                return '<div class="header">' + header.join('') + '</div>';
+            }
+            var t = null === order ? i - 1 : order[i - 1];
+            var thread = data.threads[t];
+            var row = ['<span class="name">', link('#sequence/' + t, escape(thread.name)), '</span><span class="cpu back-normal">',
+                undefined === thread.cpu ? '' : thread.cpu + '%', '</span>'];
+            for (var d = 0; d < dumpCount; d++) {
+                var cell = state(t, d);
+                var mark = DEADLOCKED === (cell & STATE_MASK) ? '!' : 0 !== (cell & SAME_AS_BEFORE) ? '=' : '&nbsp;';
+                row.push('<span class="cell back-', STATE_CLASSES[cell & STATE_MASK], '">', link('#sequence/' + t + '/' + d, mark), '</span>');
+            }
+            return row.join('');
+        });
+    }
+
+    function full(d) {
+        var dump = data.dumps[d];
+        var threads = dump.threads;
+        var count = threads.length / 3;
+        // threads sharing a stack, and the first of them, which lists it
+        var shared = {};
+        var firstOf = {};
+        for (var i = 0; i < count; i++) {
+            var stack = threads[i * 3 + 2];
+            shared[stack] = (shared[stack] || 0) + 1;
+            if (undefined === firstOf[stack]) {
+                firstOf[stack] = i;
+            }
+        }
+        var html = [link('#table', escape(message('table'))), pager('#full/', d, dumpCount), '<span>' + (d + 1) + '/' + dumpCount + '</span>',
+            '<br><span>' + escape(dump.header) + '</span>'];
+        nav.innerHTML = html.join('');
+
+        show('lines', count, function (i) {
+            var stack = threads[i * 3 + 2];
+            var lines = firstOf[stack] !== i ? 1 : (1 < shared[stack] ? 1 : 0) + data.stacks[stack].length;
+            return (lines + 2) * LINE_HEIGHT;
+        }, function (i) {
+            var t = threads[i * 3];
+            var stack = threads[i * 3 + 2];
+            var lines = [threadLine(t, d, threads[i * 3 + 1])];
+            if (firstOf[stack] !== i) {
+                var first = threads[firstOf[stack] * 3];
+                lines.push(escape(message('sameStackAs')) + ' "' + escape(threadName(first)) + '"');
+            } else {
+                if (1 < shared[stack]) {
+                    lines.push(shared[stack] + ' ' + escape(message('identicalStack')));
+                }
+                pushStack(lines, stack);
+            }
+            return lines.join('\n');
+        });
+    }
+
+    function sequence(t) {
+        var thread = data.threads[t];
+        var html = [link('#table', escape(message('table'))), link('#full/0', escape(message('threadDump'))), pager('#sequence/', t, threadCount),
+            '<br><span>"' + escape(thread.name) + '"' + (undefined === thread.cpu ? '' : ' ' + escape(message('cpu')) + ' ' + thread.cpu + '%') + '</span>'];
+        nav.innerHTML = html.join('');
+
+        show('lines', dumpCount, function (d) {
+            var p = position(d, t);
+            return (-1 === p ? 3 : 3 + data.stacks[data.dumps[d].threads[p * 3 + 2]].length) * LINE_HEIGHT;
+        }, function (d) {
+            var p = position(d, t);
+            var lines = [link('#full/' + d, escape(message('threadDump')) + ' ' + (d + 1) + '/' + dumpCount)];
+            if (-1 === p) {
+                lines.push(escape(thread.name) + ' ' + escape(message('absent')));
+            } else {
+                var threads = data.dumps[d].threads;
+                lines.push(threadLine(t, d, threads[p * 3 + 1]) + (0 !== (state(t, d) & SAME_AS_BEFORE) ? ' =' : ''));
+                pushStack(lines, threads[p * 3 + 2]);
+            }
+            return lines.join('\n');
+        });
+        var hash = location.hash.split('/');
+        if (3 <= hash.length) {
+            // scrolls to the thread dump clicked in the table view
+            view.scrollTop = list.offsets[clamp(parseInt(hash[2], 10) || 0, dumpCount)];
+        }
+    }
+
+    function threadLine(t, d, condition) {
+        var cell = state(t, d);
+        return '<span class="' + STATE_CLASSES[cell & STATE_MASK] + '">"' + link('#sequence/' + t, escape(threadName(t))) + '" '
+            + (DEADLOCKED === (cell & STATE_MASK) ? '! ' : '') + escape(data.strings[condition]) + '</span>';
+    }
+
+    function pushStack(lines, stack) {
+        var ids = data.stacks[stack];
+        for (var i = 0; i < ids.length; i++) {
+            lines.push(escape(data.strings[ids[i]]));
+        }
+    }
+
+    /**
+     * replaces the list in sight
+     *
+     * @param className class of the content
+     * @param count number of items
+     * @param height function returning the height of an item in pixels
+     * @param render function returning the html of an item
+     */
+    function show(className, count, height, render) {
+        var offsets = new Float64Array(count + 1);
+        for (var i = 0; i < count; i++) {
+            offsets[i + 1] = offsets[i] + height(i);
+        }
+        list = {offsets: offsets, count: count, height: height, render: render, first: -1, last: -1};
+        content.className = className;
+        content.style.height = offsets[count] + 'px';
+        view.scrollTop = 0;
+        draw();
+    }
+
+    function scheduleDraw() {
+        if (!drawPending) {
+            drawPending = true;
+            window.requestAnimationFrame(draw);
+        }
+    }
+
+    function draw() {
+        drawPending = false;
+        if (null === list || 0 === list.count) {
+            content.innerHTML = '';
+            return;
+        }
+        var first = indexAt(view.scrollTop - OVERSCAN);
+        var last = indexAt(view.scrollTop + view.clientHeight + OVERSCAN);
+        if (first === list.first && last === list.last) {
+            return;
+        }
+        list.first = first;
+        list.last = last;
+        var html = [];
+        for (var i = first; i <= last; i++) {
+            html.push('<div class="row" style="top:' + list.offsets[i] + 'px;height:' + list.height(i) + 'px">' + list.render(i) + '</div>');
+        }
+        content.innerHTML = html.join('');
+    }
+
+    // index of the item at the offset, by binary search
+    function indexAt(offset) {
+        var low = 0;
+        var high = list.count - 1;
+        while (low < high) {
+            var middle = (low + high + 1) >>> 1;
+            if (list.offsets[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    function position(d, t) {
+        var index = positions[d];
+        if (undefined === index) {
+            index = positions[d] = new Int32Array(threadCount).fill(-1);
+            var threads = data.dumps[d].threads;
+            for (var i = 0; i < threads.length; i += 3) {
+                index[threads[i]] = i / 3;
+            }
+        }
+        return index[t];
+    }
+
+    function cpuOrder() {
+        if (undefined === byCpu) {
+            byCpu = [];
+            for (var t = 0; t < liveCount; t++) {
+                byCpu.push(t);
+            }
+            // busiest first, threads without CPU time in order of appearance
+            byCpu.sort(function (a, b) {
+                var cpuA = undefined === data.threads[a].cpu ? -1 : data.threads[a].cpu;
+                var cpuB = undefined === data.threads[b].cpu ? -1 : data.threads[b].cpu;
+                return cpuB - cpuA || a - b;
+            });
+        }
+        return byCpu;
+    }
+
+    function state(t, d) {
+        return states[t * dumpCount + d];
+    }
+
+    function threadName(t) {
+        return data.threads[t].name;
+    }
+
+    function pager(prefix, index, count) {
+        return (0 < index ? link(prefix + (index - 1), escape(message('previous'))) : '<span>' + escape(message('previous')) + '</span>')
+            + (index < count - 1 ? link(prefix + (index + 1), escape(message('next'))) : '<span>' + escape(message('next')) + '</span>');
+    }
+
+    function legend(state, key) {
+        return '<span><span class="cell back-' + state + '">&nbsp;</span>' + escape(message(key)) + '</span>';
+    }
+
+    function message(key) {
+        return data.messages[key] || key;
+    }
+
+    function link(href, html) {
+        return '<a href="' + escape(href) + '">' + html + '</a>';
+    }
+
+    function clamp(value, count) {
+        return Math.max(0, Math.min(count - 1, value));
+    }
+
+    function escape(text) {
+        return String(text).replace(/[&<>"]/g, function (c) {
+            return {'&': '&amp;', '<': '&lt;', '>': '&gt;', '"': '&quot;'}[c];
+        });
+    }
+})();
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.web;
+
+import one.cafebabe.samurai.core.ThreadDumpExtractor;
+import one.cafebabe.samurai.core.ThreadStateMatrix;
+import one.cafebabe.samurai.core.ThreadStatistic;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.ResourceBundle;
+import java.util.Set;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TestCompactExport {
+
+    @Test
+    void write() throws Exception {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(TestCompactExport.class.getResourceAsStream("/Sun/1.4.2_03Sunstacked.dmp"));
+        StringWriter out = new StringWriter();
+        CompactExport.write(statistic, ResourceBundle.getBundle("one.cafebabe.samurai.web.messages"), out);
+        JSONObject json = new JSONObject(out.toString());
+
+        Assertions.assertEquals(CompactExport.VERSION, json.getInt("version"));
+        Assertions.assertEquals("Table", json.getJSONObject("messages").getString("table"));
+        int threads = statistic.getStackTracesAsArray().length;
+        int dumps = statistic.getFullThreadDumpCount();
+        Assertions.assertEquals(threads, json.getJSONArray("threads").length());
+        Assertions.assertEquals(dumps, json.getJSONArray("dumps").length());
+        Assertions.assertEquals(threads * dumps, Base64.getDecoder().decode(json.getString("states")).length);
+        Assertions.assertEquals(statistic.getStackTracesAsArray()[0].getState(1),
+                Base64.getDecoder().decode(json.getString("states"))[1]);
+
+        // strings and stacks are stored once
+        JSONArray strings = json.getJSONArray("strings");
+        Set<String> distinct = new HashSet<>();
+        for (int i = 0; i < strings.length(); i++) {
+            Assertions.assertTrue(distinct.add(strings.getString(i)));
+        }
+        JSONArray stacks = json.getJSONArray("stacks");
+        Set<String> distinctStacks = new HashSet<>();
+        for (int i = 0; i < stacks.length(); i++) {
+            Assertions.assertTrue(distinctStacks.add(stacks.getJSONArray(i).toString()));
+        }
+        JSONArray first = json.getJSONArray("dumps").getJSONObject(0).getJSONArray("threads");
+        Assertions.assertEquals(statistic.getFullThreadDumps().get(0).getThreadDumps().size() * 3, first.length());
+        Assertions.assertEquals(statistic.getFullThreadDumps().get(0).getThreadDumps().get(0).getCondition(),
+                strings.getString(first.getInt(1)));
+        Assertions.assertTrue(stacks.length() < threads * dumps);
+    }
+
+    @Test
+    void vanishedThreads() throws Exception {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(TestCompactExport.class.getResourceAsStream("/Sun/vanished.dmp"));
+        Assertions.assertEquals(1, statistic.getStackTracesAsArray().length);
+        StringWriter out = new StringWriter();
+        CompactExport.write(statistic, ResourceBundle.getBundle("one.cafebabe.samurai.web.messages"), out);
+        JSONObject json = new JSONObject(out.toString());
+
+        Assertions.assertEquals(1, json.getInt("live"));
+        JSONArray threads = json.getJSONArray("threads");
+        Assertions.assertEquals(3, threads.length());
+        Assertions.assertEquals("worker-1", threads.getJSONObject(1).getString("name"));
+        Assertions.assertEquals("worker-2", threads.getJSONObject(2).getString("name"));
+        JSONArray first = json.getJSONArray("dumps").getJSONObject(0).getJSONArray("threads");
+        for (int i = 0; i < first.length(); i += 3) {
+            Assertions.assertEquals(i / 3, first.getInt(i));
+        }
+        byte[] states = Base64.getDecoder().decode(json.getString("states"));
+        Assertions.assertEquals(6, states.length);
+        // worker-1 is in the first full thread dump only
+        Assertions.assertEquals(ThreadStateMatrix.stateOf(statistic.getFullThreadDump(0).getThreadDump(1)), states[2]);
+        Assertions.assertEquals(ThreadStateMatrix.ABSENT, states[3]);
+    }
+
+    @Test
+    void saveTo(@TempDir File dir) throws IOException {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(TestCompactExport.class.getResourceAsStream("/Sun/1.4.2_03Sunstacked.dmp"));
+        CompactExport.saveTo(statistic, dir);
+        Assertions.assertTrue(new File(dir, "index.html").exists());
+        Assertions.assertTrue(new File(dir, "viewer.js").exists());
+        String data = new String(Files.readAllBytes(new File(dir, "data.js").toPath()), StandardCharsets.UTF_8);
+        Assertions.assertTrue(data.startsWith("samurai({"));
+        Assertions.assertTrue(data.endsWith("});\n"));
+    }
+}
@@ -15,6 +15,7 @@
  */
 package one.cafebabe.samurai.web;
 
+import one.cafebabe.samurai.core.FullThreadDumpDiff;
 import one.cafebabe.samurai.core.ThreadDumpExtractor;
 import one.cafebabe.samurai.core.ThreadDumpSequence;
 import one.cafebabe.samurai.core.ThreadStatistic;
@@ -24,6 +25,7 @@ import org.junit.jupiter.api.parallel.Execution;
 import org.junit.jupiter.api.parallel.ExecutionMode;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 @Execution(ExecutionMode.CONCURRENT)
 class TestThreadFilter   {
@@ -73,4 +75,84 @@ class TestThreadFilter   {
         Assertions.assertEquals("0x0050b3d0", threadDumps.get(1).getId());
         Assertions.assertEquals("0x0050b3d0", threadDumps.get(2).getId());
     }
+
+    @Test
+    void testOrder() throws IOException {
+        new ThreadDumpExtractor(statistic).analyze(TestThreadFilter.class.getResourceAsStream("/Apple/1.4.2_08Apple.dmp"));
+        ThreadFilter filter = new ThreadFilter();
+        Assertions.assertEquals(ThreadFilter.Order.appearance, filter.getOrder());
+        filter.setQuery("./table/index_order-cpu.html");
+        Assertions.assertEquals(ThreadFilter.View.table, filter.mode);
+        Assertions.assertEquals(ThreadFilter.Order.cpu, filter.getOrder());
+        // no CPU time before HotSpot 11, so the order of appearance is kept
+        Assertions.assertArrayEquals(statistic.getStackTracesAsArray(), filter.getStackTraces(statistic));
+        filter.setQuery("./table/index.html");
+        Assertions.assertEquals(ThreadFilter.Order.appearance, filter.getOrder());
+    }
+
+    @Test
+    void testDiff() throws IOException {
+        new ThreadDumpExtractor(statistic).analyze(TestThreadFilter.class.getResourceAsStream("/Apple/1.4.2_08Apple.dmp"));
+        ThreadFilter filter = new ThreadFilter();
+        filter.setQuery("./diff/index-2_base-0.html");
+        Assertions.assertEquals(ThreadFilter.View.diff, filter.mode);
+        Assertions.assertEquals(2, filter.getFullThreadIndex());
+        Assertions.assertEquals(0, filter.getBaseFullThreadIndex());
+        FullThreadDumpDiff diff = filter.doDiff(statistic);
+        Assertions.assertSame(statistic.getFullThreadDump(0), diff.getBefore());
+        Assertions.assertSame(statistic.getFullThreadDump(2), diff.getAfter());
+        Assertions.assertTrue(diff.getNewThreads().isEmpty());
+        Assertions.assertTrue(diff.getVanishedThreads().isEmpty());
+
+        // compared with the previous one unless specified
+        filter.setQuery("./diff/index-1.html");
+        Assertions.assertEquals(1, filter.getFullThreadIndex());
+        Assertions.assertEquals(0, filter.getBaseFullThreadIndex());
+    }
+
+    @Test
+    void testWindow() throws IOException {
+        new ThreadDumpExtractor(statistic).analyze(TestThreadFilter.class.getResourceAsStream("/Apple/1.4.2_08Apple.dmp"));
+        ThreadFilter filter = new ThreadFilter();
+        Assertions.assertEquals(ThreadFilter.DEFAULT_LIMIT, filter.getLimit());
+        filter.setQuery("./table/index_order-name_offset-3_limit-4.html");
+        Assertions.assertEquals(ThreadFilter.Order.name, filter.getOrder());
+        Assertions.assertEquals(3, filter.getOffset());
+        Assertions.assertEquals(4, filter.getLimit());
+        Assertions.assertNull(filter.getState());
+        ThreadDumpSequence[] byName = statistic.getStackTracesByName();
+        ThreadDumpSequence[] window = filter.getStackTraces(statistic);
+        Assertions.assertEquals(4, window.length);
+        Assertions.assertSame(byName[3], window[0]);
+        Assertions.assertSame(byName[6], window[3]);
+        Assertions.assertEquals(10, filter.getThreadCount(statistic));
+        Assertions.assertEquals("_order-name_offset-7_limit-4", filter.getOffsetQuery(7));
+        Assertions.assertEquals("_order-cpu_limit-4", filter.getOrderQuery("cpu"));
+
+        filter.setQuery("./table/index_state-deadlocked.html");
+        Assertions.assertEquals(ThreadFilter.State.deadlocked, filter.getState());
+        Assertions.assertEquals(0, filter.getOffset());
+        Assertions.assertEquals(ThreadFilter.DEFAULT_LIMIT, filter.getLimit());
+        Assertions.assertEquals(ThreadFilter.Order.appearance, filter.getOrder());
+        window = filter.getStackTraces(statistic);
+        Assertions.assertEquals(filter.getThreadCount(statistic), window.length);
+        Assertions.assertEquals(2, window.length);
+        Assertions.assertTrue(Arrays.stream(window).anyMatch(sequence -> "0x0050b110".equals(sequence.getId())));
+        Assertions.assertEquals("", filter.getStateQuery(""));
+
+        filter.setQuery("./full/index-1_shrink-true_offset-8_limit-4.html");
+        Assertions.assertEquals(2, filter.getThreadDumps(statistic).size());
+        Assertions.assertSame(statistic.getFullThreadDump(1).getThreadDump(8), filter.getThreadDumps(statistic).get(0));
+        Assertions.assertSame(statistic.getFullThreadDump(1).getThreadDump(8), filter.doFilter(statistic).get(0));
+        String last = statistic.getFullThreadDump(2).getThreadDump(9).getId();
+        Assertions.assertEquals("./full/index-2_shrink-true_offset-8_limit-4.html", filter.getFullPage(statistic, 2, last));
+        String first = statistic.getFullThreadDump(2).getThreadDump(0).getId();
+        Assertions.assertEquals("./full/index-2_shrink-true_limit-4.html", filter.getFullPage(statistic, 2, first));
+        filter.setQuery("./full/index-1_shrink-true_offset-12.html");
+        Assertions.assertTrue(filter.getThreadDumps(statistic).isEmpty());
+
+        filter.setLimit(4);
+        filter.reset();
+        Assertions.assertEquals(ThreadFilter.DEFAULT_LIMIT, filter.getLimit());
+    }
 }
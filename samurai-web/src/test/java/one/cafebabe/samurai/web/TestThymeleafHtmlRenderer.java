@@ -15,6 +15,8 @@
  */
 package one.cafebabe.samurai.web;
 
+import one.cafebabe.samurai.core.FrameTrie;
+import one.cafebabe.samurai.core.ThreadDump;
 import one.cafebabe.samurai.core.ThreadDumpExtractor;
 import one.cafebabe.samurai.core.ThreadStatistic;
 import org.junit.jupiter.api.Test;
@@ -23,11 +25,22 @@ import org.junit.jupiter.api.parallel.ExecutionMode;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @Execution(ExecutionMode.CONCURRENT)
@@ -66,12 +79,18 @@ class TestThymeleafHtmlRenderer {
 
 
     @Test
-    void testEscape() {
+    void testEscape() throws IOException {
         ThymeleafHtmlRenderer.Util util = new ThymeleafHtmlRenderer.Util();
         assertEquals("foo&lt;bar",util.escape("foo<bar"));
         assertEquals("foo&gt;bar",util.escape("foo>bar"));
         assertEquals("foo&lt;&gt;bar",util.escape("foo<>bar"));
         assertEquals("&lt;foo&lt;&lt;foo&gt;&gt;bar&gt;",util.escape("<foo<<foo>>bar>"));
+        assertEquals("&quot;foo&quot; &amp; bar",util.escape("\"foo\" & bar"));
+        String plain = "foo bar";
+        assertSame(plain, util.escape(plain));
+        StringWriter out = new StringWriter();
+        ThymeleafHtmlRenderer.Util.escape(out, "<foo>");
+        assertEquals("&lt;foo&gt;", out.toString());
     }
 
     @Test
@@ -88,4 +107,142 @@ class TestThymeleafHtmlRenderer {
                 .forEach(File::delete);
     }
 
+    @Test
+    void testParallelPagesMatchSequential() throws IOException {
+        ThreadStatistic stats = new ThreadStatistic();
+        new ThreadDumpExtractor(stats).analyze(TestThymeleafHtmlRenderer.class.getResourceAsStream("/Sun/1.4.2_03Sunstacked.dmp"));
+        assertTrue(1 < stats.getFullThreadDumpCount());
+        ThymeleafHtmlRenderer renderer = new ThymeleafHtmlRenderer();
+        // pages written by HtmlWriter read the lazily filled caches of the statistic
+        renderer.setHtmlWriterThreshold(0);
+        Path sequential = Files.createTempDirectory("sequential");
+        Path parallel = Files.createTempDirectory("parallel");
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            renderer.saveTo(stats, sequential.toFile(), (finished, all) -> {
+            }, single);
+            // a fresh statistic, so that its caches are filled by the parallel export
+            ThreadStatistic fresh = new ThreadStatistic();
+            new ThreadDumpExtractor(fresh).analyze(TestThymeleafHtmlRenderer.class.getResourceAsStream("/Sun/1.4.2_03Sunstacked.dmp"));
+            renderer.saveTo(fresh, parallel.toFile(), (finished, all) -> {
+            }, pool);
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(sequential)) {
+                files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+            assertTrue(files.size() > stats.getFullThreadDumpCount() * 2);
+            for (Path file : files) {
+                Path other = parallel.resolve(sequential.relativize(file));
+                assertEquals(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), new String(Files.readAllBytes(other), StandardCharsets.UTF_8));
+            }
+        } finally {
+            single.shutdown();
+            pool.shutdown();
+            for (Path directory : new Path[]{sequential, parallel}) {
+                //noinspection ResultOfMethodCallIgnored
+                Files.walk(directory)
+                        .sorted(Comparator.reverseOrder())
+                        .map(Path::toFile)
+                        .forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    void testSaveToInParallel() throws IOException {
+        ThreadStatistic stats = new ThreadStatistic();
+        new ThreadDumpExtractor(stats).analyze(TestThymeleafHtmlRenderer.class.getResourceAsStream("/Sun/1.4.2_03Sunstacked.dmp"));
+        Path directory = Files.createTempDirectory("savedhtml");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            AtomicInteger last = new AtomicInteger(-1);
+            new ThymeleafHtmlRenderer().saveTo(stats, directory.toFile(), (finished, all) -> {
+                assertTrue(finished <= all);
+                // reported in order, on the calling thread
+                assertEquals(last.get() + 1, finished);
+                last.set(finished);
+            }, pool);
+            int dumps = stats.getFullThreadDumpCount();
+            int threads = stats.getStackTracesAsArray().length;
+            // a table page per order and state, all threads fit in one window
+            int tables = ThreadFilter.Order.values().length * (ThreadFilter.State.values().length + 1);
+            assertEquals(dumps * 2 + Math.max(0, dumps - 1) + threads * 2 + tables + 2, last.get());
+            assertTrue(Files.exists(directory.resolve("table/index_order-name_state-blocked.html")));
+            assertTrue(Files.exists(directory.resolve("full/index-" + (dumps - 1) + "_shrink-true.html")));
+            assertTrue(Files.exists(directory.resolve("sequence/threadId-" + stats.getFirstThreadId() + "_shrink-false.html")));
+        } finally {
+            pool.shutdown();
+            //noinspection ResultOfMethodCallIgnored
+            Files.walk(directory)
+                    .sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    @Test
+    void testHtmlWriter() throws IOException {
+        ThreadStatistic stats = new ThreadStatistic();
+        new ThreadDumpExtractor(stats).analyze(TestThymeleafHtmlRenderer.class.getResourceAsStream("/Sun/1.4.2_03Sunstacked.dmp"));
+        ThymeleafHtmlRenderer renderer = new ThymeleafHtmlRenderer("../");
+        renderer.setHtmlWriterThreshold(0);
+        ThreadFilter filter = new ThreadFilter();
+        String firstThreadName = stats.getStackTracesById(stats.getFirstThreadId()).getName();
+
+        StringWriter table = new StringWriter();
+        renderer.render(filter, stats, new HashMap<>(), table);
+        assertTrue(table.toString().startsWith("<!DOCTYPE html>"));
+        assertTrue(table.toString().contains("./sequence/threadId-" + stats.getFirstThreadId() + "_shrink-true.html"));
+        assertEquals(table.toString().split("<table", -1).length, table.toString().split("</table>", -1).length);
+
+        filter.setQuery("./full/index-0_shrink-false.html");
+        String full = renderer.render(filter, stats, new HashMap<>());
+        assertTrue(full.contains(stats.getFullThreadDump(0).getThreadDump(0).getName()));
+        assertTrue(full.contains("at "));
+        assertEquals(full.split("<div", -1).length, full.split("</div>", -1).length);
+        assertEquals(full.split("<a ", -1).length, full.split("</a>", -1).length);
+
+        // linked to the position of the thread dump in the sequence, not in the full thread dump
+        filter.setQuery("./full/index-1_shrink-false.html");
+        ThreadDump third = stats.getFullThreadDump(1).getThreadDump(2);
+        assertEquals(2, new ThymeleafHtmlRenderer.Util().sequenceAnchorOf(stats, third, 1));
+        assertTrue(renderer.render(filter, stats, new HashMap<>()).contains("./sequence/threadId-" + third.getId() + "_shrink-false.html#2\""));
+
+        filter.setQuery("./sequence/threadId-" + stats.getFirstThreadId() + "_shrink-false.html");
+        String sequence = renderer.render(filter, stats, new HashMap<>());
+        assertTrue(sequence.contains(firstThreadName));
+        assertTrue(sequence.contains("Thread dump 1/" + stats.getFullThreadDumpCount()));
+        assertEquals(sequence.split("<div", -1).length, sequence.split("</div>", -1).length);
+
+        filter.setQuery("./table/index_offset-2_limit-2.html");
+        String window = renderer.render(filter, stats, new HashMap<>());
+        int threads = stats.getStackTracesAsArray().length;
+        assertTrue(window.contains("<span>3-4/" + threads + "</span>"));
+        assertTrue(window.contains("./table/index_limit-2.html"));
+        assertTrue(window.contains("./table/index_offset-4_limit-2.html"));
+        assertEquals(3, window.split("<tr><td align=\"right\">", -1).length);
+
+        filter.setQuery("./full/index-0_shrink-false_offset-2_limit-2.html");
+        String fullWindow = renderer.render(filter, stats, new HashMap<>());
+        assertFalse(fullWindow.contains("<a name=\"" + stats.getFullThreadDump(0).getThreadDump(0).getId() + "\""));
+        assertTrue(fullWindow.contains("<a name=\"" + stats.getFullThreadDump(0).getThreadDump(2).getId() + "\""));
+        assertEquals(fullWindow.split("<div", -1).length, fullWindow.split("</div>", -1).length);
+
+        filter.setQuery("./sequence/threadId-" + stats.getFullThreadDump(0).getThreadDump(2).getId() + "_shrink-false.html");
+        // the limit of the previous page is not carried over
+        assertTrue(renderer.render(filter, stats, new HashMap<>()).contains("./full/index-0_shrink-false.html#"));
+    }
+
+    @Test
+    void testFlameGraph() throws IOException {
+        FrameTrie trie = new FrameTrie();
+        new ThreadDumpExtractor(trie).analyze(TestThymeleafHtmlRenderer.class.getResourceAsStream("/Sun/1.4.2_03Sunstacked.dmp"));
+        StringWriter html = new StringWriter();
+        FlameGraph.write(trie, "<flame>", html);
+        String flameGraph = html.toString();
+        assertTrue(flameGraph.contains("<title>&lt;flame&gt;</title>"));
+        assertTrue(flameGraph.contains("java.lang.ref.ReferenceQueue.remove"));
+        assertEquals(flameGraph.split("<div", -1).length, flameGraph.split("</div>", -1).length);
+    }
 }
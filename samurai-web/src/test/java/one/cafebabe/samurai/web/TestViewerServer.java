@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 Yusuke Yamamoto
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package one.cafebabe.samurai.web;
+
+import one.cafebabe.samurai.core.ThreadDumpExtractor;
+import one.cafebabe.samurai.core.ThreadStatistic;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.parallel.Execution;
+import org.junit.jupiter.api.parallel.ExecutionMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+@Execution(ExecutionMode.CONCURRENT)
+class TestViewerServer {
+
+    @Test
+    void serve() throws Exception {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(TestViewerServer.class.getResourceAsStream("/Sun/1.4.2_03Sunstacked.dmp"));
+        ViewerServer server = new ViewerServer(statistic, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.setHtmlWriterThreshold(0);
+        server.start();
+        try {
+            String base = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+            HttpURLConnection table = open(base + "/table/index.html");
+            Assertions.assertEquals(200, table.getResponseCode());
+            Assertions.assertTrue(table.getContentType().startsWith("text/html"));
+            String etag = table.getHeaderField("ETag");
+            Assertions.assertNotNull(etag);
+            Assertions.assertNotNull(table.getHeaderField("Last-Modified"));
+            Assertions.assertTrue(read(table).contains("./sequence/threadId-" + statistic.getFirstThreadId()));
+
+            HttpURLConnection revalidated = open(base + "/table/index.html");
+            revalidated.setRequestProperty("If-None-Match", etag);
+            Assertions.assertEquals(304, revalidated.getResponseCode());
+
+            HttpURLConnection sequence = open(base + "/sequence/threadId-" + statistic.getFirstThreadId() + "_shrink-false.html");
+            Assertions.assertEquals(200, sequence.getResponseCode());
+            Assertions.assertNotEquals(etag, sequence.getHeaderField("ETag"));
+
+            Assertions.assertEquals(404, open(base + "/full/index-" + statistic.getFullThreadDumpCount() + "_shrink-false.html").getResponseCode());
+            Assertions.assertEquals(404, open(base + "/sequence/threadId-nosuchthread_shrink-false.html").getResponseCode());
+            Assertions.assertEquals(404, open(base + "/images/../messages.properties").getResponseCode());
+            Assertions.assertEquals(200, open(base + "/images/space.gif").getResponseCode());
+
+            HttpURLConnection json = open(base + "/statistic.json");
+            Assertions.assertEquals(200, json.getResponseCode());
+            JSONObject object = new JSONObject(read(json));
+            Assertions.assertEquals(statistic.getFullThreadDumpCount(), object.getJSONArray("fullThreadDumps").length());
+            Assertions.assertEquals(statistic.getStackTracesAsArray().length, object.getJSONArray("threads").length());
+            Assertions.assertEquals(statistic.getFullThreadDumpCount(),
+                    object.getJSONArray("threads").getJSONObject(0).getJSONArray("states").length());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void cache() throws IOException {
+        ThreadStatistic statistic = new ThreadStatistic();
+        new ThreadDumpExtractor(statistic).analyze(TestViewerServer.class.getResourceAsStream("/Sun/1.4.2_03Sunstacked.dmp"));
+        ViewerServer server = new ViewerServer(statistic, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        try {
+            ViewerServer.Page page = server.getPage("/full/index-0_shrink-true.html");
+            Assertions.assertSame(page, server.getPage("/full/index-0_shrink-true.html"));
+            Assertions.assertNotSame(page, server.getPage("/full/index-0_shrink-false.html"));
+            Assertions.assertNull(server.getPage("/nosuchview/index.html"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        return connection;
+    }
+
+    private static String read(HttpURLConnection connection) throws IOException {
+        try (InputStream is = connection.getInputStream()) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}